@@ -1,119 +1,168 @@
 package org.hitlabnz.sensor_fusion_demo;
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 
-import javax.microedition.khronos.opengles.GL10;
+import android.opengl.GLES20;
 
 /**
  * A simple colour-cube that is used for drawing the current rotation of the device
- * 
+ *
+ * The geometry is uploaded once into vertex and index buffers of the GPU, drawing only binds them. A Cube can also
+ * consist of several translated copies of the colour-cube, which are then drawn with a single draw call.
  */
 public class Cube {
+
+    private static final float VERTICES[] = {
+            -1, -1, -1,
+             1, -1, -1,
+             1,  1, -1,
+            -1,  1, -1,
+            -1, -1,  1,
+             1, -1,  1,
+             1,  1,  1,
+            -1,  1,  1, };
+
+    private static final float COLORS[] = {
+            0, 0, 0, 1,
+            1, 0, 0, 1,
+            1, 1, 0, 1,
+            0, 1, 0, 1,
+            0, 0, 1, 1,
+            1, 0, 1, 1,
+            1, 1, 1, 1,
+            0, 1, 1, 1, };
+
+    private static final float ACTIVE_COLORS[] = {
+            1, 1, 1, 1,
+            0, 0, 0, 1,
+            1, 1, 1, 1,
+            0, 0, 0, 1,
+            1, 1, 1, 1,
+            0, 0, 0, 1,
+            1, 1, 1, 1,
+            0, 0, 0, 1, };
+
+    private static final short INDICES[] = {
+            0, 4, 5,
+            0, 5, 1,
+            1, 5, 6,
+            1, 6, 2,
+            2, 6, 7,
+            2, 7, 3,
+            3, 7, 4,
+            3, 4, 0,
+            4, 7, 6,
+            4, 6, 5,
+            3, 0, 1,
+            3, 1, 2 };
+
+    private static final int VERTEX_COUNT = 8;
+
     /**
-     * Buffer for the vertices
+     * The geometry of all copies, until it is uploaded
      */
-    private FloatBuffer mVertexBuffer;
+    private final FloatBuffer mVertexBuffer;
+    private final FloatBuffer mColorBuffer;
+    private final FloatBuffer mActiveColorBuffer;
+    private final ShortBuffer mIndexBuffer;
+    private final int mIndexCount;
+
     /**
-     * Buffer for the colours
+     * Names of the vertex, colour, active colour and index buffer on the GPU
      */
-    private FloatBuffer mColorBuffer;
-    private FloatBuffer mActiveColorBuffer;
-    private boolean isActive = false;
+    private final int[] mBufferNames = new int[4];
+
+    private volatile boolean isActive = false;
     public void activate() { isActive = true; }
     public void deactivate() { isActive = false; }
-    /**
-     * Buffer for indices
-     */
-    private ByteBuffer mIndexBuffer;
 
     /**
      * Initialises a new instance of the cube
      */
     public Cube() {
-        final float vertices[] = {
-                -1, -1, -1,
-                 1, -1, -1,
-                 1,  1, -1,
-                -1,  1, -1,
-                -1, -1,  1,
-                 1, -1,  1,
-                 1,  1,  1,
-                -1,  1,  1, };
-
-        final float colors[] = {
-                0, 0, 0, 1,
-                1, 0, 0, 1,
-                1, 1, 0, 1,
-                0, 1, 0, 1,
-                0, 0, 1, 1,
-                1, 0, 1, 1,
-                1, 1, 1, 1,
-                0, 1, 1, 1, };
-
-        final float activecolors[] = {
-                1, 1, 1, 1,
-                0, 0, 0, 1,
-                1, 1, 1, 1,
-                0, 0, 0, 1,
-                1, 1, 1, 1,
-                0, 0, 0, 1,
-                1, 1, 1, 1,
-                0, 0, 0, 1, };
-
-        final byte indices[] = {
-                0, 4, 5,
-                0, 5, 1,
-                1, 5, 6,
-                1, 6, 2,
-                2, 6, 7,
-                2, 7, 3,
-                3, 7, 4,
-                3, 4, 0,
-                4, 7, 6,
-                4, 6, 5,
-                3, 0, 1,
-                3, 1, 2 };
-
-        ByteBuffer vbb = ByteBuffer.allocateDirect(vertices.length * 4);
-        vbb.order(ByteOrder.nativeOrder());
-        mVertexBuffer = vbb.asFloatBuffer();
-        mVertexBuffer.put(vertices);
-        mVertexBuffer.position(0);
-
-        ByteBuffer cbb = ByteBuffer.allocateDirect(colors.length * 4);
-        cbb.order(ByteOrder.nativeOrder());
-        mColorBuffer = cbb.asFloatBuffer();
-        mColorBuffer.put(colors);
-        mColorBuffer.position(0);
-
-        ByteBuffer acbb = ByteBuffer.allocateDirect(colors.length * 4);
-        acbb.order(ByteOrder.nativeOrder());
-        mActiveColorBuffer = acbb.asFloatBuffer();
-        mActiveColorBuffer.put(activecolors);
-        mActiveColorBuffer.position(0);
-
-        mIndexBuffer = ByteBuffer.allocateDirect(indices.length);
+        this(new float[] { 0, 0, 0 });
+    }
+
+    /**
+     * Initialises a new instance with several copies of the cube
+     *
+     * @param translations The translation of each copy (x, y, z), in the order the copies are drawn
+     */
+    public Cube(float[] translations) {
+        int copies = translations.length / 3;
+        float[] vertices = new float[copies * VERTICES.length];
+        float[] colors = new float[copies * COLORS.length];
+        float[] activeColors = new float[copies * ACTIVE_COLORS.length];
+        short[] indices = new short[copies * INDICES.length];
+        for (int copy = 0; copy < copies; copy++) {
+            for (int i = 0; i < VERTICES.length; i++) {
+                vertices[copy * VERTICES.length + i] = VERTICES[i] + translations[copy * 3 + i % 3];
+            }
+            System.arraycopy(COLORS, 0, colors, copy * COLORS.length, COLORS.length);
+            System.arraycopy(ACTIVE_COLORS, 0, activeColors, copy * ACTIVE_COLORS.length, ACTIVE_COLORS.length);
+            for (int i = 0; i < INDICES.length; i++) {
+                indices[copy * INDICES.length + i] = (short) (INDICES[i] + copy * VERTEX_COUNT);
+            }
+        }
+
+        mVertexBuffer = newFloatBuffer(vertices);
+        mColorBuffer = newFloatBuffer(colors);
+        mActiveColorBuffer = newFloatBuffer(activeColors);
+        ByteBuffer ibb = ByteBuffer.allocateDirect(indices.length * 2);
+        ibb.order(ByteOrder.nativeOrder());
+        mIndexBuffer = ibb.asShortBuffer();
         mIndexBuffer.put(indices);
         mIndexBuffer.position(0);
+        mIndexCount = indices.length;
+    }
+
+    private static FloatBuffer newFloatBuffer(float[] values) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(values.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer buffer = bb.asFloatBuffer();
+        buffer.put(values);
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * Uploads the geometry to the GPU. Must be called on the GL thread whenever a new GL context was created.
+     */
+    public void createBuffers() {
+        GLES20.glGenBuffers(mBufferNames.length, mBufferNames, 0);
+        upload(GLES20.GL_ARRAY_BUFFER, mBufferNames[0], mVertexBuffer, mVertexBuffer.capacity() * 4);
+        upload(GLES20.GL_ARRAY_BUFFER, mBufferNames[1], mColorBuffer, mColorBuffer.capacity() * 4);
+        upload(GLES20.GL_ARRAY_BUFFER, mBufferNames[2], mActiveColorBuffer, mActiveColorBuffer.capacity() * 4);
+        upload(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBufferNames[3], mIndexBuffer, mIndexBuffer.capacity() * 2);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    private static void upload(int target, int name, Buffer data, int size) {
+        GLES20.glBindBuffer(target, name);
+        GLES20.glBufferData(target, size, data, GLES20.GL_STATIC_DRAW);
     }
 
     /**
-     * Draws this cube of the given GL-Surface
-     * 
-     * @param gl The GL-Surface this cube should be drawn upon.
+     * Draws all copies of this cube with the current shader program
+     *
+     * @param positionAttribute The location of the vertex position attribute (vec3) of the program
+     * @param colorAttribute The location of the vertex colour attribute (vec4) of the program
      */
-    public void draw(GL10 gl) {
-        gl.glEnable(GL10.GL_CULL_FACE);
-        gl.glFrontFace(GL10.GL_CW);
-        gl.glShadeModel(GL10.GL_SMOOTH);
-        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, mVertexBuffer);
-        if( isActive )
-            gl.glColorPointer(4, GL10.GL_FLOAT, 0, mActiveColorBuffer);
-        else
-            gl.glColorPointer(4, GL10.GL_FLOAT, 0, mColorBuffer);
-
-        gl.glDrawElements(GL10.GL_TRIANGLES, 36, GL10.GL_UNSIGNED_BYTE, mIndexBuffer);
+    public void draw(int positionAttribute, int colorAttribute) {
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferNames[0]);
+        GLES20.glVertexAttribPointer(positionAttribute, 3, GLES20.GL_FLOAT, false, 0, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferNames[isActive ? 2 : 1]);
+        GLES20.glVertexAttribPointer(colorAttribute, 4, GLES20.GL_FLOAT, false, 0, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBufferNames[3]);
+
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mIndexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
     }
 }
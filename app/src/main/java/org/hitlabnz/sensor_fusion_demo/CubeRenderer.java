@@ -3,37 +3,134 @@ package org.hitlabnz.sensor_fusion_demo;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.AcquisitionScheduler;
 import org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationProvider;
+import org.hitlabnz.sensor_fusion_demo.representation.Matrix;
 import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.hitlabnz.sensor_fusion_demo.scanning.CurveVertices;
+import org.hitlabnz.sensor_fusion_demo.scanning.MatrixDiagnostics;
+import org.hitlabnz.sensor_fusion_demo.scanning.ScanJournal;
+import org.hitlabnz.sensor_fusion_demo.scanning.ScanOutput;
+import org.hitlabnz.sensor_fusion_demo.scanning.TraceWriter;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Class that implements the rendering of a cube with the current rotation of the device that is provided by a
  * OrientationProvider
  * 
+ * Renders with OpenGL ES 2.0: The cubes are uploaded once into buffers of the GPU and transformed by a minimal
+ * shader, so a frame consists of a single draw call. The rotation matrix is taken as it is from the orientation
+ * provider and uploaded once per frame, the shader applies it to all cubes. While scanning, the scanned curves are
+ * drawn on top of the cubes.
+ * 
  * @author Alexander Pacha
  * 
  */
 public class CubeRenderer implements GLSurfaceView.Renderer {
+
     /**
-     * The colour-cube that is drawn repeatedly
+     * Distance of the cubes from the viewer
+     */
+    private static final float DISTANCE = 3;
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uProjectionViewMatrix;\n" +
+            "uniform mat4 uRotationMatrix;\n" +
+            "uniform mat4 uModelMatrix;\n" +
+            "attribute vec3 aPosition;\n" +
+            "attribute vec4 aColor;\n" +
+            "varying vec4 vColor;\n" +
+            "void main() {\n" +
+            "    vColor = aColor;\n" +
+            "    gl_Position = uProjectionViewMatrix * uRotationMatrix * uModelMatrix * vec4(aPosition, 1.0);\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "varying vec4 vColor;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = vColor;\n" +
+            "}\n";
+
+    /**
+     * The colour-cube that is viewed from the outside
      */
     private Cube mCube;
 
+    /**
+     * The cubes that surround the viewer in front, behind, below, above, left and right, and the one around the viewer
+     */
+    private Cube mSurroundingCubes;
+
+    /**
+     * Number of points of the scanned curves that fit before the arrays grow, about five minutes at 50 Hz
+     */
+    private static final int CURVE_CAPACITY = 16384;
+
+    /**
+     * The points of the scanned curves and their drawing
+     */
+    private final CurveVertices mCurveVertices = new CurveVertices(CURVE_CAPACITY);
+    private final ScannedCurve mScannedCurve = new ScannedCurve(mCurveVertices);
+
+    /**
+     * The program that draws the cubes and the locations of its inputs
+     */
+    private ShaderProgram mProgram;
+    private int mPositionAttribute;
+    private int mColorAttribute;
+    private int mProjectionViewMatrixUniform;
+    private int mRotationMatrixUniform;
+    private int mModelMatrixUniform;
+
+    /**
+     * Transformations of the scene, which only change with the surface
+     */
+    private final float[] mProjectionMatrix = new float[16];
+    private final float[] mViewMatrix = new float[16];
+    private final float[] mProjectionViewMatrix = new float[16];
+    private final float[] mIdentityMatrix = new float[16];
+
+    /**
+     * The rotation matrix of the current frame (column major), written by the orientation provider and read by
+     * OpenGL without another copy
+     */
+    private final FloatBuffer mRotationBuffer = ByteBuffer.allocateDirect(16 * 4).order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+
+    /**
+     * The predicted rotation matrix, if {@link #predictionLead} is set
+     */
+    private final float[] mPredictedRotationMatrix = new float[16];
+
+    /**
+     * CPU time of onDrawFrame on the GL thread in nano-seconds. Written by the GL thread only, read by any thread.
+     */
+    private volatile long frameTimeSum;
+    private volatile long frameTimeMax;
+    private volatile int frameCount;
+
     static public class DeleteFileDialogFragment extends DialogFragment {
         @Override
         public Dialog onCreateDialog(Bundle savedInstanceState) {
@@ -60,11 +157,112 @@ public class CubeRenderer implements GLSurfaceView.Renderer {
      * The current provider of the device orientation.
      */
     private OrientationProvider orientationProvider = null;
-    private Quaternion quaternion = new Quaternion();
-    private boolean mScanOn = false;
-    private File mMriderFile;
+
+    /**
+     * Time in nano-seconds between drawing a frame and the frame being visible, 0 draws the current orientation
+     */
+    private long predictionLead = 0;
+    private volatile boolean mScanOn = false;
     private int numpts = 0;
 
+    /**
+     * Default rate of the scanned samples in Hz
+     */
+    private static final int ACQUISITION_RATE = 50;
+
+    /**
+     * Time between two scanned samples in nano-seconds
+     */
+    private long mAcquisitionPeriod = 1000000000L / ACQUISITION_RATE;
+
+    /**
+     * Takes the scanned samples on the sensor thread while scanning, null otherwise
+     */
+    private AcquisitionScheduler mAcquisitionScheduler;
+
+    /**
+     * Difference between the wall clock and the elapsed real-time of the sensor events in milliseconds, for the
+     * time-stamps of the scanned samples
+     */
+    private volatile long mWallClockOffset;
+
+    /**
+     * Called after a sample was added to the scanned curves or the cubes were activated or deactivated, e.g. to
+     * request a new frame
+     */
+    private volatile Runnable mRenderRequest;
+
+    /**
+     * Orders the samples of the sensor thread and the curve and segment markers of the UI thread: A sample is added to
+     * the scan output and the scanned curves as a whole, either before or after a marker, and no sample is added after
+     * scanning stopped.
+     */
+    private final Object mScanLock = new Object();
+
+    /**
+     * Receives the scanned samples on the sensor thread
+     */
+    private final AcquisitionScheduler.OnSampleListener mSampleListener = new AcquisitionScheduler.OnSampleListener() {
+        @Override
+        public void onSample(long timestamp, Quaternion quaternion) {
+            synchronized (mScanLock) {
+                if (!mScanOn) {
+                    return;
+                }
+                takeSample(mWallClockOffset + timestamp / 1000000L, quaternion);
+            }
+            requestRender();
+        }
+    };
+
+    private void requestRender() {
+        Runnable renderRequest = mRenderRequest;
+        if (renderRequest != null) {
+            renderRequest.run();
+        }
+    }
+
+    /**
+     * Number of records the trace writer can buffer; at 50 Hz this is more than a minute of samples
+     */
+    private static final int TRACE_CAPACITY = 4096;
+
+    /**
+     * Stores the scanned curves, a {@link ScanJournal} or a {@link TraceWriter}
+     */
+    private ScanOutput mScanOutput;
+
+    /**
+     * The file of the journal, if the scanned curves are stored in a {@link ScanJournal}, and whether anything was
+     * scanned into it
+     */
+    private File mJournalFile;
+    private boolean mScanned = false;
+
+    /**
+     * Whether the journals left behind by earlier processes were recovered. This is done once, before the first
+     * renderer of the process creates its journal, so no journal that is in use is ever recovered.
+     */
+    private static boolean sJournalsRecovered = false;
+
+    /**
+     * Exports and recovers the journals one after the other, so the UI thread does not wait for the file operations
+     * when a renderer is created or closed
+     */
+    private static final ExecutorService sJournalExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Keeps the matrices of the scanned samples for diagnostics. Only in debug builds, release builds record nothing.
+     */
+    private static final boolean DIAGNOSTICS = BuildConfig.DEBUG;
+
+    /**
+     * Number of matrices the diagnostics keep; at 50 Hz these are the last five seconds
+     */
+    private static final int DIAGNOSTICS_CAPACITY = 256;
+
+    private final MatrixDiagnostics mDiagnostics = DIAGNOSTICS ? new MatrixDiagnostics(DIAGNOSTICS_CAPACITY) : null;
+
     public boolean isScanning() { return mScanOn; }
 
     public void startScanning() {
@@ -72,40 +270,306 @@ public class CubeRenderer implements GLSurfaceView.Renderer {
             Log.e("Exception","External storage not writable.");
             return;
         }
-        mScanOn = true;
         mCube.activate();
+        mSurroundingCubes.activate();
+        requestRender();
         Log.i("Scanning","START");
-        // default : 1 0 (boundary, open)
-        writeToFile("CURVE  1  0",true/* append */);
-        Log.i("Scanning","CURVE");
-        addSegment();
+        synchronized (mScanLock) {
+            mScanOn = true;
+            mScanned = true;
+            // default : 1 0 (boundary, open)
+            mScanOutput.curve(1, 0);
+            Log.i("Scanning","CURVE");
+            addSegment();
+        }
+        // the samples are taken at a fixed rate on the sensor thread, independent of the frames
+        mWallClockOffset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        mAcquisitionScheduler = new AcquisitionScheduler(mAcquisitionPeriod, mSampleListener);
+        if (orientationProvider != null) {
+            orientationProvider.setAcquisitionScheduler(mAcquisitionScheduler);
+        }
     }
 
     public void addSegment() {
-        writeToFile("SEGMENT",true/* append */);
+        synchronized (mScanLock) {
+            mScanOutput.segment();
+            mCurveVertices.startSegment();
+        }
         Log.i("Scanning","SEGMENT");
     }
 
     public void stopScanning() {
-        mScanOn = false;
+        synchronized (mScanLock) {
+            mScanOn = false;
+        }
+        if (orientationProvider != null) {
+            orientationProvider.setAcquisitionScheduler(null);
+        }
         mCube.deactivate();
+        mSurroundingCubes.deactivate();
+        requestRender();
+        mScanOutput.flush();
         Log.i("Scanning","STOP");
+        AcquisitionScheduler scheduler = mAcquisitionScheduler;
+        if (scheduler != null && scheduler.getSampleCount() > 0) {
+            Log.i("Scanning", "Acquisition: " + scheduler.getSampleCount() + " samples at "
+                    + Math.round(scheduler.getAchievedRate() * 10) / 10.0 + " Hz, " + scheduler.getMissedCount()
+                    + " missed, interval jitter " + Math.round(scheduler.getIntervalJitter() / 1000) + " us, "
+                    + scheduler.getMaxInterval() / 1000 + " us maximum, delay " + scheduler.getAverageDelay() / 1000
+                    + " us average, " + scheduler.getMaxDelay() / 1000 + " us maximum");
+            Log.i("Scanning", "Sensor events: " + Math.round(scheduler.getEventRate() * 10) / 10.0 + " Hz, "
+                    + scheduler.getMaxEventInterval() / 1000 + " us longest interval");
+        }
+        mAcquisitionScheduler = null;
+        dumpDiagnostics();
     }
 
     /**
-     * Initialises a new CubeRenderer
+     * Writes the matrices of the last scanned samples to the log. Does nothing in release builds.
+     */
+    public void dumpDiagnostics() {
+        if (mDiagnostics == null || mDiagnostics.getRecordCount() == 0) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        try {
+            mDiagnostics.dump(text);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+        }
+        for (String line : text.toString().split("\n")) {
+            Log.d("Scanning", line);
+        }
+    }
+
+    /**
+     * @return The matrices of the scanned samples, null in release builds
+     */
+    public MatrixDiagnostics getDiagnostics() {
+        return mDiagnostics;
+    }
+
+    /**
+     * Sets the rate of the scanned samples, takes effect with the next start of scanning
+     *
+     * @param rate The number of samples per second, 50 by default
+     */
+    public void setAcquisitionRate(int rate) {
+        mAcquisitionPeriod = 1000000000L / rate;
+    }
+
+    /**
+     * @return The scheduler of the current scan, null if not scanning
+     */
+    public AcquisitionScheduler getAcquisitionScheduler() {
+        return mAcquisitionScheduler;
+    }
+
+    /**
+     * Sets what is done after a sample was added to the scanned curves (on the sensor thread) or the cubes changed
+     * their colours when scanning started or stopped (on the calling thread), e.g. to request a new frame of a view
+     * that only renders when asked to.
+     *
+     * @param renderRequest The action, or null
+     */
+    public void setRenderRequest(Runnable renderRequest) {
+        mRenderRequest = renderRequest;
+    }
+
+    /**
+     * Initialises a new CubeRenderer that stores the scanned curves in a {@link ScanJournal} of its own
+     * (mrider-*.journal), which survives the app being killed while scanning. {@link #close()} exports the scanned
+     * curves to mrider.txt. The journals that earlier processes left behind are exported to mrider-*-recovered.txt when
+     * the first renderer is created. If the journal can not be created, the curves are written to mrider.txt by a
+     * {@link TraceWriter}.
      */
     public CubeRenderer(Context context) {
-        // init the cube
-        mCube = new Cube();
+        initCubes();
+        File directory = context.getExternalFilesDir(null);
+        recoverJournals(directory);
+        try {
+            // Several renderers exist at the same time, e.g. one per page, so each one has a file of its own
+            mJournalFile = File.createTempFile("mrider-", ".journal", directory);
+            mScanOutput = ScanJournal.create(mJournalFile);
+        } catch (IOException e) {
+            Log.e("Exception", "Creating the scan journal failed: " + e.toString());
+            if (mJournalFile != null) {
+                mJournalFile.delete();
+                mJournalFile = null;
+            }
+            // Without a journal there is nothing to export, so the curves are written to mrider.txt directly
+            mScanOutput = startTraceWriter(new File(directory, "mrider.txt"), TraceWriter.Format.MORPHORIDER);
+        }
+        mScanOutput.network();
+    }
+
+    /**
+     * Exports the journals that were left behind by earlier processes to mrider-*-recovered.txt and deletes them. A
+     * journal that was not closed, because the app was killed, is first cut after its last committed record. Only
+     * does something the first time it is called in a process.
+     * 
+     * The journals are listed right away, before the renderer creates its own one, and recovered in the background.
+     */
+    private static synchronized void recoverJournals(final File directory) {
+        if (sJournalsRecovered) {
+            return;
+        }
+        sJournalsRecovered = true;
+        File[] files = directory == null ? null : directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final List<File> journalFiles = new ArrayList<File>();
+        for (File file : files) {
+            if (file.getName().endsWith(".journal")) {
+                journalFiles.add(file);
+            }
+        }
+        if (journalFiles.isEmpty()) {
+            return;
+        }
+        sJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (File journalFile : journalFiles) {
+                    recoverJournal(directory, journalFile);
+                }
+            }
+        });
+    }
+
+    private static void recoverJournal(File directory, File journalFile) {
+        String name = journalFile.getName();
+        try {
+            if (!ScanJournal.isClosed(journalFile)) {
+                ScanJournal.recover(journalFile);
+            }
+            File textFile = new File(directory, name.substring(0, name.length() - ".journal".length())
+                    + "-recovered.txt");
+            long records = ScanJournal.exportMorphorider(journalFile, textFile);
+            // A journal with nothing but the network header was never scanned into
+            if (records <= 1) {
+                textFile.delete();
+            } else {
+                Log.i("Scanning", "Recovered " + records + " records into " + textFile.getName());
+            }
+            journalFile.delete();
+        } catch (IOException e) {
+            Log.e("Exception", "Recovering the scan journal " + name + " failed: " + e.toString());
+        }
+    }
+
+    /**
+     * Initialises a new CubeRenderer
+     *
+     * @param context The context that provides the directory for the scanned curves
+     * @param traceFormat The format of the file with the scanned curves; {@link TraceWriter.Format#MORPHORIDER} writes
+     *            mrider.txt as before, {@link TraceWriter.Format#BINARY} writes mrider.bin, which can be exported with
+     *            {@link TraceWriter#exportMorphorider(File, File)}
+     */
+    public CubeRenderer(Context context, TraceWriter.Format traceFormat) {
+        initCubes();
         // open Morphorider file
-        mMriderFile = new File( context.getExternalFilesDir(null), "mrider.txt");
-        if(mMriderFile.exists()) {
+        String fileName = traceFormat == TraceWriter.Format.BINARY ? "mrider.bin" : "mrider.txt";
+        File mriderFile = new File( context.getExternalFilesDir(null), fileName);
+        if(mriderFile.exists()) {
             //mDeleteDialog.show();
-            //mMriderFile.delete();
+            //mriderFile.delete();
         }
         // clear the file
-        writeToFile("MORPHORIDER NETWORK",false/*do not append, erase*/);
+        mScanOutput = startTraceWriter(mriderFile, traceFormat);
+        mScanOutput.network();
+    }
+
+    private static TraceWriter startTraceWriter(File file, TraceWriter.Format format) {
+        TraceWriter writer = new TraceWriter(file, format, TRACE_CAPACITY);
+        writer.start();
+        return writer;
+    }
+
+    private void initCubes() {
+        // init the cubes
+        mCube = new Cube();
+        mSurroundingCubes = new Cube(new float[] {
+                0, 0, -DISTANCE,
+                0, 0, DISTANCE,
+                0, -DISTANCE, 0,
+                0, DISTANCE, 0,
+                -DISTANCE, 0, 0,
+                DISTANCE, 0, 0,
+                0, 0, 0 });
+        Matrix.setIdentityM(mIdentityMatrix, 0);
+        Matrix.setIdentityM(mViewMatrix, 0);
+        Matrix.translateM(mViewMatrix, 0, 0, 0, -DISTANCE);
+    }
+
+    /**
+     * Writes the remaining samples and closes the file with the scanned curves. The renderer must not be used for
+     * scanning afterwards.
+     * 
+     * If the curves were scanned into a journal, they are exported to mrider.txt in the background and the journal is
+     * deleted. If the export fails, the journal is kept and exported with the ones of the next start.
+     */
+    public void close() {
+        if (mScanOn) {
+            stopScanning();
+        }
+        mScanOutput.close();
+        if (mScanOutput.getDroppedRecords() > 0) {
+            Log.w("Scanning", "Dropped " + mScanOutput.getDroppedRecords() + " samples");
+        }
+        if (mJournalFile != null) {
+            exportJournal(mJournalFile, mScanned);
+            mJournalFile = null;
+        }
+        if (frameCount > 0) {
+            Log.i("CubeRenderer", "Frame time: average " + getAverageFrameTime() / 1000 + " us, maximum "
+                    + getMaxFrameTime() / 1000 + " us, " + frameCount + " frames");
+        }
+    }
+
+    /**
+     * Exports a closed journal to mrider.txt and deletes it, in the background
+     *
+     * @param scanned false, if nothing was scanned into the journal. It is deleted without replacing the curves of
+     *            another renderer.
+     */
+    private static void exportJournal(final File journalFile, final boolean scanned) {
+        sJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (scanned) {
+                        ScanJournal.exportMorphorider(journalFile, new File(journalFile.getParentFile(), "mrider.txt"));
+                    }
+                    journalFile.delete();
+                } catch (IOException e) {
+                    Log.e("Exception", "Exporting the scan journal failed: " + e.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The average CPU time of a frame on the GL thread in nano-seconds, 0 if nothing was drawn yet
+     */
+    public long getAverageFrameTime() {
+        int count = frameCount;
+        return count == 0 ? 0 : frameTimeSum / count;
+    }
+
+    /**
+     * @return The maximum CPU time of a frame on the GL thread in nano-seconds
+     */
+    public long getMaxFrameTime() {
+        return frameTimeMax;
+    }
+
+    /**
+     * @return The number of frames drawn so far
+     */
+    public int getFrameCount() {
+        return frameCount;
     }
 
     /**
@@ -116,7 +580,42 @@ public class CubeRenderer implements GLSurfaceView.Renderer {
      * @param orientationProvider The new orientation provider that delivers the current orientation of the device
      */
     public void setOrientationProvider(OrientationProvider orientationProvider) {
+        if (this.orientationProvider != null) {
+            this.orientationProvider.setAcquisitionScheduler(null);
+        }
         this.orientationProvider = orientationProvider;
+        if (mScanOn && orientationProvider != null) {
+            orientationProvider.setAcquisitionScheduler(mAcquisitionScheduler);
+        }
+    }
+
+    /**
+     * Draws the orientation the device will have when the frame is visible instead of the last measured one, to hide
+     * the latency of the sensors and the display. Only has an effect if the prediction of the orientation provider is
+     * enabled, see {@link OrientationProvider#setMaxPredictionHorizon(long)}. The scanned curves always use the
+     * measured orientation.
+     * 
+     * @param predictionLead The time between drawing and showing a frame in nano-seconds, usually one or two frames;
+     *            0 draws the last measured orientation
+     */
+    public void setPredictionLead(long predictionLead) {
+        this.predictionLead = predictionLead;
+    }
+
+    /**
+     * Reads the rotation matrix the cubes are drawn with from the orientation provider
+     */
+    private void readRotationMatrix() {
+        if (orientationProvider == null) {
+            Matrix.setIdentityM(mPredictedRotationMatrix, 0);
+            mRotationBuffer.put(mPredictedRotationMatrix).position(0);
+        } else if (predictionLead > 0) {
+            orientationProvider.getPredictedRotationMatrix(SystemClock.elapsedRealtimeNanos() + predictionLead,
+                    mPredictedRotationMatrix);
+            mRotationBuffer.put(mPredictedRotationMatrix).position(0);
+        } else {
+            orientationProvider.getRotationMatrix(mRotationBuffer);
+        }
     }
 
     public boolean isExternalStorageWritable() {
@@ -126,141 +625,68 @@ public class CubeRenderer implements GLSurfaceView.Renderer {
         return false;
     }
 
-    private void writeToFile(String data, boolean append) {
-        try {
-            BufferedWriter writer = new BufferedWriter(
-                    new FileWriter(mMriderFile,append));
-            writer.write(data+"\n");
-            writer.close();
-        }
-        catch (IOException e) {
-            Log.e("Exception","File write failed: "+e.toString());
-        }
-    }
-
     /**
      * Perform the actual rendering of the cube for each frame
      * 
      * @param gl The surface on which the cube should be rendered
      */
-    private long lastms = 0;
     public void onDrawFrame(GL10 gl) {
+        long frameStart = System.nanoTime();
 
         // clear screen
-        gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
-        // set-up modelview matrix
-        gl.glMatrixMode(GL10.GL_MODELVIEW);
-        gl.glLoadIdentity();
+        // All Orientation providers deliver Quaternion as well as rotation matrix. The rotation matrix is uploaded as
+        // it is, the shader combines it with the projection and view
+        readRotationMatrix();
 
+        mProgram.use();
+        GLES20.glUniformMatrix4fv(mRotationMatrixUniform, 1, false, mRotationBuffer);
+        GLES20.glUniformMatrix4fv(mModelMatrixUniform, 1, false, mIdentityMatrix, 0);
         if (showCubeInsideOut) {
-            float dist = 3;
-            gl.glTranslatef(0, 0, -dist);
-
-            if (orientationProvider != null) {
-                // All Orientation providers deliver Quaternion as well as rotation matrix.
-                // Use your favourite representation:
-
-                // Get the rotation from the current orientationProvider as rotation matrix
-                //gl.glMultMatrixf(orientationProvider.getRotationMatrix().getMatrix(), 0);
-
-                // Get the rotation from the current orientationProvider as quaternion
-                orientationProvider.getQuaternion(quaternion);
-                gl.glRotatef((float) (2.0f * Math.acos(quaternion.getW()) * 180.0f / Math.PI), quaternion.getX(), quaternion.getY(), quaternion.getZ());
-            }
-
-            // draw our object
-            gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-            gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-
-            mCube.draw(gl);
+            GLES20.glUniformMatrix4fv(mProjectionViewMatrixUniform, 1, false, mProjectionViewMatrix, 0);
+            mCube.draw(mPositionAttribute, mColorAttribute);
         } else {
-
-            if (orientationProvider != null) {
-                // All Orientation providers deliver Quaternion as well as rotation matrix.
-                // Use your favourite representation:
-
-                // Get the rotation from the current orientationProvider as rotation matrix
-                //gl.glMultMatrixf(orientationProvider.getRotationMatrix().getMatrix(), 0);
-
-                // Get the rotation from the current orientationProvider as quaternion
-                orientationProvider.getQuaternion(quaternion);
-                gl.glRotatef((float) (2.0f * Math.acos(quaternion.getW()) * 180.0f / Math.PI), quaternion.getX(), quaternion.getY(), quaternion.getZ());
-            }
-
-            float dist = 3;
-            drawTranslatedCube(gl, 0, 0, -dist);
-            drawTranslatedCube(gl, 0, 0, dist);
-            drawTranslatedCube(gl, 0, -dist, 0);
-            drawTranslatedCube(gl, 0, dist, 0);
-            drawTranslatedCube(gl, -dist, 0, 0);
-            drawTranslatedCube(gl, dist, 0, 0);
+            GLES20.glUniformMatrix4fv(mProjectionViewMatrixUniform, 1, false, mProjectionMatrix, 0);
+            mSurroundingCubes.draw(mPositionAttribute, mColorAttribute);
         }
+        // without depth test, the curves are drawn over the cubes
+        mScannedCurve.draw(mPositionAttribute, mColorAttribute, mModelMatrixUniform);
 
-        if (mScanOn) {
-            long ms = System.currentTimeMillis();
-
-            // acquisition frequency = 50 Hz
-            if (ms-lastms > 20) {
-
-                // rotation matrix
-                float M[] = quaternion.getMatrix4x4().getMatrix();
-
-                // tangent + normal
-                float   tx = M[4],
-                        ty = M[5],
-                        tz = M[6],
-                        nx = M[8],
-                        ny = M[9],
-                        nz = M[10];
-
-                // format
-                String scalar = " %+8.6f";
-                String vector = scalar+scalar+scalar;
-
-                // the output string
-                String output = String.format("%16d ",ms);
-                output += String.format(vector+vector,tx,ty,tz,nx,ny,nz);
-                writeToFile(output,true/*append*/);
-                numpts++;
-
-                // send matrix to log
-                String one = "   %+4.2f ";
-                String four = one + one + one + one;
-                Log.i("Ve", "  ___B___  ___T___  ___N___ ");
-                Log.i("Rx", String.format(four, M[0], M[4], M[8], M[12]));
-                Log.i("Ry", String.format(four, M[1], M[5], M[9], M[13]));
-                Log.i("Rz", String.format(four, M[2], M[6], M[10], M[14]));
-                Log.i("Rw", String.format(four, M[3], M[7], M[11], M[15]));
-                Log.i("END", " ");
-                lastms = ms;
-            }
-        }
-        // draw our object
-        gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-        gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-
-        mCube.draw(gl);
+        long frameTime = System.nanoTime() - frameStart;
+        frameTimeSum += frameTime;
+        frameTimeMax = Math.max(frameTimeMax, frameTime);
+        frameCount++;
     }
 
     /**
-     * Draws a translated cube
-     * 
-     * @param gl the surface
-     * @param translateX x-translation
-     * @param translateY y-translation
-     * @param translateZ z-translation
+     * Adds a scanned sample to the trace and to the scanned curves. Called on the sensor thread, holding the
+     * {@link #mScanLock}.
+     *
+     * @param ms The time of the sample on the wall clock in milliseconds
+     * @param quaternion The orientation at that time
      */
-    private void drawTranslatedCube(GL10 gl, float translateX, float translateY, float translateZ) {
-        gl.glPushMatrix();
-        gl.glTranslatef(translateX, translateY, translateZ);
-
-        // draw our object
-        gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-        gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-
-        mCube.draw(gl);
-        gl.glPopMatrix();
+    private void takeSample(long ms, Quaternion quaternion) {
+        // rotation matrix
+        float M[] = quaternion.getMatrix4x4().getMatrix();
+
+        // tangent + normal
+        float   tx = M[4],
+                ty = M[5],
+                tz = M[6],
+                nx = M[8],
+                ny = M[9],
+                nz = M[10];
+
+        // hand over to the scan output
+        mScanOutput.sample(ms,tx,ty,tz,nx,ny,nz);
+        mCurveVertices.add(tx, ty, tz);
+        numpts++;
+
+        // keep the matrix for diagnostics, formatted only when it is dumped
+        if (DIAGNOSTICS) {
+            mDiagnostics.record(ms, M);
+        }
     }
 
     /**
@@ -272,20 +698,34 @@ public class CubeRenderer implements GLSurfaceView.Renderer {
      */
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         // set view-port
-        gl.glViewport(0, 0, width, height);
+        GLES20.glViewport(0, 0, width, height);
         // set projection matrix
         float ratio = (float) width / height;
-        gl.glMatrixMode(GL10.GL_PROJECTION);
-        gl.glLoadIdentity();
-        gl.glFrustumf(-ratio, ratio, -1, 1, 1, 10);
+        Matrix.frustumM(mProjectionMatrix, 0, -ratio, ratio, -1, 1, 1, 10);
+        Matrix.multiplyMM(mProjectionViewMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         // dither is enabled by default, we don't need it
-        gl.glDisable(GL10.GL_DITHER);
+        GLES20.glDisable(GLES20.GL_DITHER);
         // clear screen in black
-        gl.glClearColor(0, 0, 0, 1);
+        GLES20.glClearColor(0, 0, 0, 1);
+        GLES20.glEnable(GLES20.GL_CULL_FACE);
+        GLES20.glFrontFace(GLES20.GL_CW);
+
+        // A new context has none of the objects of the previous one
+        mProgram = new ShaderProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        mPositionAttribute = mProgram.getAttributeLocation("aPosition");
+        mColorAttribute = mProgram.getAttributeLocation("aColor");
+        mProjectionViewMatrixUniform = mProgram.getUniformLocation("uProjectionViewMatrix");
+        mRotationMatrixUniform = mProgram.getUniformLocation("uRotationMatrix");
+        mModelMatrixUniform = mProgram.getUniformLocation("uModelMatrix");
+        GLES20.glEnableVertexAttribArray(mPositionAttribute);
+        GLES20.glEnableVertexAttribArray(mColorAttribute);
+        mCube.createBuffers();
+        mSurroundingCubes.createBuffers();
+        mScannedCurve.createBuffers();
     }
 
     /**
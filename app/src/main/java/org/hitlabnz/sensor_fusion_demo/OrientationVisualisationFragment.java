@@ -2,9 +2,12 @@ package org.hitlabnz.sensor_fusion_demo;
 
 import org.hitlabnz.sensor_fusion_demo.orientationProvider.AccelerometerCompassProvider;
 import org.hitlabnz.sensor_fusion_demo.orientationProvider.CalibratedGyroscopeProvider;
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.ExtendedKalmanFilterProvider;
 import org.hitlabnz.sensor_fusion_demo.orientationProvider.GravityCompassProvider;
 import org.hitlabnz.sensor_fusion_demo.orientationProvider.ImprovedOrientationSensor1Provider;
 import org.hitlabnz.sensor_fusion_demo.orientationProvider.ImprovedOrientationSensor2Provider;
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.MadgwickProvider;
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.MahonyProvider;
 import org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationProvider;
 import org.hitlabnz.sensor_fusion_demo.orientationProvider.RotationVectorProvider;
 
@@ -86,6 +89,16 @@ public class OrientationVisualisationFragment extends Fragment {
         }
     }
 
+    /**
+     * Smallest change of the orientation that is drawn, in radians
+     */
+    private static final float RENDER_MIN_ANGLE = (float) Math.toRadians(0.1);
+
+    /**
+     * Highest number of frames per second that are drawn for changes of the orientation
+     */
+    private static final int MAX_FRAME_RATE = 60;
+
     /**
      * The class that renders the cube
      */
@@ -119,6 +132,15 @@ public class OrientationVisualisationFragment extends Fragment {
         mGLSurfaceView.onPause();
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // The pager destroys the views of pages that are out of sight and creates them again with a new renderer, so
+        // the renderer is closed with its view and not only when the fragment is gone
+        mRenderer.close();
+        mRenderer = null;
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         // Initialise the orientationProvider
@@ -147,22 +169,56 @@ public class OrientationVisualisationFragment extends Fragment {
             currentOrientationProvider = new AccelerometerCompassProvider((SensorManager) getActivity()
                     .getSystemService(SensorSelectionActivity.SENSOR_SERVICE));
             break;
+        case 7:
+            currentOrientationProvider = new ExtendedKalmanFilterProvider((SensorManager) getActivity()
+                    .getSystemService(SensorSelectionActivity.SENSOR_SERVICE));
+            break;
+        case 8:
+            currentOrientationProvider = new MadgwickProvider((SensorManager) getActivity().getSystemService(
+                    SensorSelectionActivity.SENSOR_SERVICE));
+            break;
+        case 9:
+            currentOrientationProvider = new MahonyProvider((SensorManager) getActivity().getSystemService(
+                    SensorSelectionActivity.SENSOR_SERVICE));
+            break;
         default:
             break;
         }
+        // Slow the sensors down while the device lies on the table, has no effect without a gyroscope
+        currentOrientationProvider.getSensorConfiguration().setStationaryQuietPeriod(2000000);
 
         // Create our Preview view and set it as the content of our Activity
         mRenderer = new CubeRenderer(getActivity());
         mRenderer.setOrientationProvider(currentOrientationProvider);
         mGLSurfaceView = new SurfaceView(getActivity());
+        mGLSurfaceView.setEGLContextClientVersion(2);
         mGLSurfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0);
         mGLSurfaceView.setRenderer(mRenderer);
 
+        // Only draw a frame when the orientation changed noticeably, not while the device lies still
+        mGLSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        currentOrientationProvider.setOnOrientationChangedListener(
+                new OrientationProvider.OnOrientationChangedListener() {
+                    @Override
+                    public void onOrientationChanged(OrientationProvider provider) {
+                        mGLSurfaceView.requestRender();
+                    }
+                }, RENDER_MIN_ANGLE, 1000000000L / MAX_FRAME_RATE);
+        // The scanned curves grow with every sample and the cubes change their colours when scanning starts or stops,
+        // even if the orientation does not change
+        mRenderer.setRenderRequest(new Runnable() {
+            @Override
+            public void run() {
+                mGLSurfaceView.requestRender();
+            }
+        });
+
         mGLSurfaceView.setOnLongClickListener(new OnLongClickListener() {
 
             @Override
             public boolean onLongClick(View v) {
                 mRenderer.toggleShowCubeInsideOut();
+                mGLSurfaceView.requestRender();
                 return true;
             }
         });
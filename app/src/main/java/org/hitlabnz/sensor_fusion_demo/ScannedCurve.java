@@ -0,0 +1,143 @@
+package org.hitlabnz.sensor_fusion_demo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.hitlabnz.sensor_fusion_demo.representation.Matrix;
+import org.hitlabnz.sensor_fusion_demo.scanning.CurveVertices;
+
+import android.opengl.GLES20;
+
+/**
+ * Draws the scanned curves while they are scanned, as one line strip per segment
+ *
+ * The points are kept in a vertex buffer of the GPU that is larger than needed: Each frame only the points that were
+ * added since the last frame are uploaded with glBufferSubData. When the buffer is full, a buffer of twice the size
+ * is created and filled once, so a frame costs the same no matter how long the curves already are.
+ */
+public class ScannedCurve {
+
+    /**
+     * Number of points the vertex buffer is created with, about five minutes of samples at 50 Hz
+     */
+    private static final int INITIAL_CAPACITY = 16384;
+
+    /**
+     * Number of points that are uploaded with one glBufferSubData
+     */
+    private static final int STAGING_POINTS = 1024;
+
+    /**
+     * Size of the largest extent of the curves on screen, the cubes have a size of 2
+     */
+    private static final float SIZE = 1.8f;
+
+    private static final int BYTES_PER_POINT = CurveVertices.COMPONENTS * 4;
+
+    private final CurveVertices mVertices;
+    private final CurveVertices.Frame mFrame = new CurveVertices.Frame();
+
+    /**
+     * The points on their way to the GPU
+     */
+    private final FloatBuffer mStagingBuffer;
+
+    /**
+     * Name of the vertex buffer on the GPU, the number of points it can hold and the number of points it holds
+     */
+    private final int[] mBufferName = new int[1];
+    private int mCapacity;
+    private int mUploadedPoints;
+
+    /**
+     * Fits the curves into the cube
+     */
+    private final float[] mModelMatrix = new float[16];
+
+    /**
+     * Initialises a new ScannedCurve
+     *
+     * @param vertices The points of the curves, which are added while scanning
+     */
+    public ScannedCurve(CurveVertices vertices) {
+        mVertices = vertices;
+        ByteBuffer bb = ByteBuffer.allocateDirect(STAGING_POINTS * BYTES_PER_POINT);
+        bb.order(ByteOrder.nativeOrder());
+        mStagingBuffer = bb.asFloatBuffer();
+    }
+
+    /**
+     * Creates the vertex buffer on the GPU. Must be called on the GL thread whenever a new GL context was created, all
+     * points are uploaded again with the next frame.
+     */
+    public void createBuffers() {
+        GLES20.glGenBuffers(1, mBufferName, 0);
+        mCapacity = 0;
+        mUploadedPoints = 0;
+    }
+
+    /**
+     * Uploads the new points and draws the curves with the current shader program
+     *
+     * @param positionAttribute The location of the vertex position attribute (vec3) of the program
+     * @param colorAttribute The location of the vertex colour attribute (vec4) of the program
+     * @param modelMatrixUniform The location of the model matrix (mat4) of the program, which is set to fit the curves
+     *            into the cube
+     */
+    public void draw(int positionAttribute, int colorAttribute, int modelMatrixUniform) {
+        mVertices.read(mFrame);
+        if (mFrame.pointCount < 2) {
+            return;
+        }
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferName[0]);
+        if (mFrame.pointCount > mCapacity) {
+            mCapacity = Math.max(Math.max(INITIAL_CAPACITY, mCapacity * 2), mFrame.pointCount);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mCapacity * BYTES_PER_POINT, null, GLES20.GL_DYNAMIC_DRAW);
+            mUploadedPoints = 0;
+        }
+        while (mUploadedPoints < mFrame.pointCount) {
+            int points = Math.min(STAGING_POINTS, mFrame.pointCount - mUploadedPoints);
+            mStagingBuffer.clear();
+            mStagingBuffer.put(mFrame.vertices, mUploadedPoints * CurveVertices.COMPONENTS,
+                    points * CurveVertices.COMPONENTS);
+            mStagingBuffer.flip();
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, mUploadedPoints * BYTES_PER_POINT,
+                    points * BYTES_PER_POINT, mStagingBuffer);
+            mUploadedPoints += points;
+        }
+
+        setModelMatrix(mModelMatrix);
+        GLES20.glUniformMatrix4fv(modelMatrixUniform, 1, false, mModelMatrix, 0);
+        GLES20.glVertexAttribPointer(positionAttribute, 3, GLES20.GL_FLOAT, false, 0, 0);
+        // One colour for all points instead of a second buffer
+        GLES20.glDisableVertexAttribArray(colorAttribute);
+        GLES20.glVertexAttrib4f(colorAttribute, 1, 1, 0, 1);
+
+        for (int segment = 0; segment < mFrame.segmentCount; segment++) {
+            int length = mFrame.getSegmentLength(segment);
+            if (length >= 2) {
+                GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, mFrame.segmentStarts[segment], length);
+            }
+        }
+
+        GLES20.glEnableVertexAttribArray(colorAttribute);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Scales and moves the bounding box of the curves into the centre of the cube
+     */
+    private void setModelMatrix(float[] matrix) {
+        float extent = 0;
+        for (int i = 0; i < CurveVertices.COMPONENTS; i++) {
+            extent = Math.max(extent, mFrame.max[i] - mFrame.min[i]);
+        }
+        float scale = extent > 0 ? SIZE / extent : 1;
+        Matrix.setIdentityM(matrix, 0);
+        Matrix.scaleM(matrix, 0, scale, scale, scale);
+        Matrix.translateM(matrix, 0, -(mFrame.min[0] + mFrame.max[0]) / 2, -(mFrame.min[1] + mFrame.max[1]) / 2,
+                -(mFrame.min[2] + mFrame.max[2]) / 2);
+    }
+}
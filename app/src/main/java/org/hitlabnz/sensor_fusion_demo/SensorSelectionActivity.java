@@ -123,8 +123,8 @@ public class SensorSelectionActivity extends FragmentActivity {
 
         @Override
         public int getCount() {
-            // Show 6 total pages.
-            return 6;
+            // Show 9 total pages.
+            return 9;
         }
 
         @Override
@@ -143,6 +143,12 @@ public class SensorSelectionActivity extends FragmentActivity {
                 return getString(R.string.title_section5).toUpperCase(l);
             case 5:
                 return getString(R.string.title_section6).toUpperCase(l);
+            case 6:
+                return getString(R.string.title_section7).toUpperCase(l);
+            case 7:
+                return getString(R.string.title_section8).toUpperCase(l);
+            case 8:
+                return getString(R.string.title_section9).toUpperCase(l);
             }
             return null;
         }
@@ -0,0 +1,77 @@
+package org.hitlabnz.sensor_fusion_demo;
+
+import android.opengl.GLES20;
+
+/**
+ * An OpenGL ES 2.0 program of a vertex and a fragment shader. Must be created and used on the GL thread, and created
+ * again whenever a new GL context was created.
+ */
+public class ShaderProgram {
+
+    private final int mProgram;
+
+    /**
+     * Compiles and links a new program
+     *
+     * @param vertexShaderSource The source code of the vertex shader
+     * @param fragmentShaderSource The source code of the fragment shader
+     * @throws IllegalStateException If a shader does not compile or the program does not link
+     */
+    public ShaderProgram(String vertexShaderSource, String fragmentShaderSource) {
+        int vertexShader = compile(GLES20.GL_VERTEX_SHADER, vertexShaderSource);
+        int fragmentShader = compile(GLES20.GL_FRAGMENT_SHADER, fragmentShaderSource);
+
+        mProgram = GLES20.glCreateProgram();
+        GLES20.glAttachShader(mProgram, vertexShader);
+        GLES20.glAttachShader(mProgram, fragmentShader);
+        GLES20.glLinkProgram(mProgram);
+        // The program keeps the shaders as long as it needs them
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(mProgram, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetProgramInfoLog(mProgram);
+            GLES20.glDeleteProgram(mProgram);
+            throw new IllegalStateException("Could not link program: " + log);
+        }
+    }
+
+    private static int compile(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new IllegalStateException("Could not compile shader: " + log);
+        }
+        return shader;
+    }
+
+    /**
+     * Makes this program the current one
+     */
+    public void use() {
+        GLES20.glUseProgram(mProgram);
+    }
+
+    /**
+     * @param name The name of an attribute in the vertex shader
+     * @return The location of the attribute
+     */
+    public int getAttributeLocation(String name) {
+        return GLES20.glGetAttribLocation(mProgram, name);
+    }
+
+    /**
+     * @param name The name of a uniform of the program
+     * @return The location of the uniform
+     */
+    public int getUniformLocation(String name) {
+        return GLES20.glGetUniformLocation(mProgram, name);
+    }
+}
@@ -0,0 +1,55 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+/**
+ * The fusion that delivers the current orientation from the {@link SensorType#ACCELEROMETER
+ * Accelerometer} and {@link SensorType#MAGNETIC_FIELD Compass}.
+ * 
+ * @author Alexander Pacha
+ * 
+ */
+public class AccelerometerCompassFusion extends OrientationFusion {
+
+    /**
+     * Compass values
+     */
+    final private float[] magnitudeValues = new float[3];
+
+    /**
+     * Accelerometer values
+     */
+    final private float[] accelerometerValues = new float[3];
+
+    /**
+     * Inclination values
+     */
+    final float[] inclinationValues = new float[16];
+
+    /**
+     * Initialises a new AccelerometerCompassFusion
+     */
+    public AccelerometerCompassFusion() {
+        super(SensorType.ACCELEROMETER, SensorType.MAGNETIC_FIELD);
+    }
+
+    @Override
+    public boolean onSensorEvent(int sensorType, long timestamp, float[] values) {
+
+        // we received a sensor event. it is a good practice to check
+        // that we received the proper event
+        if (sensorType == SensorType.MAGNETIC_FIELD) {
+            System.arraycopy(values, 0, magnitudeValues, 0, magnitudeValues.length);
+        } else if (sensorType == SensorType.ACCELEROMETER) {
+            System.arraycopy(values, 0, accelerometerValues, 0, accelerometerValues.length);
+        }
+
+        if (magnitudeValues != null && accelerometerValues != null) {
+            // Fuse accelerometer with compass
+            SensorMath.getRotationMatrix(currentOrientationRotationMatrix.matrix, inclinationValues, accelerometerValues,
+                    magnitudeValues);
+            // Transform rotation matrix to quaternion
+            currentOrientationQuaternion.setRowMajor(currentOrientationRotationMatrix.matrix);
+            return true;
+        }
+        return false;
+    }
+}
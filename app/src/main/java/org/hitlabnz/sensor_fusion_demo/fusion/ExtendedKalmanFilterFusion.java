@@ -0,0 +1,438 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+/**
+ * The fusion that delivers the absolute orientation from the {@link SensorType#GYROSCOPE Gyroscope} and an absolute
+ * reference, either the {@link SensorType#ROTATION_VECTOR Android Rotation Vector sensor} or the
+ * {@link SensorType#ACCELEROMETER Accelerometer} and {@link SensorType#MAGNETIC_FIELD Compass}.
+ *
+ * It is an error-state extended Kalman filter: The state is the orientation (as quaternion) and the bias of the
+ * gyroscope. The gyroscope events predict the orientation, the absolute reference corrects it and the bias. The
+ * uncertainty of the orientation (the covariance of the error state, three angles and three bias components)
+ * determines how much a correction is trusted, so there are no fixed interpolation weights. Corrections that are
+ * statistically implausible (e.g. a jump of the rotation vector during fast tilting) are rejected by a chi-square
+ * test instead of a fixed threshold on the dot-product.
+ *
+ * All calculations work on pre-allocated primitive arrays, so processing an event does not allocate any memory.
+ */
+public class ExtendedKalmanFilterFusion extends OrientationFusion {
+
+    /**
+     * The sensors that are used as absolute reference for the orientation
+     */
+    public enum Reference {
+        /**
+         * The Android Rotation Vector sensor
+         */
+        ROTATION_VECTOR,
+        /**
+         * Accelerometer (gravity) and compass. Works without a rotation vector sensor, but is disturbed by linear
+         * acceleration and magnetic interference.
+         */
+        ACCELEROMETER_COMPASS
+    }
+
+    /**
+     * Noise density of the gyroscope in rad/s/sqrt(Hz). Higher than the noise of a typical MEMS gyroscope, so the
+     * filter also tolerates small scale factor errors.
+     */
+    private static final double GYROSCOPE_NOISE = 0.01;
+
+    /**
+     * Random walk of the gyroscope bias in rad/s^2/sqrt(Hz). Determines how fast the bias estimation follows changes
+     * (e.g. due to temperature).
+     */
+    private static final double GYROSCOPE_BIAS_RANDOM_WALK = 0.0005;
+
+    /**
+     * Initial standard deviation of the gyroscope bias in rad/s. The calibrated gyroscope of Android is usually
+     * better than this.
+     */
+    private static final double INITIAL_BIAS_DEVIATION = 0.05;
+
+    /**
+     * Standard deviation of the orientation delivered by the rotation vector in rad (about 1.7 degrees)
+     */
+    private static final double ROTATION_VECTOR_NOISE = 0.03;
+
+    /**
+     * Standard deviation of the orientation calculated from accelerometer and compass in rad (about 6 degrees)
+     */
+    private static final double ACCELEROMETER_COMPASS_NOISE = 0.1;
+
+    /**
+     * Threshold for the squared Mahalanobis distance of a correction. Corrections above are rejected as outliers. The
+     * value is the 99.9 % quantile of the chi-square distribution with three degrees of freedom.
+     */
+    private static final double OUTLIER_GATE = 16.27;
+
+    /**
+     * Number of consecutive rejected corrections after which the filter gives up and resets the orientation to the
+     * absolute reference. Usually the growing uncertainty of the prediction lets the filter accept corrections again
+     * long before this happens.
+     */
+    private static final int RESET_THRESHOLD = 200;
+
+    /**
+     * The sensors that are used as absolute reference
+     */
+    private final Reference reference;
+
+    /**
+     * Variance of the absolute reference in rad^2
+     */
+    private final double measurementVariance;
+
+    /**
+     * The estimated orientation (w, x, y, z). It is the rotation from the device to the world coordinate system, like
+     * the quaternion of the rotation vector.
+     */
+    private final double[] q = new double[] { 1, 0, 0, 0 };
+
+    /**
+     * The estimated bias of the gyroscope (x, y, z) in rad/s
+     */
+    private final double[] bias = new double[3];
+
+    /**
+     * Covariance of the error state (3 angles in the device coordinate system and 3 bias components), row-major 6x6
+     */
+    private final double[] P = new double[36];
+
+    /**
+     * Flag indicating, whether the orientation was initialised from the absolute reference
+     */
+    private boolean initialised = false;
+
+    /**
+     * The time steps between the gyroscope events
+     */
+    private final GyroscopeTimeStep gyroscopeTimeStep = new GyroscopeTimeStep();
+
+    /**
+     * Counter of consecutive corrections that were rejected as outliers
+     */
+    private int rejectedCorrections;
+
+    /**
+     * Number of resets so far, where the orientation was reset to the absolute reference
+     */
+    private int resetCount;
+
+    /**
+     * Last compass values, when using the accelerometer and the compass
+     */
+    private final float[] magneticFieldValues = new float[3];
+    private boolean magneticFieldAvailable = false;
+
+    /**
+     * Some temporary variables to save allocations
+     */
+    private final double[] F = new double[36];
+    private final double[] temporaryMatrix = new double[36];
+    private final double[] measuredQuaternion = new double[4];
+    private final double[] residual = new double[3];
+    private final double[] inverseS = new double[9];
+    private final double[] K = new double[18];
+    private final double[] correction = new double[6];
+    private final float[] temporaryQuaternion = new float[4];
+    private final float[] temporaryRotationMatrix = new float[9];
+
+    /**
+     * Initialises a new ExtendedKalmanFilterFusion that uses the rotation vector as absolute reference
+     */
+    public ExtendedKalmanFilterFusion() {
+        this(Reference.ROTATION_VECTOR);
+    }
+
+    /**
+     * Initialises a new ExtendedKalmanFilterFusion
+     *
+     * @param reference The sensors that are used as absolute reference
+     */
+    public ExtendedKalmanFilterFusion(Reference reference) {
+        super(reference == Reference.ROTATION_VECTOR ? new int[] { SensorType.GYROSCOPE, SensorType.ROTATION_VECTOR }
+                : new int[] { SensorType.GYROSCOPE, SensorType.ACCELEROMETER, SensorType.MAGNETIC_FIELD });
+        this.reference = reference;
+        double deviation = reference == Reference.ROTATION_VECTOR ? ROTATION_VECTOR_NOISE
+                : ACCELEROMETER_COMPASS_NOISE;
+        this.measurementVariance = deviation * deviation;
+    }
+
+    @Override
+    public boolean onSensorEvent(int sensorType, long timestamp, float[] values) {
+        if (sensorType == SensorType.GYROSCOPE) {
+            float dT = gyroscopeTimeStep.next(timestamp);
+            boolean orientationChanged = initialised && dT > 0;
+            if (orientationChanged) {
+                predict(values, dT);
+                setOrientationQuaternionAndMatrix();
+            }
+            return orientationChanged;
+
+        } else if (sensorType == SensorType.ROTATION_VECTOR && reference == Reference.ROTATION_VECTOR) {
+            SensorMath.getQuaternionFromVector(temporaryQuaternion, values);
+            for (int i = 0; i < 4; i++) {
+                measuredQuaternion[i] = temporaryQuaternion[i];
+            }
+            return correct();
+
+        } else if (sensorType == SensorType.MAGNETIC_FIELD && reference == Reference.ACCELEROMETER_COMPASS) {
+            System.arraycopy(values, 0, magneticFieldValues, 0, magneticFieldValues.length);
+            magneticFieldAvailable = true;
+
+        } else if (sensorType == SensorType.ACCELEROMETER && reference == Reference.ACCELEROMETER_COMPASS
+                && magneticFieldAvailable) {
+            if (SensorMath.getRotationMatrix(temporaryRotationMatrix, null, values, magneticFieldValues)) {
+                SensorMath.getQuaternionFromRotationMatrix(temporaryQuaternion, temporaryRotationMatrix);
+                for (int i = 0; i < 4; i++) {
+                    measuredQuaternion[i] = temporaryQuaternion[i];
+                }
+                return correct();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of resets so far, where the orientation was reset to the absolute reference, because the
+     *         corrections were rejected for too long
+     */
+    public int getResetCount() {
+        return resetCount;
+    }
+
+    /**
+     * Get the estimated bias of the gyroscope
+     *
+     * @param output Array of three values that receives the bias (x, y, z) in rad/s
+     */
+    public void getGyroscopeBias(float[] output) {
+        for (int i = 0; i < 3; i++) {
+            output[i] = (float) bias[i];
+        }
+    }
+
+    /**
+     * Prediction step: Integrates the bias corrected angular velocity and propagates the covariance
+     *
+     * @param values The values of the gyroscope event
+     * @param dT The time since the last gyroscope event in seconds
+     */
+    private void predict(float[] values, double dT) {
+        double ax = (values[0] - bias[0]) * dT;
+        double ay = (values[1] - bias[1]) * dT;
+        double az = (values[2] - bias[2]) * dT;
+
+        // Rotate the orientation by the angle (a), given in the device coordinate system: q = q * dq
+        double angle = Math.sqrt(ax * ax + ay * ay + az * az);
+        double dw;
+        double scale;
+        if (angle > 1e-9) {
+            dw = Math.cos(angle / 2);
+            scale = Math.sin(angle / 2) / angle;
+        } else {
+            dw = 1;
+            scale = 0.5;
+        }
+        multiplyQuaternion(dw, ax * scale, ay * scale, az * scale);
+
+        // Jacobian of the error state: The angle error is rotated back by the increment and grows with the bias error
+        // F = | I - [a]x   -I*dT |
+        //     |    0         I   |
+        for (int i = 0; i < 36; i++) {
+            F[i] = 0;
+        }
+        for (int i = 0; i < 6; i++) {
+            F[i * 6 + i] = 1;
+        }
+        F[1] = az;
+        F[2] = -ay;
+        F[6] = -az;
+        F[8] = ax;
+        F[12] = ay;
+        F[13] = -ax;
+        F[3] = F[10] = F[17] = -dT;
+
+        // P = F * P * F^T + Q
+        for (int row = 0; row < 6; row++) {
+            for (int column = 0; column < 6; column++) {
+                double sum = 0;
+                for (int k = 0; k < 6; k++) {
+                    sum += F[row * 6 + k] * P[k * 6 + column];
+                }
+                temporaryMatrix[row * 6 + column] = sum;
+            }
+        }
+        for (int row = 0; row < 6; row++) {
+            for (int column = row; column < 6; column++) {
+                double sum = 0;
+                for (int k = 0; k < 6; k++) {
+                    sum += temporaryMatrix[row * 6 + k] * F[column * 6 + k];
+                }
+                P[row * 6 + column] = sum;
+                P[column * 6 + row] = sum;
+            }
+        }
+        double angleNoise = GYROSCOPE_NOISE * GYROSCOPE_NOISE * dT;
+        double biasNoise = GYROSCOPE_BIAS_RANDOM_WALK * GYROSCOPE_BIAS_RANDOM_WALK * dT;
+        for (int i = 0; i < 3; i++) {
+            P[i * 6 + i] += angleNoise;
+            P[(i + 3) * 6 + i + 3] += biasNoise;
+        }
+    }
+
+    /**
+     * Correction step with the orientation of the absolute reference in {@link #measuredQuaternion}
+     *
+     * @return true, if the orientation was changed
+     */
+    private boolean correct() {
+        if (!initialised) {
+            reset();
+            for (int i = 0; i < 3; i++) {
+                P[(i + 3) * 6 + i + 3] = INITIAL_BIAS_DEVIATION * INITIAL_BIAS_DEVIATION;
+            }
+            initialised = true;
+            setOrientationQuaternionAndMatrix();
+            return true;
+        }
+
+        // Residual: The rotation from the estimated to the measured orientation (conjugate(q) * measured), as angles
+        double mw = measuredQuaternion[0], mx = measuredQuaternion[1], my = measuredQuaternion[2],
+                mz = measuredQuaternion[3];
+        double ew = q[0] * mw + q[1] * mx + q[2] * my + q[3] * mz;
+        double ex = q[0] * mx - q[1] * mw - q[2] * mz + q[3] * my;
+        double ey = q[0] * my + q[1] * mz - q[2] * mw - q[3] * mx;
+        double ez = q[0] * mz - q[1] * my + q[2] * mx - q[3] * mw;
+        if (ew < 0) {
+            // q and -q are the same orientation, take the shorter way
+            ew = -ew;
+            ex = -ex;
+            ey = -ey;
+            ez = -ez;
+        }
+        double sinHalfAngle = Math.sqrt(ex * ex + ey * ey + ez * ez);
+        double scale = sinHalfAngle > 1e-9 ? 2 * Math.atan2(sinHalfAngle, ew) / sinHalfAngle : 2;
+        residual[0] = ex * scale;
+        residual[1] = ey * scale;
+        residual[2] = ez * scale;
+
+        // Innovation covariance S = P[angles] + R and its inverse (the measurement matrix H is [I 0])
+        double s00 = P[0] + measurementVariance, s01 = P[1], s02 = P[2];
+        double s11 = P[7] + measurementVariance, s12 = P[8];
+        double s22 = P[14] + measurementVariance;
+        double c00 = s11 * s22 - s12 * s12;
+        double c01 = s02 * s12 - s01 * s22;
+        double c02 = s01 * s12 - s02 * s11;
+        double determinant = s00 * c00 + s01 * c01 + s02 * c02;
+        inverseS[0] = c00 / determinant;
+        inverseS[1] = inverseS[3] = c01 / determinant;
+        inverseS[2] = inverseS[6] = c02 / determinant;
+        inverseS[4] = (s00 * s22 - s02 * s02) / determinant;
+        inverseS[5] = inverseS[7] = (s01 * s02 - s00 * s12) / determinant;
+        inverseS[8] = (s00 * s11 - s01 * s01) / determinant;
+
+        // Chi-square test of the residual
+        double distance = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                distance += residual[i] * inverseS[i * 3 + j] * residual[j];
+            }
+        }
+        if (distance > OUTLIER_GATE) {
+            rejectedCorrections++;
+            if (rejectedCorrections > RESET_THRESHOLD) {
+                reset();
+                resetCount++;
+                setOrientationQuaternionAndMatrix();
+                return true;
+            }
+            return false;
+        }
+        rejectedCorrections = 0;
+
+        // Kalman gain K = P * H^T * S^-1 (6x3), the first three columns of P times S^-1
+        for (int row = 0; row < 6; row++) {
+            for (int column = 0; column < 3; column++) {
+                double sum = 0;
+                for (int k = 0; k < 3; k++) {
+                    sum += P[row * 6 + k] * inverseS[k * 3 + column];
+                }
+                K[row * 3 + column] = sum;
+            }
+        }
+
+        // Correction of the error state and covariance P = P - K * H * P
+        for (int row = 0; row < 6; row++) {
+            correction[row] = K[row * 3] * residual[0] + K[row * 3 + 1] * residual[1] + K[row * 3 + 2] * residual[2];
+        }
+        for (int row = 0; row < 6; row++) {
+            for (int column = 0; column < 6; column++) {
+                temporaryMatrix[row * 6 + column] = P[row * 6 + column] - K[row * 3] * P[column]
+                        - K[row * 3 + 1] * P[6 + column] - K[row * 3 + 2] * P[12 + column];
+            }
+        }
+        for (int row = 0; row < 6; row++) {
+            for (int column = row; column < 6; column++) {
+                // Keep P symmetric despite rounding errors
+                double value = (temporaryMatrix[row * 6 + column] + temporaryMatrix[column * 6 + row]) / 2;
+                P[row * 6 + column] = value;
+                P[column * 6 + row] = value;
+            }
+        }
+
+        // Move the error into the state
+        multiplyQuaternion(1, correction[0] / 2, correction[1] / 2, correction[2] / 2);
+        for (int i = 0; i < 3; i++) {
+            bias[i] += correction[i + 3];
+        }
+
+        setOrientationQuaternionAndMatrix();
+        return true;
+    }
+
+    /**
+     * Sets the orientation to the measured orientation and its uncertainty to the uncertainty of the measurement. The
+     * bias estimation is kept.
+     */
+    private void reset() {
+        System.arraycopy(measuredQuaternion, 0, q, 0, 4);
+        for (int row = 0; row < 6; row++) {
+            for (int column = 0; column < 6; column++) {
+                if (row < 3 || column < 3) {
+                    P[row * 6 + column] = row == column ? measurementVariance : 0;
+                }
+            }
+        }
+        rejectedCorrections = 0;
+    }
+
+    /**
+     * Multiplies the orientation with the given quaternion from the right and normalises the result
+     */
+    private void multiplyQuaternion(double bw, double bx, double by, double bz) {
+        double w = q[0] * bw - q[1] * bx - q[2] * by - q[3] * bz;
+        double x = q[0] * bx + q[1] * bw + q[2] * bz - q[3] * by;
+        double y = q[0] * by - q[1] * bz + q[2] * bw + q[3] * bx;
+        double z = q[0] * bz + q[1] * by - q[2] * bx + q[3] * bw;
+        double norm = Math.sqrt(w * w + x * x + y * y + z * z);
+        q[0] = w / norm;
+        q[1] = x / norm;
+        q[2] = y / norm;
+        q[3] = z / norm;
+    }
+
+    /**
+     * Sets the output quaternion and matrix from the estimated orientation, in the same representation as the
+     * {@link RotationVectorFusion}
+     */
+    private void setOrientationQuaternionAndMatrix() {
+        temporaryQuaternion[0] = (float) q[1];
+        temporaryQuaternion[1] = (float) q[2];
+        temporaryQuaternion[2] = (float) q[3];
+        temporaryQuaternion[3] = (float) q[0];
+        currentOrientationQuaternion.setXYZW(temporaryQuaternion[0], temporaryQuaternion[1], temporaryQuaternion[2],
+                -temporaryQuaternion[3]);
+        SensorMath.getRotationMatrixFromVector(currentOrientationRotationMatrix.matrix, temporaryQuaternion);
+    }
+}
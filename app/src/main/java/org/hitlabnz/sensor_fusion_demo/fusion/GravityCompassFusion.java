@@ -0,0 +1,54 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+/**
+ * The fusion that delivers the current orientation from the {@link SensorType#GRAVITY
+ * Gravity} and {@link SensorType#MAGNETIC_FIELD Compass}.
+ * 
+ * @author Alexander Pacha
+ * 
+ */
+public class GravityCompassFusion extends OrientationFusion {
+
+    /**
+     * Compass values
+     */
+    final private float[] magnitudeValues = new float[3];
+
+    /**
+     * Gravity values
+     */
+    final private float[] gravityValues = new float[3];
+
+    /**
+     * Inclination values
+     */
+    float[] inclinationValues = new float[16];
+
+    /**
+     * Initialises a new GravityCompassFusion
+     */
+    public GravityCompassFusion() {
+        super(SensorType.GRAVITY, SensorType.MAGNETIC_FIELD);
+    }
+
+    @Override
+    public boolean onSensorEvent(int sensorType, long timestamp, float[] values) {
+
+        // we received a sensor event. it is a good practice to check
+        // that we received the proper event
+        if (sensorType == SensorType.MAGNETIC_FIELD) {
+            System.arraycopy(values, 0, magnitudeValues, 0, magnitudeValues.length);
+        } else if (sensorType == SensorType.GRAVITY) {
+            System.arraycopy(values, 0, gravityValues, 0, gravityValues.length);
+        }
+
+        if (magnitudeValues != null && gravityValues != null) {
+            // Fuse gravity-sensor (virtual sensor) with compass
+            SensorMath.getRotationMatrix(currentOrientationRotationMatrix.matrix, inclinationValues, gravityValues, magnitudeValues);
+            // Transform rotation matrix to quaternion
+            currentOrientationQuaternion.setRowMajor(currentOrientationRotationMatrix.matrix);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,49 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+/**
+ * Calculates the time steps between gyroscope events from their time-stamps, for the fusions that integrate the
+ * gyroscope.
+ *
+ * Only the time-stamps of the events are used, never the time they arrive: With hardware batching, the events of a
+ * whole FIFO arrive within a few micro-seconds. Events of a batch that are not newer than the previous one are
+ * skipped, and after a gap (the sensor was stopped or the FIFO overflowed) the integration starts again, instead of
+ * applying one angular velocity to the whole gap.
+ */
+final class GyroscopeTimeStep {
+
+    /**
+     * Constant specifying the factor between a Nano-second and a second
+     */
+    private static final float NS2S = 1.0f / 1000000000.0f;
+
+    /**
+     * Longest time between two events that is still integrated, in nano-seconds. Far above the sampling period of
+     * every sensor delay.
+     */
+    static final long MAX_TIME_STEP = 500000000L;
+
+    /**
+     * The time-stamp of the last event that was accepted, 0 before the first one
+     */
+    private long lastTimestamp;
+
+    /**
+     * Get the time step from the last gyroscope event to this one
+     *
+     * @param timestamp The time-stamp of the event in nano-seconds
+     * @return The time step in seconds, or 0 if the event must not be integrated (first event, event not newer than
+     *         the last one, or event after a gap)
+     */
+    float next(long timestamp) {
+        if (lastTimestamp == 0 || timestamp - lastTimestamp > MAX_TIME_STEP) {
+            lastTimestamp = timestamp;
+            return 0;
+        }
+        if (timestamp <= lastTimestamp) {
+            return 0;
+        }
+        float dT = (timestamp - lastTimestamp) * NS2S;
+        lastTimestamp = timestamp;
+        return dT;
+    }
+}
@@ -0,0 +1,338 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+
+/**
+ * The fusion that delivers the orientation from the {@link SensorType#GYROSCOPE Gyroscope},
+ * {@link SensorType#ACCELEROMETER Accelerometer} and optionally the {@link SensorType#MAGNETIC_FIELD Compass} with
+ * the gradient descent algorithm of Sebastian Madgwick ("An efficient orientation filter for inertial and
+ * inertial/magnetic sensor arrays", 2010).
+ *
+ * Every gyroscope event integrates the angular velocity and takes one gradient descent step towards the orientation in
+ * which gravity (and the magnetic field) point where the accelerometer (and the compass) measured them. The step size
+ * beta is the only parameter. It does not need the Android Rotation Vector sensor, and an update costs only a few
+ * dozen multiplications, so it is suited for devices with slow CPUs and for high sampling rates. Without the compass,
+ * the heading is not corrected and drifts with the gyroscope.
+ *
+ * Based on the public reference implementation of Sebastian Madgwick.
+ */
+public class MadgwickFusion extends OrientationFusion {
+
+    /**
+     * Default step size of the gradient descent. Higher values correct faster but let the noise of the accelerometer
+     * through.
+     */
+    public static final float DEFAULT_BETA = 0.1f;
+
+    /**
+     * Cosine (and sine) of 45 degrees, for the rotation by 90 degrees around z between the north-west-up frame of the
+     * algorithm and the east-north-up frame of Android
+     */
+    private static final float COS_45 = (float) Math.sqrt(0.5);
+
+    /**
+     * The step size of the gradient descent
+     */
+    private final float beta;
+
+    /**
+     * Whether the compass is used
+     */
+    private final boolean useMagnetometer;
+
+    /**
+     * The estimated orientation (device to world) in the north-west-up world frame of the algorithm
+     */
+    private final Quaternion estimate = new Quaternion();
+
+    /**
+     * Last accelerometer and compass values
+     */
+    private final float[] accelerometerValues = new float[3];
+    private final float[] magneticFieldValues = new float[3];
+    private boolean accelerometerAvailable = false;
+    private boolean magneticFieldAvailable = false;
+
+    /**
+     * Flag indicating, whether the orientation was initialised from the accelerometer (and compass)
+     */
+    private boolean initialised = false;
+
+    /**
+     * The time steps between the gyroscope events
+     */
+    private final GyroscopeTimeStep gyroscopeTimeStep = new GyroscopeTimeStep();
+
+    /**
+     * Temporary variables to save allocations
+     */
+    private final float[] temporaryRotationMatrix = new float[9];
+    private final float[] temporaryQuaternion = new float[4];
+
+    /**
+     * Initialises a new MadgwickFusion with the compass and the {@link #DEFAULT_BETA default step size}
+     */
+    public MadgwickFusion() {
+        this(true, DEFAULT_BETA);
+    }
+
+    /**
+     * Initialises a new MadgwickFusion
+     *
+     * @param useMagnetometer Whether the compass is used to correct the heading
+     * @param beta The step size of the gradient descent in rad/s
+     */
+    public MadgwickFusion(boolean useMagnetometer, float beta) {
+        super(useMagnetometer ? new int[] { SensorType.GYROSCOPE, SensorType.ACCELEROMETER, SensorType.MAGNETIC_FIELD }
+                : new int[] { SensorType.GYROSCOPE, SensorType.ACCELEROMETER });
+        this.useMagnetometer = useMagnetometer;
+        this.beta = beta;
+    }
+
+    @Override
+    public boolean onSensorEvent(int sensorType, long timestamp, float[] values) {
+        if (sensorType == SensorType.ACCELEROMETER) {
+            System.arraycopy(values, 0, accelerometerValues, 0, accelerometerValues.length);
+            accelerometerAvailable = true;
+        } else if (sensorType == SensorType.MAGNETIC_FIELD) {
+            System.arraycopy(values, 0, magneticFieldValues, 0, magneticFieldValues.length);
+            magneticFieldAvailable = true;
+        } else if (sensorType == SensorType.GYROSCOPE) {
+            if (!initialised && !initialise()) {
+                return false;
+            }
+            final float dT = gyroscopeTimeStep.next(timestamp);
+            boolean orientationChanged = dT > 0;
+            if (orientationChanged) {
+                if (useMagnetometer) {
+                    update(values[0], values[1], values[2], dT);
+                } else {
+                    updateWithoutMagnetometer(values[0], values[1], values[2], dT);
+                }
+                setOrientationQuaternionAndMatrix();
+            }
+            return orientationChanged;
+        }
+        return false;
+    }
+
+    /**
+     * Initialises the orientation from the accelerometer (and compass), so the filter does not need to converge from
+     * the identity
+     *
+     * @return true, if the orientation was initialised
+     */
+    private boolean initialise() {
+        if (!accelerometerAvailable || (useMagnetometer && !magneticFieldAvailable)) {
+            return false;
+        }
+        float ax = accelerometerValues[0];
+        float ay = accelerometerValues[1];
+        float az = accelerometerValues[2];
+        if (useMagnetometer) {
+            if (!SensorMath.getRotationMatrix(temporaryRotationMatrix, null, accelerometerValues,
+                    magneticFieldValues)) {
+                return false;
+            }
+            SensorMath.getQuaternionFromRotationMatrix(temporaryQuaternion, temporaryRotationMatrix);
+            float w = temporaryQuaternion[0], x = temporaryQuaternion[1], y = temporaryQuaternion[2],
+                    z = temporaryQuaternion[3];
+            // Rotate into the north-west-up frame of the algorithm
+            estimate.setXYZW(COS_45 * (x + y), COS_45 * (y - x), COS_45 * (z - w), COS_45 * (w + z));
+        } else {
+            // Shortest rotation of the measured up direction to the z axis, the heading is arbitrary
+            float norm = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+            if (norm == 0) {
+                return false;
+            }
+            estimate.setXYZW(ay / norm, -ax / norm, 0, 1 + az / norm);
+            if (estimate.w() < 1e-6f) {
+                // Upside down: Rotate around x
+                estimate.setXYZW(1, 0, 0, 0);
+            }
+        }
+        estimate.normalise();
+        initialised = true;
+        return true;
+    }
+
+    /**
+     * One step of the algorithm with gyroscope, accelerometer and compass
+     */
+    private void update(float gx, float gy, float gz, float dT) {
+        float q0 = estimate.w(), q1 = estimate.x(), q2 = estimate.y(), q3 = estimate.z();
+        float ax = accelerometerValues[0], ay = accelerometerValues[1], az = accelerometerValues[2];
+        float mx = magneticFieldValues[0], my = magneticFieldValues[1], mz = magneticFieldValues[2];
+
+        // Rate of change of quaternion from gyroscope
+        float qDot1 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot2 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot3 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot4 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        float accelerometerNorm = ax * ax + ay * ay + az * az;
+        float magneticFieldNorm = mx * mx + my * my + mz * mz;
+        if (accelerometerNorm > 0 && magneticFieldNorm > 0) {
+            float recipNorm = invSqrt(accelerometerNorm);
+            ax *= recipNorm;
+            ay *= recipNorm;
+            az *= recipNorm;
+            recipNorm = invSqrt(magneticFieldNorm);
+            mx *= recipNorm;
+            my *= recipNorm;
+            mz *= recipNorm;
+
+            // Auxiliary variables to avoid repeated arithmetic
+            float _2q0mx = 2.0f * q0 * mx;
+            float _2q0my = 2.0f * q0 * my;
+            float _2q0mz = 2.0f * q0 * mz;
+            float _2q1mx = 2.0f * q1 * mx;
+            float _2q0 = 2.0f * q0;
+            float _2q1 = 2.0f * q1;
+            float _2q2 = 2.0f * q2;
+            float _2q3 = 2.0f * q3;
+            float _2q0q2 = 2.0f * q0 * q2;
+            float _2q2q3 = 2.0f * q2 * q3;
+            float q0q0 = q0 * q0;
+            float q0q1 = q0 * q1;
+            float q0q2 = q0 * q2;
+            float q0q3 = q0 * q3;
+            float q1q1 = q1 * q1;
+            float q1q2 = q1 * q2;
+            float q1q3 = q1 * q3;
+            float q2q2 = q2 * q2;
+            float q2q3 = q2 * q3;
+            float q3q3 = q3 * q3;
+
+            // Reference direction of Earth's magnetic field
+            float hx = mx * q0q0 - _2q0my * q3 + _2q0mz * q2 + mx * q1q1 + _2q1 * my * q2 + _2q1 * mz * q3 - mx * q2q2
+                    - mx * q3q3;
+            float hy = _2q0mx * q3 + my * q0q0 - _2q0mz * q1 + _2q1mx * q2 - my * q1q1 + my * q2q2 + _2q2 * mz * q3
+                    - my * q3q3;
+            float _2bx = (float) Math.sqrt(hx * hx + hy * hy);
+            float _2bz = -_2q0mx * q2 + _2q0my * q1 + mz * q0q0 + _2q1mx * q3 - mz * q1q1 + _2q2 * my * q3 - mz * q2q2
+                    + mz * q3q3;
+            float _4bx = 2.0f * _2bx;
+            float _4bz = 2.0f * _2bz;
+
+            // Gradient descent algorithm corrective step
+            float fx = 2.0f * q1q3 - _2q0q2 - ax;
+            float fy = 2.0f * q0q1 + _2q2q3 - ay;
+            float fz = 1 - 2.0f * q1q1 - 2.0f * q2q2 - az;
+            float bx = _2bx * (0.5f - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx;
+            float by = _2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my;
+            float bz = _2bx * (q0q2 + q1q3) + _2bz * (0.5f - q1q1 - q2q2) - mz;
+            float s0 = -_2q2 * fx + _2q1 * fy - _2bz * q2 * bx + (-_2bx * q3 + _2bz * q1) * by + _2bx * q2 * bz;
+            float s1 = _2q3 * fx + _2q0 * fy - 4.0f * q1 * fz + _2bz * q3 * bx + (_2bx * q2 + _2bz * q0) * by
+                    + (_2bx * q3 - _4bz * q1) * bz;
+            float s2 = -_2q0 * fx + _2q3 * fy - 4.0f * q2 * fz + (-_4bx * q2 - _2bz * q0) * bx
+                    + (_2bx * q1 + _2bz * q3) * by + (_2bx * q0 - _4bz * q2) * bz;
+            float s3 = _2q1 * fx + _2q2 * fy + (-_4bx * q3 + _2bz * q1) * bx + (-_2bx * q0 + _2bz * q2) * by
+                    + _2bx * q1 * bz;
+
+            // Apply feedback step
+            float stepNorm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (stepNorm > 0) {
+                recipNorm = invSqrt(stepNorm);
+                qDot1 -= beta * s0 * recipNorm;
+                qDot2 -= beta * s1 * recipNorm;
+                qDot3 -= beta * s2 * recipNorm;
+                qDot4 -= beta * s3 * recipNorm;
+            }
+        }
+
+        integrate(q0, q1, q2, q3, qDot1, qDot2, qDot3, qDot4, dT);
+    }
+
+    /**
+     * One step of the algorithm with gyroscope and accelerometer only
+     */
+    private void updateWithoutMagnetometer(float gx, float gy, float gz, float dT) {
+        float q0 = estimate.w(), q1 = estimate.x(), q2 = estimate.y(), q3 = estimate.z();
+        float ax = accelerometerValues[0], ay = accelerometerValues[1], az = accelerometerValues[2];
+
+        // Rate of change of quaternion from gyroscope
+        float qDot1 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot2 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot3 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot4 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        float accelerometerNorm = ax * ax + ay * ay + az * az;
+        if (accelerometerNorm > 0) {
+            float recipNorm = invSqrt(accelerometerNorm);
+            ax *= recipNorm;
+            ay *= recipNorm;
+            az *= recipNorm;
+
+            // Auxiliary variables to avoid repeated arithmetic
+            float _2q0 = 2.0f * q0;
+            float _2q1 = 2.0f * q1;
+            float _2q2 = 2.0f * q2;
+            float _2q3 = 2.0f * q3;
+            float _4q0 = 4.0f * q0;
+            float _4q1 = 4.0f * q1;
+            float _4q2 = 4.0f * q2;
+            float _8q1 = 8.0f * q1;
+            float _8q2 = 8.0f * q2;
+            float q0q0 = q0 * q0;
+            float q1q1 = q1 * q1;
+            float q2q2 = q2 * q2;
+            float q3q3 = q3 * q3;
+
+            // Gradient descent algorithm corrective step
+            float s0 = _4q0 * q2q2 + _2q2 * ax + _4q0 * q1q1 - _2q1 * ay;
+            float s1 = _4q1 * q3q3 - _2q3 * ax + 4.0f * q0q0 * q1 - _2q0 * ay - _4q1 + _8q1 * q1q1 + _8q1 * q2q2
+                    + _4q1 * az;
+            float s2 = 4.0f * q0q0 * q2 + _2q0 * ax + _4q2 * q3q3 - _2q3 * ay - _4q2 + _8q2 * q1q1 + _8q2 * q2q2
+                    + _4q2 * az;
+            float s3 = 4.0f * q1q1 * q3 - _2q1 * ax + 4.0f * q2q2 * q3 - _2q2 * ay;
+
+            // Apply feedback step
+            float stepNorm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (stepNorm > 0) {
+                recipNorm = invSqrt(stepNorm);
+                qDot1 -= beta * s0 * recipNorm;
+                qDot2 -= beta * s1 * recipNorm;
+                qDot3 -= beta * s2 * recipNorm;
+                qDot4 -= beta * s3 * recipNorm;
+            }
+        }
+
+        integrate(q0, q1, q2, q3, qDot1, qDot2, qDot3, qDot4, dT);
+    }
+
+    /**
+     * Integrates the rate of change of the quaternion and stores the normalised result in the estimate
+     */
+    private void integrate(float q0, float q1, float q2, float q3, float qDot1, float qDot2, float qDot3, float qDot4,
+            float dT) {
+        q0 += qDot1 * dT;
+        q1 += qDot2 * dT;
+        q2 += qDot3 * dT;
+        q3 += qDot4 * dT;
+        float recipNorm = invSqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        estimate.setXYZW(q1 * recipNorm, q2 * recipNorm, q3 * recipNorm, q0 * recipNorm);
+    }
+
+    private static float invSqrt(float value) {
+        return (float) (1.0 / Math.sqrt(value));
+    }
+
+    /**
+     * Sets the output quaternion and matrix from the estimate, in the same representation as the
+     * {@link RotationVectorFusion}
+     */
+    private void setOrientationQuaternionAndMatrix() {
+        float w = estimate.w(), x = estimate.x(), y = estimate.y(), z = estimate.z();
+
+        // Rotate from the north-west-up frame of the algorithm into the east-north-up frame of Android
+        temporaryQuaternion[0] = COS_45 * (x - y);
+        temporaryQuaternion[1] = COS_45 * (y + x);
+        temporaryQuaternion[2] = COS_45 * (z + w);
+        temporaryQuaternion[3] = COS_45 * (w - z);
+
+        currentOrientationQuaternion.setXYZW(temporaryQuaternion[0], temporaryQuaternion[1], temporaryQuaternion[2],
+                -temporaryQuaternion[3]);
+        SensorMath.getRotationMatrixFromVector(currentOrientationRotationMatrix.matrix, temporaryQuaternion);
+    }
+}
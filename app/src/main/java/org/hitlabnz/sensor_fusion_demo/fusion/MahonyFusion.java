@@ -0,0 +1,302 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+/**
+ * The fusion that delivers the orientation from the {@link SensorType#GYROSCOPE Gyroscope},
+ * {@link SensorType#ACCELEROMETER Accelerometer} and optionally the {@link SensorType#MAGNETIC_FIELD Compass} with
+ * the explicit complementary filter of Mahony et al. ("Nonlinear Complementary Filters on the Special Orthogonal
+ * Group", 2008).
+ *
+ * The error between the measured and the estimated direction of gravity (and of the magnetic field) is fed back into
+ * the angular velocity: The proportional part pulls the orientation towards the measurement, the integral part
+ * converges to the bias of the gyroscope and removes it. The gyroscope is always integrated completely, so unlike
+ * the dead-band of the {@link CalibratedGyroscopeFusion} slow real motion is not thrown away. The filter has constant
+ * memory and does not allocate while processing events.
+ *
+ * Based on the public reference implementation of Sebastian Madgwick, with the compass reference in the east-north-up
+ * frame of Android.
+ */
+public class MahonyFusion extends OrientationFusion {
+
+    /**
+     * Default proportional gain. Higher values correct faster but let the noise of the accelerometer through.
+     */
+    public static final float DEFAULT_PROPORTIONAL_GAIN = 0.5f;
+
+    /**
+     * Default integral gain. Determines how fast the bias estimation converges, 0 disables the bias estimation.
+     */
+    public static final float DEFAULT_INTEGRAL_GAIN = 0.05f;
+
+    /**
+     * Upper limit of each component of the estimated bias in rad/s, so a long lasting linear acceleration can not wind
+     * up the integral part
+     */
+    private static final float MAX_BIAS = 0.2f;
+
+    /**
+     * The gains of the feedback
+     */
+    private final float proportionalGain;
+    private final float integralGain;
+
+    /**
+     * Whether the compass is used
+     */
+    private final boolean useMagnetometer;
+
+    /**
+     * The estimated orientation (w, x, y, z), from the device to the world coordinate system
+     */
+    private float q0 = 1, q1, q2, q3;
+
+    /**
+     * The integral part of the feedback (the negative bias of the gyroscope) in rad/s
+     */
+    private float integralFeedbackX, integralFeedbackY, integralFeedbackZ;
+
+    /**
+     * Last accelerometer and compass values
+     */
+    private final float[] accelerometerValues = new float[3];
+    private final float[] magneticFieldValues = new float[3];
+    private boolean accelerometerAvailable = false;
+    private boolean magneticFieldAvailable = false;
+
+    /**
+     * Flag indicating, whether the orientation was initialised from the accelerometer (and compass)
+     */
+    private boolean initialised = false;
+
+    /**
+     * The time steps between the gyroscope events
+     */
+    private final GyroscopeTimeStep gyroscopeTimeStep = new GyroscopeTimeStep();
+
+    /**
+     * Temporary variables to save allocations
+     */
+    private final float[] temporaryRotationMatrix = new float[9];
+    private final float[] temporaryQuaternion = new float[4];
+
+    /**
+     * Initialises a new MahonyFusion with the compass and the default gains
+     */
+    public MahonyFusion() {
+        this(true, DEFAULT_PROPORTIONAL_GAIN, DEFAULT_INTEGRAL_GAIN);
+    }
+
+    /**
+     * Initialises a new MahonyFusion
+     *
+     * @param useMagnetometer Whether the compass is used to correct the heading
+     * @param proportionalGain The proportional gain of the feedback
+     * @param integralGain The integral gain of the feedback, 0 disables the bias estimation
+     */
+    public MahonyFusion(boolean useMagnetometer, float proportionalGain, float integralGain) {
+        super(useMagnetometer ? new int[] { SensorType.GYROSCOPE, SensorType.ACCELEROMETER, SensorType.MAGNETIC_FIELD }
+                : new int[] { SensorType.GYROSCOPE, SensorType.ACCELEROMETER });
+        this.useMagnetometer = useMagnetometer;
+        this.proportionalGain = proportionalGain;
+        this.integralGain = integralGain;
+    }
+
+    @Override
+    public boolean onSensorEvent(int sensorType, long timestamp, float[] values) {
+        if (sensorType == SensorType.ACCELEROMETER) {
+            System.arraycopy(values, 0, accelerometerValues, 0, accelerometerValues.length);
+            accelerometerAvailable = true;
+        } else if (sensorType == SensorType.MAGNETIC_FIELD) {
+            System.arraycopy(values, 0, magneticFieldValues, 0, magneticFieldValues.length);
+            magneticFieldAvailable = true;
+        } else if (sensorType == SensorType.GYROSCOPE) {
+            if (!initialised && !initialise()) {
+                return false;
+            }
+            float dT = gyroscopeTimeStep.next(timestamp);
+            boolean orientationChanged = dT > 0;
+            if (orientationChanged) {
+                update(values[0], values[1], values[2], dT);
+                setOrientationQuaternionAndMatrix();
+            }
+            return orientationChanged;
+        }
+        return false;
+    }
+
+    /**
+     * Get the estimated bias of the gyroscope
+     *
+     * @param output Array of three values that receives the bias (x, y, z) in rad/s
+     */
+    public void getGyroscopeBias(float[] output) {
+        output[0] = -integralFeedbackX;
+        output[1] = -integralFeedbackY;
+        output[2] = -integralFeedbackZ;
+    }
+
+    /**
+     * Initialises the orientation from the accelerometer (and compass), so the filter does not need to converge from
+     * the identity
+     *
+     * @return true, if the orientation was initialised
+     */
+    private boolean initialise() {
+        if (!accelerometerAvailable || (useMagnetometer && !magneticFieldAvailable)) {
+            return false;
+        }
+        if (useMagnetometer) {
+            if (!SensorMath.getRotationMatrix(temporaryRotationMatrix, null, accelerometerValues,
+                    magneticFieldValues)) {
+                return false;
+            }
+            SensorMath.getQuaternionFromRotationMatrix(temporaryQuaternion, temporaryRotationMatrix);
+            q0 = temporaryQuaternion[0];
+            q1 = temporaryQuaternion[1];
+            q2 = temporaryQuaternion[2];
+            q3 = temporaryQuaternion[3];
+        } else {
+            // Shortest rotation of the measured up direction to the z axis, the heading is arbitrary
+            float ax = accelerometerValues[0], ay = accelerometerValues[1], az = accelerometerValues[2];
+            float norm = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+            if (norm == 0) {
+                return false;
+            }
+            q0 = 1 + az / norm;
+            q1 = ay / norm;
+            q2 = -ax / norm;
+            q3 = 0;
+            if (q0 < 1e-6f) {
+                // Upside down: Rotate around x
+                q0 = 0;
+                q1 = 1;
+                q2 = 0;
+            }
+            float recipNorm = invSqrt(q0 * q0 + q1 * q1 + q2 * q2);
+            q0 *= recipNorm;
+            q1 *= recipNorm;
+            q2 *= recipNorm;
+        }
+        initialised = true;
+        return true;
+    }
+
+    /**
+     * One step of the filter
+     */
+    private void update(float gx, float gy, float gz, float dT) {
+        float ax = accelerometerValues[0], ay = accelerometerValues[1], az = accelerometerValues[2];
+        float accelerometerNorm = ax * ax + ay * ay + az * az;
+
+        if (accelerometerNorm > 0) {
+            float recipNorm = invSqrt(accelerometerNorm);
+            ax *= recipNorm;
+            ay *= recipNorm;
+            az *= recipNorm;
+
+            // Auxiliary variables to avoid repeated arithmetic
+            float q0q0 = q0 * q0;
+            float q0q1 = q0 * q1;
+            float q0q2 = q0 * q2;
+            float q0q3 = q0 * q3;
+            float q1q1 = q1 * q1;
+            float q1q2 = q1 * q2;
+            float q1q3 = q1 * q3;
+            float q2q2 = q2 * q2;
+            float q2q3 = q2 * q3;
+            float q3q3 = q3 * q3;
+
+            // Estimated direction of gravity, in device coordinates
+            float halfVx = q1q3 - q0q2;
+            float halfVy = q0q1 + q2q3;
+            float halfVz = q0q0 - 0.5f + q3q3;
+
+            // Error is the cross product between the estimated and the measured direction of gravity
+            float halfEx = ay * halfVz - az * halfVy;
+            float halfEy = az * halfVx - ax * halfVz;
+            float halfEz = ax * halfVy - ay * halfVx;
+
+            float mx = magneticFieldValues[0], my = magneticFieldValues[1], mz = magneticFieldValues[2];
+            float magneticFieldNorm = mx * mx + my * my + mz * mz;
+            if (useMagnetometer && magneticFieldNorm > 0) {
+                recipNorm = invSqrt(magneticFieldNorm);
+                mx *= recipNorm;
+                my *= recipNorm;
+                mz *= recipNorm;
+
+                // Reference direction of the magnetic field: Horizontal part points north (y), the rest up (z)
+                float hx = 2.0f * (mx * (0.5f - q2q2 - q3q3) + my * (q1q2 - q0q3) + mz * (q1q3 + q0q2));
+                float hy = 2.0f * (mx * (q1q2 + q0q3) + my * (0.5f - q1q1 - q3q3) + mz * (q2q3 - q0q1));
+                float by = (float) Math.sqrt(hx * hx + hy * hy);
+                float bz = 2.0f * (mx * (q1q3 - q0q2) + my * (q2q3 + q0q1) + mz * (0.5f - q1q1 - q2q2));
+
+                // Estimated direction of the magnetic field, in device coordinates
+                float halfWx = by * (q1q2 + q0q3) + bz * (q1q3 - q0q2);
+                float halfWy = by * (0.5f - q1q1 - q3q3) + bz * (q0q1 + q2q3);
+                float halfWz = by * (q2q3 - q0q1) + bz * (0.5f - q1q1 - q2q2);
+
+                halfEx += my * halfWz - mz * halfWy;
+                halfEy += mz * halfWx - mx * halfWz;
+                halfEz += mx * halfWy - my * halfWx;
+            }
+
+            // Integral feedback: Converges to the negative bias of the gyroscope
+            if (integralGain > 0) {
+                integralFeedbackX = clamp(integralFeedbackX + 2.0f * integralGain * halfEx * dT);
+                integralFeedbackY = clamp(integralFeedbackY + 2.0f * integralGain * halfEy * dT);
+                integralFeedbackZ = clamp(integralFeedbackZ + 2.0f * integralGain * halfEz * dT);
+                gx += integralFeedbackX;
+                gy += integralFeedbackY;
+                gz += integralFeedbackZ;
+            }
+
+            // Proportional feedback
+            gx += 2.0f * proportionalGain * halfEx;
+            gy += 2.0f * proportionalGain * halfEy;
+            gz += 2.0f * proportionalGain * halfEz;
+        } else {
+            // Without a measurement, the integral part still removes the last known bias
+            gx += integralFeedbackX;
+            gy += integralFeedbackY;
+            gz += integralFeedbackZ;
+        }
+
+        // Integrate rate of change of quaternion
+        gx *= 0.5f * dT;
+        gy *= 0.5f * dT;
+        gz *= 0.5f * dT;
+        float qa = q0;
+        float qb = q1;
+        float qc = q2;
+        q0 += -qb * gx - qc * gy - q3 * gz;
+        q1 += qa * gx + qc * gz - q3 * gy;
+        q2 += qa * gy - qb * gz + q3 * gx;
+        q3 += qa * gz + qb * gy - qc * gx;
+
+        float recipNorm = invSqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 *= recipNorm;
+        q1 *= recipNorm;
+        q2 *= recipNorm;
+        q3 *= recipNorm;
+    }
+
+    private static float clamp(float value) {
+        return Math.max(-MAX_BIAS, Math.min(MAX_BIAS, value));
+    }
+
+    private static float invSqrt(float value) {
+        return (float) (1.0 / Math.sqrt(value));
+    }
+
+    /**
+     * Sets the output quaternion and matrix from the estimate, in the same representation as the
+     * {@link RotationVectorFusion}
+     */
+    private void setOrientationQuaternionAndMatrix() {
+        temporaryQuaternion[0] = q1;
+        temporaryQuaternion[1] = q2;
+        temporaryQuaternion[2] = q3;
+        temporaryQuaternion[3] = q0;
+        currentOrientationQuaternion.setXYZW(q1, q2, q3, -q0);
+        SensorMath.getRotationMatrixFromVector(currentOrientationRotationMatrix.matrix, temporaryQuaternion);
+    }
+}
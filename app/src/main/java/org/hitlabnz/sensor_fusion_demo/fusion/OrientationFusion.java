@@ -0,0 +1,81 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+import org.hitlabnz.sensor_fusion_demo.representation.MatrixF4x4;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+
+/**
+ * The platform independent part of an orientation provider: Sensor events (sensor type, timestamp and values) go in,
+ * the orientation of the device comes out as quaternion and rotation matrix.
+ *
+ * <p>
+ * A fusion does not depend on the Android framework, so it can be driven by the
+ * {@link org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationProvider OrientationProvider} on the device
+ * as well as by unit tests, benchmarks or the replay of recorded sessions on a desktop computer. It is not thread
+ * safe; all events have to be delivered by the same thread (or with external synchronisation).
+ * </p>
+ */
+public abstract class OrientationFusion {
+
+    /**
+     * The matrix that holds the current rotation
+     */
+    protected final MatrixF4x4 currentOrientationRotationMatrix;
+
+    /**
+     * The quaternion that holds the current rotation
+     */
+    protected final Quaternion currentOrientationQuaternion;
+
+    /**
+     * The sensor types this fusion needs
+     */
+    private final int[] sensorTypes;
+
+    /**
+     * Initialises a new OrientationFusion
+     *
+     * @param sensorTypes The {@link SensorType sensor types} this fusion needs
+     */
+    protected OrientationFusion(int... sensorTypes) {
+        this.sensorTypes = sensorTypes;
+
+        // Initialise with identity
+        currentOrientationRotationMatrix = new MatrixF4x4();
+
+        // Initialise with identity
+        currentOrientationQuaternion = new Quaternion();
+    }
+
+    /**
+     * @return The {@link SensorType sensor types} this fusion needs. The returned array must not be modified.
+     */
+    public int[] getSensorTypes() {
+        return sensorTypes;
+    }
+
+    /**
+     * Processes a single sensor event
+     *
+     * @param sensorType The {@link SensorType type} of the sensor that delivered the event
+     * @param timestamp The time of the event in nanoseconds
+     * @param values The values of the event, as described for the sensor type
+     * @return true, if the orientation was updated by this event
+     */
+    public abstract boolean onSensorEvent(int sensorType, long timestamp, float[] values);
+
+    /**
+     * @return The current orientation as quaternion. This is the internal state of the fusion, it must not be modified
+     *         and changes with the next event.
+     */
+    public Quaternion getQuaternion() {
+        return currentOrientationQuaternion;
+    }
+
+    /**
+     * @return The current orientation as 4x4 rotation matrix. This is the internal state of the fusion, it must not be
+     *         modified and changes with the next event.
+     */
+    public MatrixF4x4 getRotationMatrix() {
+        return currentOrientationRotationMatrix;
+    }
+}
@@ -0,0 +1,47 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+/**
+ * Extrapolates an orientation of an {@link OrientationFusion} into the future by assuming that the device keeps
+ * rotating with the last measured angular velocity of the {@link SensorType#GYROSCOPE Gyroscope}.
+ *
+ * Used to hide the latency between the measurement and the display of an orientation: The renderer asks for the
+ * orientation at the time the frame will be visible instead of the time of the last sensor event. The rotation is
+ * applied in the same way as the gyroscope fusions integrate a gyroscope event, so a prediction over the time to the
+ * next event gives the orientation the gyroscope fusions will calculate (up to the sign of the quaternion: the
+ * prediction keeps the sign of its input, so a horizon of 0 returns the input unchanged).
+ */
+public final class OrientationPredictor {
+
+    private OrientationPredictor() {
+    }
+
+    /**
+     * Predicts the orientation after the given time
+     *
+     * @param quaternion The current orientation as published by the fusions (x, y, z, w)
+     * @param angularVelocity The angular velocity around x, y and z in rad/s, in device coordinates
+     * @param horizon The time to predict in seconds
+     * @param output Receives the predicted orientation (x, y, z, w), may be the input quaternion
+     */
+    public static void predict(float[] quaternion, float[] angularVelocity, float horizon, float[] output) {
+        float rateX = angularVelocity[0];
+        float rateY = angularVelocity[1];
+        float rateZ = angularVelocity[2];
+        double velocity = Math.sqrt(rateX * rateX + rateY * rateY + rateZ * rateZ);
+        double thetaOverTwo = velocity * horizon / 2.0f;
+        // sin(theta / 2) / velocity, so the axis does not need to be normalised
+        double scale = velocity > 0 ? Math.sin(thetaOverTwo) / velocity : 0;
+
+        // The negated delta rotation of the gyroscope fusions, which have an inverted w
+        float x1 = -(float) (scale * rateX);
+        float y1 = -(float) (scale * rateY);
+        float z1 = -(float) (scale * rateZ);
+        float w1 = (float) Math.cos(thetaOverTwo);
+        float x2 = quaternion[0], y2 = quaternion[1], z2 = quaternion[2], w2 = quaternion[3];
+
+        output[0] = w1 * x2 + x1 * w2 + y1 * z2 - z1 * y2;
+        output[1] = w1 * y2 + y1 * w2 + z1 * x2 - x1 * z2;
+        output[2] = w1 * z2 + z1 * w2 + x1 * y2 - y1 * x2;
+        output[3] = w1 * w2 - x1 * x2 - y1 * y2 - z1 * z2;
+    }
+}
@@ -0,0 +1,42 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+/**
+ * The fusion that delivers the current orientation from the {@link SensorType#ROTATION_VECTOR Android
+ * Rotation Vector sensor}.
+ * 
+ * @author Alexander Pacha
+ * 
+ */
+public class RotationVectorFusion extends OrientationFusion {
+
+    /**
+     * Temporary quaternion to store the values obtained from the SensorManager
+     */
+    final private float[] temporaryQuaternion = new float[4];
+
+    /**
+     * Initialises a new RotationVectorFusion
+     */
+    public RotationVectorFusion() {
+        super(SensorType.ROTATION_VECTOR);
+    }
+
+    @Override
+    public boolean onSensorEvent(int sensorType, long timestamp, float[] values) {
+        // we received a sensor event. it is a good practice to check
+        // that we received the proper event
+        if (sensorType == SensorType.ROTATION_VECTOR) {
+            // convert the rotation-vector to a 4x4 matrix. the matrix
+            // is interpreted by Open GL as the inverse of the
+            // rotation-vector, which is what we want.
+            SensorMath.getRotationMatrixFromVector(currentOrientationRotationMatrix.matrix, values);
+
+            // Get Quaternion
+            // Calculate angle. Starting with API_18, Android will provide this value as values[3], but if not, we have to calculate it manually.
+            SensorMath.getQuaternionFromVector(temporaryQuaternion, values);
+            currentOrientationQuaternion.setXYZW(temporaryQuaternion[1], temporaryQuaternion[2], temporaryQuaternion[3], -temporaryQuaternion[0]);
+            return true;
+        }
+        return false;
+    }
+}
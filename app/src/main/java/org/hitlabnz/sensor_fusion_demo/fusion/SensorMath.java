@@ -0,0 +1,252 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+/**
+ * Plain Java versions of the conversions in android.hardware.SensorManager that are needed by the orientation
+ * fusions. They produce the same results as the Android methods, but do not need the Android framework, so the
+ * fusions can also run in unit tests, benchmarks and the offline replay of recorded sessions.
+ *
+ * Based on android.hardware.SensorManager from the Android Open Source Project, licensed under the Apache License,
+ * Version 2.0.
+ */
+public final class SensorMath {
+
+    /**
+     * Standard gravity of the earth in m/s^2
+     */
+    private static final float STANDARD_GRAVITY = 9.80665f;
+
+    private SensorMath() {
+    }
+
+    /**
+     * Computes the rotation matrix from a rotation vector, like SensorManager.getRotationMatrixFromVector.
+     *
+     * @param R Output rotation matrix; either 9 (3x3) or 16 (4x4) values
+     * @param rotationVector The rotation vector as delivered by the rotation vector sensor. If it has a fourth
+     *            component, it is used as w of the quaternion, otherwise w is calculated.
+     */
+    public static void getRotationMatrixFromVector(float[] R, float[] rotationVector) {
+        float q0;
+        float q1 = rotationVector[0];
+        float q2 = rotationVector[1];
+        float q3 = rotationVector[2];
+
+        if (rotationVector.length >= 4) {
+            q0 = rotationVector[3];
+        } else {
+            q0 = 1 - q1 * q1 - q2 * q2 - q3 * q3;
+            q0 = (q0 > 0) ? (float) Math.sqrt(q0) : 0;
+        }
+
+        float sq_q1 = 2 * q1 * q1;
+        float sq_q2 = 2 * q2 * q2;
+        float sq_q3 = 2 * q3 * q3;
+        float q1_q2 = 2 * q1 * q2;
+        float q3_q0 = 2 * q3 * q0;
+        float q1_q3 = 2 * q1 * q3;
+        float q2_q0 = 2 * q2 * q0;
+        float q2_q3 = 2 * q2 * q3;
+        float q1_q0 = 2 * q1 * q0;
+
+        if (R.length == 9) {
+            R[0] = 1 - sq_q2 - sq_q3;
+            R[1] = q1_q2 - q3_q0;
+            R[2] = q1_q3 + q2_q0;
+
+            R[3] = q1_q2 + q3_q0;
+            R[4] = 1 - sq_q1 - sq_q3;
+            R[5] = q2_q3 - q1_q0;
+
+            R[6] = q1_q3 - q2_q0;
+            R[7] = q2_q3 + q1_q0;
+            R[8] = 1 - sq_q1 - sq_q2;
+        } else if (R.length == 16) {
+            R[0] = 1 - sq_q2 - sq_q3;
+            R[1] = q1_q2 - q3_q0;
+            R[2] = q1_q3 + q2_q0;
+            R[3] = 0.0f;
+
+            R[4] = q1_q2 + q3_q0;
+            R[5] = 1 - sq_q1 - sq_q3;
+            R[6] = q2_q3 - q1_q0;
+            R[7] = 0.0f;
+
+            R[8] = q1_q3 - q2_q0;
+            R[9] = q2_q3 + q1_q0;
+            R[10] = 1 - sq_q1 - sq_q2;
+            R[11] = 0.0f;
+
+            R[12] = R[13] = R[14] = 0.0f;
+            R[15] = 1.0f;
+        }
+    }
+
+    /**
+     * Converts a rotation vector to a normalised quaternion, like SensorManager.getQuaternionFromVector.
+     *
+     * @param Q Output quaternion in the order w, x, y, z
+     * @param rv The rotation vector as delivered by the rotation vector sensor
+     */
+    public static void getQuaternionFromVector(float[] Q, float[] rv) {
+        if (rv.length >= 4) {
+            Q[0] = rv[3];
+        } else {
+            Q[0] = 1 - rv[0] * rv[0] - rv[1] * rv[1] - rv[2] * rv[2];
+            Q[0] = (Q[0] > 0) ? (float) Math.sqrt(Q[0]) : 0;
+        }
+        Q[1] = rv[0];
+        Q[2] = rv[1];
+        Q[3] = rv[2];
+    }
+
+    /**
+     * Converts a rotation matrix to a normalised quaternion, the inverse of {@link #getRotationMatrixFromVector}. There
+     * is no such method in the SensorManager.
+     *
+     * @param Q Output quaternion in the order w, x, y, z, with w &gt;= 0
+     * @param R Rotation matrix (9 or 16 values), as delivered by {@link #getRotationMatrix}
+     */
+    public static void getQuaternionFromRotationMatrix(float[] Q, float[] R) {
+        int row = R.length == 16 ? 4 : 3;
+        float r00 = R[0], r01 = R[1], r02 = R[2];
+        float r10 = R[row], r11 = R[row + 1], r12 = R[row + 2];
+        float r20 = R[2 * row], r21 = R[2 * row + 1], r22 = R[2 * row + 2];
+
+        Q[0] = (float) Math.sqrt(Math.max(0, 1 + r00 + r11 + r22)) / 2;
+        Q[1] = Math.copySign((float) Math.sqrt(Math.max(0, 1 + r00 - r11 - r22)) / 2, r21 - r12);
+        Q[2] = Math.copySign((float) Math.sqrt(Math.max(0, 1 - r00 + r11 - r22)) / 2, r02 - r20);
+        Q[3] = Math.copySign((float) Math.sqrt(Math.max(0, 1 - r00 - r11 + r22)) / 2, r10 - r01);
+    }
+
+    /**
+     * Computes the inclination matrix I and the rotation matrix R from the gravity and the geomagnetic field, like
+     * SensorManager.getRotationMatrix. R and I are left unchanged, if the device is in free fall or close to a
+     * magnetic pole.
+     *
+     * @param R Output rotation matrix (9 or 16 values), may be null
+     * @param I Output inclination matrix (9 or 16 values), may be null
+     * @param gravity Gravity vector (e.g. from the accelerometer)
+     * @param geomagnetic Geomagnetic field vector (from the compass)
+     * @return true on success, false on failure (free fall or weak magnetic field)
+     */
+    public static boolean getRotationMatrix(float[] R, float[] I, float[] gravity, float[] geomagnetic) {
+        float Ax = gravity[0];
+        float Ay = gravity[1];
+        float Az = gravity[2];
+
+        final float normsqA = (Ax * Ax + Ay * Ay + Az * Az);
+        final float g = STANDARD_GRAVITY;
+        final float freeFallGravitySquared = 0.01f * g * g;
+        if (normsqA < freeFallGravitySquared) {
+            // gravity less than 10% of normal value
+            return false;
+        }
+
+        final float Ex = geomagnetic[0];
+        final float Ey = geomagnetic[1];
+        final float Ez = geomagnetic[2];
+        float Hx = Ey * Az - Ez * Ay;
+        float Hy = Ez * Ax - Ex * Az;
+        float Hz = Ex * Ay - Ey * Ax;
+        final float normH = (float) Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+
+        if (normH < 0.1f) {
+            // device is close to free fall (or in space?), or close to
+            // magnetic north pole. Typical values are > 100.
+            return false;
+        }
+        final float invH = 1.0f / normH;
+        Hx *= invH;
+        Hy *= invH;
+        Hz *= invH;
+        final float invA = 1.0f / (float) Math.sqrt(Ax * Ax + Ay * Ay + Az * Az);
+        Ax *= invA;
+        Ay *= invA;
+        Az *= invA;
+        final float Mx = Ay * Hz - Az * Hy;
+        final float My = Az * Hx - Ax * Hz;
+        final float Mz = Ax * Hy - Ay * Hx;
+        if (R != null) {
+            if (R.length == 9) {
+                R[0] = Hx;
+                R[1] = Hy;
+                R[2] = Hz;
+                R[3] = Mx;
+                R[4] = My;
+                R[5] = Mz;
+                R[6] = Ax;
+                R[7] = Ay;
+                R[8] = Az;
+            } else if (R.length == 16) {
+                R[0] = Hx;
+                R[1] = Hy;
+                R[2] = Hz;
+                R[3] = 0;
+                R[4] = Mx;
+                R[5] = My;
+                R[6] = Mz;
+                R[7] = 0;
+                R[8] = Ax;
+                R[9] = Ay;
+                R[10] = Az;
+                R[11] = 0;
+                R[12] = 0;
+                R[13] = 0;
+                R[14] = 0;
+                R[15] = 1;
+            }
+        }
+        if (I != null) {
+            // compute the inclination matrix by projecting the geomagnetic
+            // vector onto the Z (gravity) and X (horizontal component
+            // of geomagnetic vector) axes.
+            final float invE = 1.0f / (float) Math.sqrt(Ex * Ex + Ey * Ey + Ez * Ez);
+            final float c = (Ex * Mx + Ey * My + Ez * Mz) * invE;
+            final float s = (Ex * Ax + Ey * Ay + Ez * Az) * invE;
+            if (I.length == 9) {
+                I[0] = 1;
+                I[1] = 0;
+                I[2] = 0;
+                I[3] = 0;
+                I[4] = c;
+                I[5] = s;
+                I[6] = 0;
+                I[7] = -s;
+                I[8] = c;
+            } else if (I.length == 16) {
+                I[0] = 1;
+                I[1] = 0;
+                I[2] = 0;
+                I[4] = 0;
+                I[5] = c;
+                I[6] = s;
+                I[8] = 0;
+                I[9] = -s;
+                I[10] = c;
+                I[3] = I[7] = I[11] = I[12] = I[13] = I[14] = 0;
+                I[15] = 1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the device's orientation based on the rotation matrix, like SensorManager.getOrientation.
+     *
+     * @param R Rotation matrix (9 or 16 values)
+     * @param values Output array of three values: azimuth, pitch and roll in radians
+     * @return The array values
+     */
+    public static float[] getOrientation(float[] R, float[] values) {
+        if (R.length == 9) {
+            values[0] = (float) Math.atan2(R[1], R[4]);
+            values[1] = (float) Math.asin(-R[7]);
+            values[2] = (float) Math.atan2(-R[6], R[8]);
+        } else {
+            values[0] = (float) Math.atan2(R[1], R[5]);
+            values[1] = (float) Math.asin(-R[9]);
+            values[2] = (float) Math.atan2(-R[8], R[10]);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,37 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+/**
+ * The sensor types understood by the {@link OrientationFusion orientation fusions}. The values are the same as the
+ * constants in android.hardware.Sensor, so the type of an Android sensor event can be passed on directly, while
+ * the fusions can still run on a plain Java VM.
+ */
+public final class SensorType {
+
+    /**
+     * Accelerometer in m/s^2, including gravity (android.hardware.Sensor.TYPE_ACCELEROMETER)
+     */
+    public static final int ACCELEROMETER = 1;
+
+    /**
+     * Magnetic field (compass) in micro-Tesla (android.hardware.Sensor.TYPE_MAGNETIC_FIELD)
+     */
+    public static final int MAGNETIC_FIELD = 2;
+
+    /**
+     * Calibrated gyroscope in rad/s (android.hardware.Sensor.TYPE_GYROSCOPE)
+     */
+    public static final int GYROSCOPE = 4;
+
+    /**
+     * Gravity in m/s^2 (android.hardware.Sensor.TYPE_GRAVITY)
+     */
+    public static final int GRAVITY = 9;
+
+    /**
+     * Android rotation vector (android.hardware.Sensor.TYPE_ROTATION_VECTOR)
+     */
+    public static final int ROTATION_VECTOR = 11;
+
+    private SensorType() {
+    }
+}
@@ -0,0 +1,92 @@
+package org.hitlabnz.sensor_fusion_demo.fusion;
+
+/**
+ * Detects from the {@link SensorType#GYROSCOPE Gyroscope} whether the device is lying still, so the sensors can be
+ * slowed down while nothing happens.
+ * 
+ * The device becomes stationary when the angular speed stayed below the threshold for the whole quiet period, and
+ * moves again with the first event above the threshold. The switch back therefore does not wait for anything, only
+ * the switch to stationary is delayed. The state can be read from any thread.
+ */
+public class StationaryDetector {
+
+    /**
+     * Default threshold of the angular speed in rad/s. Above the noise of a resting gyroscope, below a slow turn of
+     * the hand.
+     */
+    public static final float DEFAULT_THRESHOLD = 0.05f;
+
+    private final float thresholdSquared;
+    private final long quietPeriod;
+
+    /**
+     * Time-stamp of the last event above the threshold (or of the first event) in nano-seconds
+     */
+    private long lastMotionTimestamp;
+
+    private volatile boolean stationary;
+    private volatile int stationaryTransitions;
+    private volatile int motionTransitions;
+
+    /**
+     * Initialises a new StationaryDetector with the default threshold
+     * 
+     * @param quietPeriod The time without motion after which the device is stationary, in nano-seconds
+     */
+    public StationaryDetector(long quietPeriod) {
+        this(quietPeriod, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Initialises a new StationaryDetector
+     * 
+     * @param quietPeriod The time without motion after which the device is stationary, in nano-seconds
+     * @param threshold The angular speed in rad/s above which the device is moving
+     */
+    public StationaryDetector(long quietPeriod, float threshold) {
+        this.quietPeriod = quietPeriod;
+        this.thresholdSquared = threshold * threshold;
+    }
+
+    /**
+     * Processes a gyroscope event
+     * 
+     * @param timestamp The time-stamp of the event in nano-seconds
+     * @param values The angular velocity around x, y and z in rad/s
+     * @return true, if the device changed from moving to stationary or back
+     */
+    public boolean onGyroscopeEvent(long timestamp, float[] values) {
+        float speedSquared = values[0] * values[0] + values[1] * values[1] + values[2] * values[2];
+        if (speedSquared > thresholdSquared || lastMotionTimestamp == 0) {
+            lastMotionTimestamp = timestamp;
+            if (stationary) {
+                stationary = false;
+                motionTransitions++;
+                return true;
+            }
+        } else if (!stationary && timestamp - lastMotionTimestamp >= quietPeriod) {
+            stationary = true;
+            stationaryTransitions++;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isStationary() {
+        return stationary;
+    }
+
+    /**
+     * @return How often the device became stationary
+     */
+    public int getStationaryTransitionCount() {
+        return stationaryTransitions;
+    }
+
+    /**
+     * @return How often the device started moving after being stationary
+     */
+    public int getMotionTransitionCount() {
+        return motionTransitions;
+    }
+}
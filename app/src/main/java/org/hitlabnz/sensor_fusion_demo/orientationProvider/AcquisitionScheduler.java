@@ -0,0 +1,251 @@
+package org.hitlabnz.sensor_fusion_demo.orientationProvider;
+
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+
+/**
+ * Takes samples of the orientation at a fixed rate in the time base of the sensor events, independent of how often
+ * frames are drawn.
+ *
+ * <p>
+ * The scheduler is driven by the sensor thread: After each orientation was added to the {@link OrientationHistory},
+ * every sample time up to the time-stamp of that orientation is due, and the orientation at exactly that time is
+ * interpolated from the history. The samples are therefore exactly one period apart, no matter how irregular the
+ * sensor events arrive. A sample is late by at most the time between two sensor events.
+ * </p>
+ *
+ * <p>
+ * Sample times that are no longer in the history are counted as missed, and after a long gap (e.g. while the sensors
+ * were stopped) the scheduler skips ahead instead of catching up. The statistics are written by the sensor thread
+ * and can be read from any thread.
+ * </p>
+ *
+ * <p>
+ * The sample times are exact by construction, so the statistics do not look at them. They measure when the samples
+ * became available instead: the delay of each sample until the sensor event it was taken at, the intervals between
+ * these events, and the rate and intervals of the sensor events themselves. Missed samples, bursts and gaps of the
+ * sensor events therefore show up in the rate and the jitter.
+ * </p>
+ */
+public class AcquisitionScheduler {
+
+    /**
+     * Listener for the samples
+     */
+    public interface OnSampleListener {
+        /**
+         * Called on the sensor thread for each sample, in the order of their time
+         *
+         * @param timestamp The time of the sample in nano-seconds, in the time base of the sensor events
+         * @param quaternion The orientation at that time as published by the provider. Only valid during the call.
+         */
+        void onSample(long timestamp, Quaternion quaternion);
+    }
+
+    /**
+     * Longest gap in nano-seconds that is filled with samples from the history
+     */
+    private static final long MAX_CATCH_UP = 1000000000L;
+
+    private final long period;
+    private final OnSampleListener listener;
+
+    /**
+     * The orientation of the current sample. Only used by the sensor thread.
+     */
+    private final Quaternion quaternion = new Quaternion();
+
+    /**
+     * Time of the next sample, or {@link Long#MIN_VALUE} before the first orientation
+     */
+    private long nextSampleTime = Long.MIN_VALUE;
+
+    /**
+     * Statistics of the samples: when the first and the last one became available (the time-stamps of their sensor
+     * events), the intervals between these times and the delays of the samples
+     */
+    private volatile int sampleCount;
+    private volatile int missedCount;
+    private volatile long firstDeliveryTime;
+    private volatile long lastDeliveryTime;
+    private volatile long maxInterval;
+    private volatile double intervalSquareSum;
+    private volatile long delaySum;
+    private volatile double delaySquareSum;
+    private volatile long maxDelay;
+
+    /**
+     * Statistics of the sensor events that drive the scheduler
+     */
+    private volatile int eventCount;
+    private volatile long firstEventTime;
+    private volatile long lastEventTime;
+    private volatile long maxEventInterval;
+
+    /**
+     * Initialises a new AcquisitionScheduler
+     *
+     * @param period The time between two samples in nano-seconds, e.g. 20000000 for 50 Hz
+     * @param listener The listener that receives the samples
+     */
+    public AcquisitionScheduler(long period, OnSampleListener listener) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("The period must be positive: " + period);
+        }
+        this.period = period;
+        this.listener = listener;
+    }
+
+    /**
+     * @return The time between two samples in nano-seconds
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * Takes all samples that are due. Must be called on the sensor thread after each orientation was added to the
+     * history.
+     *
+     * @param timestamp The time-stamp of the orientation that was added last, in nano-seconds
+     * @param history The history the orientation was added to
+     */
+    public void onOrientation(long timestamp, OrientationHistory history) {
+        recordEvent(timestamp);
+        if (nextSampleTime == Long.MIN_VALUE) {
+            nextSampleTime = timestamp;
+        } else if (timestamp - nextSampleTime > MAX_CATCH_UP) {
+            long skipped = (timestamp - nextSampleTime) / period;
+            missedCount += (int) skipped;
+            nextSampleTime += skipped * period;
+        }
+        while (nextSampleTime <= timestamp) {
+            if (history.getQuaternionAt(nextSampleTime, quaternion)) {
+                recordSample(timestamp, timestamp - nextSampleTime);
+                listener.onSample(nextSampleTime, quaternion);
+            } else {
+                missedCount++;
+            }
+            nextSampleTime += period;
+        }
+    }
+
+    private void recordEvent(long timestamp) {
+        if (eventCount == 0) {
+            firstEventTime = timestamp;
+        } else {
+            maxEventInterval = Math.max(maxEventInterval, timestamp - lastEventTime);
+        }
+        lastEventTime = timestamp;
+        eventCount++;
+    }
+
+    /**
+     * @param deliveryTime The time-stamp of the sensor event the sample was taken at
+     * @param delay The time between the sample time and the delivery time
+     */
+    private void recordSample(long deliveryTime, long delay) {
+        if (sampleCount == 0) {
+            firstDeliveryTime = deliveryTime;
+        } else {
+            long interval = deliveryTime - lastDeliveryTime;
+            double deviation = interval - period;
+            intervalSquareSum += deviation * deviation;
+            maxInterval = Math.max(maxInterval, interval);
+        }
+        lastDeliveryTime = deliveryTime;
+        delaySum += delay;
+        delaySquareSum += (double) delay * delay;
+        maxDelay = Math.max(maxDelay, delay);
+        sampleCount++;
+    }
+
+    /**
+     * @return The number of samples taken so far
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return The number of sample times that were not in the history or skipped after a gap
+     */
+    public int getMissedCount() {
+        return missedCount;
+    }
+
+    /**
+     * @return The number of samples per second that became available between the delivery of the first and the last
+     *         sample, 0 if there are less than two. Lower than the configured rate if samples were missed.
+     */
+    public double getAchievedRate() {
+        int count = sampleCount;
+        long duration = lastDeliveryTime - firstDeliveryTime;
+        return count < 2 || duration <= 0 ? 0 : (count - 1) * 1e9 / duration;
+    }
+
+    /**
+     * @return The root mean square deviation of the time between the deliveries of two samples from the period, in
+     *         nano-seconds. 0 only if every sample became available exactly one period after the one before.
+     */
+    public double getIntervalJitter() {
+        int count = sampleCount;
+        return count < 2 ? 0 : Math.sqrt(intervalSquareSum / (count - 1));
+    }
+
+    /**
+     * @return The longest time between the deliveries of two samples in nano-seconds
+     */
+    public long getMaxInterval() {
+        return maxInterval;
+    }
+
+    /**
+     * @return The standard deviation of the delays of the samples in nano-seconds
+     */
+    public double getDelayJitter() {
+        int count = sampleCount;
+        if (count == 0) {
+            return 0;
+        }
+        double average = (double) delaySum / count;
+        return Math.sqrt(Math.max(0, delaySquareSum / count - average * average));
+    }
+
+    /**
+     * @return The number of sensor events that drove the scheduler
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return The number of sensor events per second, 0 if there are less than two
+     */
+    public double getEventRate() {
+        int count = eventCount;
+        long duration = lastEventTime - firstEventTime;
+        return count < 2 || duration <= 0 ? 0 : (count - 1) * 1e9 / duration;
+    }
+
+    /**
+     * @return The longest time between two sensor events in nano-seconds
+     */
+    public long getMaxEventInterval() {
+        return maxEventInterval;
+    }
+
+    /**
+     * @return The average time in nano-seconds between the time of a sample and the sensor event it was taken at
+     */
+    public long getAverageDelay() {
+        int count = sampleCount;
+        return count == 0 ? 0 : delaySum / count;
+    }
+
+    /**
+     * @return The longest time in nano-seconds between the time of a sample and the sensor event it was taken at
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+}
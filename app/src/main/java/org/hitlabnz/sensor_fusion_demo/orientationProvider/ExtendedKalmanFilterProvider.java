@@ -0,0 +1,36 @@
+package org.hitlabnz.sensor_fusion_demo.orientationProvider;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.ExtendedKalmanFilterFusion;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+/**
+ * The orientation provider that delivers the absolute orientation from the {@link Sensor#TYPE_GYROSCOPE
+ * Gyroscope} and the {@link Sensor#TYPE_ROTATION_VECTOR Android Rotation Vector sensor} (or the
+ * {@link Sensor#TYPE_ACCELEROMETER Accelerometer} and {@link Sensor#TYPE_MAGNETIC_FIELD Compass}) with an extended
+ * Kalman filter that also estimates the bias of the gyroscope.
+ * 
+ * The fusion itself is done by the {@link ExtendedKalmanFilterFusion}.
+ */
+public class ExtendedKalmanFilterProvider extends OrientationProvider {
+
+    /**
+     * Initialises a new ExtendedKalmanFilterProvider that uses the rotation vector as absolute reference
+     * 
+     * @param sensorManager The android sensor manager
+     */
+    public ExtendedKalmanFilterProvider(SensorManager sensorManager) {
+        this(sensorManager, ExtendedKalmanFilterFusion.Reference.ROTATION_VECTOR);
+    }
+
+    /**
+     * Initialises a new ExtendedKalmanFilterProvider
+     * 
+     * @param sensorManager The android sensor manager
+     * @param reference The sensors that are used as absolute reference
+     */
+    public ExtendedKalmanFilterProvider(SensorManager sensorManager, ExtendedKalmanFilterFusion.Reference reference) {
+        super(sensorManager, new ExtendedKalmanFilterFusion(reference));
+    }
+}
@@ -0,0 +1,36 @@
+package org.hitlabnz.sensor_fusion_demo.orientationProvider;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.MadgwickFusion;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+/**
+ * The orientation provider that delivers the absolute orientation from the {@link Sensor#TYPE_GYROSCOPE
+ * Gyroscope}, {@link Sensor#TYPE_ACCELEROMETER Accelerometer} and {@link Sensor#TYPE_MAGNETIC_FIELD Compass} with the
+ * gradient descent filter of Madgwick. It does not need the Android Rotation Vector sensor.
+ * 
+ * The fusion itself is done by the {@link MadgwickFusion}.
+ */
+public class MadgwickProvider extends OrientationProvider {
+
+    /**
+     * Initialises a new MadgwickProvider that uses the compass and the default step size
+     * 
+     * @param sensorManager The android sensor manager
+     */
+    public MadgwickProvider(SensorManager sensorManager) {
+        this(sensorManager, true, MadgwickFusion.DEFAULT_BETA);
+    }
+
+    /**
+     * Initialises a new MadgwickProvider
+     * 
+     * @param sensorManager The android sensor manager
+     * @param useMagnetometer Whether the compass is used to correct the heading
+     * @param beta The step size of the gradient descent in rad/s
+     */
+    public MadgwickProvider(SensorManager sensorManager, boolean useMagnetometer, float beta) {
+        super(sensorManager, new MadgwickFusion(useMagnetometer, beta));
+    }
+}
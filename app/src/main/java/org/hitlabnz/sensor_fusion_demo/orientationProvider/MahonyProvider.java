@@ -0,0 +1,38 @@
+package org.hitlabnz.sensor_fusion_demo.orientationProvider;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.MahonyFusion;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+/**
+ * The orientation provider that delivers the absolute orientation from the {@link Sensor#TYPE_GYROSCOPE
+ * Gyroscope}, {@link Sensor#TYPE_ACCELEROMETER Accelerometer} and {@link Sensor#TYPE_MAGNETIC_FIELD Compass} with the
+ * complementary filter of Mahony, which also estimates and removes the bias of the gyroscope.
+ * 
+ * The fusion itself is done by the {@link MahonyFusion}.
+ */
+public class MahonyProvider extends OrientationProvider {
+
+    /**
+     * Initialises a new MahonyProvider that uses the compass and the default gains
+     * 
+     * @param sensorManager The android sensor manager
+     */
+    public MahonyProvider(SensorManager sensorManager) {
+        this(sensorManager, true, MahonyFusion.DEFAULT_PROPORTIONAL_GAIN, MahonyFusion.DEFAULT_INTEGRAL_GAIN);
+    }
+
+    /**
+     * Initialises a new MahonyProvider
+     * 
+     * @param sensorManager The android sensor manager
+     * @param useMagnetometer Whether the compass is used to correct the heading
+     * @param proportionalGain The proportional gain of the feedback
+     * @param integralGain The integral gain of the feedback, 0 disables the bias estimation
+     */
+    public MahonyProvider(SensorManager sensorManager, boolean useMagnetometer, float proportionalGain,
+            float integralGain) {
+        super(sensorManager, new MahonyFusion(useMagnetometer, proportionalGain, integralGain));
+    }
+}
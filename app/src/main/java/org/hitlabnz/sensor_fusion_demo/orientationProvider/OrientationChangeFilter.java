@@ -0,0 +1,100 @@
+package org.hitlabnz.sensor_fusion_demo.orientationProvider;
+
+/**
+ * Decides which of the published orientations are worth showing: an orientation passes if it differs from the last
+ * orientation that passed by more than a minimum angle, but not sooner than a minimum interval after it.
+ *
+ * Used to render on demand: While the device lies still, the orientation only changes by the noise of the sensors
+ * and no frame needs to be drawn. The interval caps the frame rate while it moves. An orientation that is held back
+ * by the interval is not lost, the next event after the interval passes as long as the difference still exceeds the
+ * angle.
+ *
+ * Only used by one thread, the sensor thread. The counts can be read from any thread.
+ */
+public class OrientationChangeFilter {
+
+    /**
+     * Squared distance of two unit quaternions that are the minimum angle apart: |a - b|^2 = 4 sin^2(angle / 4).
+     * Unlike the angle from the dot product, this is accurate for the small angles of sensor noise.
+     */
+    private final double minDistanceSquared;
+    private final long minInterval;
+
+    /**
+     * The last orientation that passed (x, y, z, w) and its time-stamp
+     */
+    private final float[] lastQuaternion = new float[4];
+    private long lastTimestamp;
+    private boolean hasPassed;
+
+    private volatile int orientationCount;
+    private volatile int passedCount;
+
+    /**
+     * Initialises a new OrientationChangeFilter
+     *
+     * @param minAngle The minimum rotation between two orientations that pass, in radians
+     * @param minInterval The minimum time between two orientations that pass, in nano-seconds
+     */
+    public OrientationChangeFilter(float minAngle, long minInterval) {
+        double sinQuarterAngle = Math.sin(minAngle / 4.0);
+        this.minDistanceSquared = 4 * sinQuarterAngle * sinQuarterAngle;
+        this.minInterval = minInterval;
+    }
+
+    /**
+     * Processes a published orientation
+     *
+     * @param timestamp The time-stamp of the sensor event of the orientation in nano-seconds
+     * @param quaternion The orientation (x, y, z, w)
+     * @return true, if the orientation passes and should be shown
+     */
+    public boolean onOrientation(long timestamp, float[] quaternion) {
+        orientationCount++;
+        if (hasPassed) {
+            if (timestamp - lastTimestamp < minInterval) {
+                return false;
+            }
+            double dot = 0;
+            for (int i = 0; i < 4; i++) {
+                dot += quaternion[i] * lastQuaternion[i];
+            }
+            // q and -q are the same orientation
+            double sign = dot < 0 ? -1 : 1;
+            double distanceSquared = 0;
+            for (int i = 0; i < 4; i++) {
+                double difference = quaternion[i] - sign * lastQuaternion[i];
+                distanceSquared += difference * difference;
+            }
+            if (distanceSquared <= minDistanceSquared) {
+                return false;
+            }
+        }
+        System.arraycopy(quaternion, 0, lastQuaternion, 0, lastQuaternion.length);
+        lastTimestamp = timestamp;
+        hasPassed = true;
+        passedCount++;
+        return true;
+    }
+
+    /**
+     * Forgets the last orientation, so the next one passes. The counts are kept.
+     */
+    public void reset() {
+        hasPassed = false;
+    }
+
+    /**
+     * @return The number of orientations that were processed
+     */
+    public int getOrientationCount() {
+        return orientationCount;
+    }
+
+    /**
+     * @return The number of orientations that passed
+     */
+    public int getPassedCount() {
+        return passedCount;
+    }
+}
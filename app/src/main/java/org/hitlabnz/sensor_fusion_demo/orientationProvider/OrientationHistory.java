@@ -0,0 +1,163 @@
+package org.hitlabnz.sensor_fusion_demo.orientationProvider;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.hitlabnz.sensor_fusion_demo.representation.CompactQuaternion;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+
+/**
+ * The last orientations of the fusion together with the time-stamps of the sensor events they were calculated from,
+ * so the orientation at the time of a camera frame or a touch event can be looked up afterwards.
+ *
+ * <p>
+ * The history is a ring buffer of fixed capacity: Once it is full, every new orientation replaces the oldest one. It
+ * is written by one thread (the sensor thread) and read by any number of threads, with the same sequence lock as the
+ * {@link OrientationSnapshot}: A reader searches the buffer and retries if an orientation was added in the meantime.
+ * Neither side blocks and no objects are allocated after construction, except for two temporary quaternions per
+ * reading thread.
+ * </p>
+ */
+public class OrientationHistory {
+
+    /**
+     * Number of values that describe the quaternion (x, y, z, w)
+     */
+    private static final int QUATERNION_SIZE = 4;
+
+    /**
+     * Capacity minus 1, the capacity is a power of two
+     */
+    private final int mask;
+
+    /**
+     * Sequence counter. Odd while an orientation is added, otherwise twice the number of orientations added so far.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The time-stamps and quaternions (as raw float bits), indexed by the number of the orientation modulo the capacity
+     */
+    private final AtomicLongArray timestamps;
+    private final AtomicIntegerArray quaternions;
+
+    /**
+     * The time-stamp of the last orientation that was added. Only touched by the writer.
+     */
+    private long newestTimestamp = Long.MIN_VALUE;
+
+    /**
+     * The two neighbouring orientations of a lookup, one pair per reading thread
+     */
+    private final ThreadLocal<CompactQuaternion[]> temporaryQuaternions = new ThreadLocal<CompactQuaternion[]>() {
+        @Override
+        protected CompactQuaternion[] initialValue() {
+            return new CompactQuaternion[] { new CompactQuaternion(), new CompactQuaternion() };
+        }
+    };
+
+    /**
+     * Initialises a new, empty history
+     *
+     * @param capacity The number of orientations that are kept, must be a power of two
+     */
+    public OrientationHistory(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+        }
+        mask = capacity - 1;
+        timestamps = new AtomicLongArray(capacity);
+        quaternions = new AtomicIntegerArray(capacity * QUATERNION_SIZE);
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds an orientation, replacing the oldest one if the history is full. Must only be called from one thread at a
+     * time (the sensor thread). Orientations that are older than the last one are ignored, so the history stays
+     * sorted by time.
+     *
+     * @param timestamp The time-stamp of the sensor event the orientation was calculated from, in nano-seconds
+     * @param quaternion The orientation as quaternion in the order x, y, z, w
+     */
+    public void add(long timestamp, float[] quaternion) {
+        if (timestamp < newestTimestamp) {
+            return;
+        }
+        newestTimestamp = timestamp;
+
+        long current = sequence.get();
+        sequence.set(current + 1);
+
+        int slot = (int) (current >>> 1) & mask;
+        timestamps.lazySet(slot, timestamp);
+        for (int i = 0; i < QUATERNION_SIZE; i++) {
+            quaternions.lazySet(slot * QUATERNION_SIZE + i, Float.floatToRawIntBits(quaternion[i]));
+        }
+
+        sequence.set(current + 2);
+    }
+
+    /**
+     * Get the orientation at the given time. Between two orientations of the history, the result is the spherical
+     * linear interpolation of the two. After the newest orientation, the result is the newest orientation.
+     *
+     * @param timestamp The time in nano-seconds, in the time base of the sensor events
+     * @param quaternion The quaternion that receives the orientation
+     * @return false, if the history is empty or the time is before its oldest orientation. The quaternion is not
+     *         changed then.
+     */
+    public boolean getQuaternionAt(long timestamp, Quaternion quaternion) {
+        CompactQuaternion[] temporary = temporaryQuaternions.get();
+        CompactQuaternion before = temporary[0];
+        CompactQuaternion after = temporary[1];
+        boolean found;
+        float ratio;
+        long sequenceBefore, sequenceAfter;
+        do {
+            sequenceBefore = sequence.get();
+            long count = sequenceBefore >>> 1;
+            long oldest = Math.max(0, count - getCapacity());
+            found = count > 0 && timestamp >= timestamps.get((int) oldest & mask);
+            ratio = 0;
+            if (found) {
+                // The newest orientation that is not after the requested time
+                long low = oldest;
+                long high = count - 1;
+                while (low < high) {
+                    long middle = (low + high + 1) >>> 1;
+                    if (timestamps.get((int) middle & mask) <= timestamp) {
+                        low = middle;
+                    } else {
+                        high = middle - 1;
+                    }
+                }
+                read((int) low & mask, before);
+                if (low < count - 1) {
+                    long timestampBefore = timestamps.get((int) low & mask);
+                    long timestampAfter = timestamps.get((int) (low + 1) & mask);
+                    read((int) (low + 1) & mask, after);
+                    ratio = (float) (timestamp - timestampBefore) / (timestampAfter - timestampBefore);
+                }
+            }
+            sequenceAfter = sequence.get();
+        } while ((sequenceBefore & 1) != 0 || sequenceBefore != sequenceAfter);
+
+        if (found) {
+            if (ratio > 0) {
+                before.slerp(after, before, ratio);
+            }
+            before.copyTo(quaternion);
+        }
+        return found;
+    }
+
+    private void read(int slot, CompactQuaternion output) {
+        int index = slot * QUATERNION_SIZE;
+        output.setXYZW(Float.intBitsToFloat(quaternions.get(index)), Float.intBitsToFloat(quaternions.get(index + 1)),
+                Float.intBitsToFloat(quaternions.get(index + 2)), Float.intBitsToFloat(quaternions.get(index + 3)));
+    }
+}
@@ -3,15 +3,27 @@
  */
 package org.hitlabnz.sensor_fusion_demo.orientationProvider;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.hitlabnz.sensor_fusion_demo.fusion.OrientationFusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.OrientationPredictor;
+import org.hitlabnz.sensor_fusion_demo.fusion.SensorMath;
+import org.hitlabnz.sensor_fusion_demo.fusion.StationaryDetector;
 import org.hitlabnz.sensor_fusion_demo.representation.MatrixF4x4;
 import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
 
 import android.hardware.Sensor;
+import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
 
 /**
  * Classes implementing this interface provide an orientation of the device
@@ -20,63 +32,268 @@ import android.hardware.SensorManager;
  * 
  * The orientation can be provided as rotation matrix or quaternion.
  * 
+ * The fusion itself is done by an {@link OrientationFusion} that does not depend on Android. The provider registers
+ * the sensors the fusion needs, forwards their events and publishes the result to the readers.
+ * 
+ * The sensor events are delivered to a thread of the provider, not to the main thread, so the fusion is not delayed
+ * by layout, touch handling or any other work of the user interface.
+ * 
+ * If the {@link SensorConfiguration} enables duty cycling, a {@link StationaryDetector} watches the gyroscope and the
+ * other sensors run at a low rate while the device lies still. The gyroscope keeps its rate to notice the next motion
+ * at once, but its events below the threshold are not fused and published then, unless an
+ * {@link AcquisitionScheduler} takes samples.
+ * 
+ * Besides the current orientation, the provider can look up past orientations ({@link #getQuaternionAt}) and, once
+ * enabled with {@link #setMaxPredictionHorizon}, predict future ones from the last angular velocity of the gyroscope
+ * ({@link #getPredictedQuaternion}).
+ * 
  * @author Alexander Pacha
  * 
  */
 public abstract class OrientationProvider implements SensorEventListener {
+
     /**
-     * Sync-token for syncing read/write to sensor-data from sensor manager and
-     * fusion algorithm
+     * Is notified when the orientation changed noticeably, e.g. to request a new frame
      */
-    protected final Object synchronizationToken = new Object();
+    public interface OnOrientationChangedListener {
+        /**
+         * Called on the sensor thread after a new orientation was published
+         * 
+         * @param provider The provider, whose orientation changed
+         */
+        void onOrientationChanged(OrientationProvider provider);
+    }
 
     /**
-     * The list of sensors used by this provider
+     * The list of sensors used by this provider, only the ones the device has
      */
     protected List<Sensor> sensorList = new ArrayList<Sensor>();
 
     /**
-     * The matrix that holds the current rotation
+     * The fusion that calculates the current rotation. Only touched by the sensor thread, readers get the published
+     * copy from {@link #orientationSnapshot}.
+     */
+    protected final OrientationFusion orientationFusion;
+
+    /**
+     * Lock-free copy of the current orientation that is handed over to the readers (e.g. the renderer)
+     */
+    private final OrientationSnapshot orientationSnapshot = new OrientationSnapshot();
+
+    /**
+     * Number of orientations kept in the {@link #orientationHistory}: about 10 seconds at the 20 ms of
+     * SENSOR_DELAY_GAME, but only about 2.5 seconds with the gyroscope at its fastest rate (about 200 Hz on most
+     * devices). Samples of the {@link AcquisitionScheduler} that are older than that are counted as missed.
+     */
+    private static final int HISTORY_CAPACITY = 512;
+
+    /**
+     * The last orientations with the time-stamps of their sensor events
+     */
+    private final OrientationHistory orientationHistory = new OrientationHistory(HISTORY_CAPACITY);
+
+    /**
+     * Temporary matrix for the calculation of the euler angles, one per reading thread
+     */
+    private final ThreadLocal<float[]> eulerAnglesMatrix = new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+            return new float[16];
+        }
+    };
+
+    /**
+     * The last angular velocity of the gyroscope and the time-stamp of the current event, published with the
+     * orientation. Only touched by the sensor thread.
      */
-    protected final MatrixF4x4 currentOrientationRotationMatrix;
+    private final float[] angularVelocity = new float[3];
+    private long eventTimestamp;
 
     /**
-     * The quaternion that holds the current rotation
+     * The longest time in nano-seconds an orientation is extrapolated, 0 disables the prediction
      */
-    protected final Quaternion currentOrientationQuaternion;
+    private volatile long maxPredictionHorizon = 0;
+
+    /**
+     * Temporary quaternion and angular velocity for the prediction, one pair per reading thread
+     */
+    private final ThreadLocal<float[][]> predictionValues = new ThreadLocal<float[][]>() {
+        @Override
+        protected float[][] initialValue() {
+            return new float[][] { new float[4], new float[3] };
+        }
+    };
+
+    /**
+     * The listener for noticeable changes of the orientation and the filter that decides what is noticeable
+     */
+    private volatile OnOrientationChangedListener orientationChangedListener;
+    private volatile OrientationChangeFilter orientationChangeFilter;
+
+    /**
+     * Takes samples of the orientation history at a fixed rate, e.g. for scanning
+     */
+    private volatile AcquisitionScheduler acquisitionScheduler;
+
+    /**
+     * Counts at the time the provider was started, for the statistics of the session
+     */
+    private long startTime;
+    private long startPublishCount;
+    private int startChangeCount;
 
     /**
      * The sensor manager for accessing android sensors
      */
     protected SensorManager sensorManager;
 
+    /**
+     * Sampling periods and batching of the sensors
+     */
+    private SensorConfiguration sensorConfiguration = new SensorConfiguration();
+
+    /**
+     * The thread that receives the sensor events and runs the fusion. Only exists while the provider is started.
+     */
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
+
+    /**
+     * Detects whether the device lies still, only used with duty cycling. Only touched by the sensor thread.
+     */
+    private volatile StationaryDetector stationaryDetector;
+
+    /**
+     * Set on the sensor thread when the provider stops, so a late change of the stationary state does not register
+     * the sensors again. Cleared by start() before the sensor thread exists.
+     */
+    private boolean stopped;
+
+    /**
+     * The last gyroscope event that was not fused while the device lay still, its time-stamp is 0 if there is none.
+     * Only touched by the sensor thread.
+     */
+    private long skippedGyroscopeTimestamp;
+    private final float[] skippedGyroscopeValues = new float[3];
+
+    /**
+     * Time between the measurement of a sensor event and the publication of the orientation it changed, in
+     * nano-seconds. Written by the sensor thread only, read by any thread.
+     */
+    private volatile long publishLatencySum;
+    private volatile long publishLatencyMax;
+    private volatile int publishCount;
+
     /**
      * Initialises a new OrientationProvider
      * 
      * @param sensorManager
      *            The android sensor manager
+     * @param orientationFusion
+     *            The fusion that calculates the orientation from the sensor events
      */
-    public OrientationProvider(SensorManager sensorManager) {
+    public OrientationProvider(SensorManager sensorManager, OrientationFusion orientationFusion) {
         this.sensorManager = sensorManager;
+        this.orientationFusion = orientationFusion;
+
+        for (int sensorType : orientationFusion.getSensorTypes()) {
+            // A sensor the device does not have is left out, the fusion then never receives its events
+            Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+            if (sensor != null) {
+                sensorList.add(sensor);
+            } else {
+                Log.w("OrientationProvider", "The device has no sensor of type " + sensorType);
+            }
+        }
+    }
 
-        // Initialise with identity
-        currentOrientationRotationMatrix = new MatrixF4x4();
+    /**
+     * Sets the sampling periods and the batching of the sensors. Takes effect when the provider is started the next
+     * time.
+     * 
+     * @param sensorConfiguration The new configuration
+     */
+    public void setSensorConfiguration(SensorConfiguration sensorConfiguration) {
+        this.sensorConfiguration = sensorConfiguration;
+    }
 
-        // Initialise with identity
-        currentOrientationQuaternion = new Quaternion();
+    public SensorConfiguration getSensorConfiguration() {
+        return sensorConfiguration;
     }
 
     /**
      * Starts the sensor fusion (e.g. when resuming the activity)
      */
     public void start() {
-        // enable our sensor when the activity is resumed, ask for
-        // 10 ms updates.
+        if (sensorThread != null) {
+            return;
+        }
+        publishLatencySum = 0;
+        publishLatencyMax = 0;
+        publishCount = 0;
+        angularVelocity[0] = angularVelocity[1] = angularVelocity[2] = 0;
+        startTime = SystemClock.elapsedRealtime();
+        startPublishCount = orientationSnapshot.getPublishCount();
+        OrientationChangeFilter filter = orientationChangeFilter;
+        if (filter != null) {
+            // The first orientation of the session is always shown
+            filter.reset();
+            startChangeCount = filter.getPassedCount();
+        }
+
+        stopped = false;
+        skippedGyroscopeTimestamp = 0;
+
+        // The priority of the display thread, the orientation is needed for every frame
+        sensorThread = new HandlerThread("OrientationProvider", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+
+        // Every start begins with a new detector in the moving state and the configured sampling periods
+        stationaryDetector = null;
+        if (sensorConfiguration.isDutyCyclingEnabled()) {
+            for (Sensor sensor : sensorList) {
+                if (sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+                    stationaryDetector = new StationaryDetector(
+                            sensorConfiguration.getStationaryQuietPeriod() * 1000L);
+                }
+            }
+        }
         for (Sensor sensor : sensorList) {
-            // enable our sensors when the activity is resumed, ask for
-            // 20 ms updates (Sensor_delay_game)
-            sensorManager.registerListener(this, sensor,
-                    SensorManager.SENSOR_DELAY_GAME);
+            registerSensor(sensor, sensorConfiguration.getSamplingPeriod(sensor.getType()));
+        }
+    }
+
+    private void registerSensor(Sensor sensor, int samplingPeriod) {
+        int maxReportLatency = sensorConfiguration.getMaxReportLatency();
+        if (maxReportLatency > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            sensorManager.registerListener(this, sensor, samplingPeriod, maxReportLatency, sensorHandler);
+        } else {
+            sensorManager.registerListener(this, sensor, samplingPeriod, sensorHandler);
+        }
+    }
+
+    /**
+     * Registers the sensors other than the gyroscope again, with the stationary sampling period or the configured
+     * ones. The gyroscope keeps running at its configured rate, so motion is detected and integrated without delay.
+     */
+    private void registerSlowedSensors(boolean stationary) {
+        if (stopped) {
+            return;
+        }
+        for (Sensor sensor : sensorList) {
+            if (sensor.getType() != Sensor.TYPE_GYROSCOPE) {
+                // A listener that is already registered for a sensor can not change its rate
+                sensorManager.unregisterListener(this, sensor);
+                registerSensor(sensor, stationary ? sensorConfiguration.getStationarySamplingPeriod()
+                        : sensorConfiguration.getSamplingPeriod(sensor.getType()));
+            }
+        }
+    }
+
+    private void unregisterSensors() {
+        for (Sensor sensor : sensorList) {
+            sensorManager.unregisterListener(this, sensor);
         }
     }
 
@@ -85,9 +302,147 @@ public abstract class OrientationProvider implements SensorEventListener {
      */
     public void stop() {
         // make sure to turn our sensors off when the activity is paused
-        for (Sensor sensor : sensorList) {
-            sensorManager.unregisterListener(this, sensor);
+        if (sensorThread == null) {
+            return;
+        }
+        // The sensors are unregistered on the sensor thread, after the events that are already queued. One of them may
+        // change the stationary state and register the sensors again, the flag prevents that afterwards.
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopped = true;
+                unregisterSensors();
+            }
+        });
+
+        // Let the thread finish the events that are already queued, so the fusion is never used by two threads when
+        // the provider is started again
+        sensorThread.quitSafely();
+        try {
+            sensorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sensorThread = null;
+        sensorHandler = null;
+
+        if (stationaryDetector != null) {
+            Log.i("OrientationProvider", "Duty cycling: " + getStationaryTransitionCount() + " times stationary, "
+                    + getMotionTransitionCount() + " times moving again");
+        }
+        float minutes = (SystemClock.elapsedRealtime() - startTime) / 60000.0f;
+        OrientationChangeFilter filter = orientationChangeFilter;
+        if (minutes > 0 && filter != null) {
+            Log.i("OrientationProvider", "Per minute: "
+                    + Math.round((orientationSnapshot.getPublishCount() - startPublishCount) / minutes)
+                    + " orientations, " + Math.round((filter.getPassedCount() - startChangeCount) / minutes)
+                    + " change notifications");
         }
+        if (publishCount > 0) {
+            Log.i("OrientationProvider", "Event to publish latency: average " + getAveragePublishLatency() / 1000
+                    + " us, maximum " + getMaxPublishLatency() / 1000 + " us, " + publishCount + " events");
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        StationaryDetector detector = stationaryDetector;
+        if (detector != null && event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+            if (detector.onGyroscopeEvent(event.timestamp, event.values)) {
+                registerSlowedSensors(detector.isStationary());
+            }
+            if (detector.isStationary() && acquisitionScheduler == null) {
+                // The orientation does not change, the event only had to be checked for motion
+                skippedGyroscopeTimestamp = event.timestamp;
+                System.arraycopy(event.values, 0, skippedGyroscopeValues, 0, skippedGyroscopeValues.length);
+                return;
+            }
+            if (skippedGyroscopeTimestamp != 0) {
+                // The fusion integrates from its last gyroscope event, which is from before the device lay still.
+                // The last skipped event brings it up to date without applying the new angular velocity to the
+                // whole time.
+                orientationFusion.onSensorEvent(Sensor.TYPE_GYROSCOPE, skippedGyroscopeTimestamp,
+                        skippedGyroscopeValues);
+                skippedGyroscopeTimestamp = 0;
+            }
+        }
+        if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+            System.arraycopy(event.values, 0, angularVelocity, 0, angularVelocity.length);
+        }
+        if (orientationFusion.onSensorEvent(event.sensor.getType(), event.timestamp, event.values)) {
+            eventTimestamp = event.timestamp;
+            publishOrientation();
+            orientationHistory.add(event.timestamp, orientationFusion.getQuaternion().array());
+            recordPublishLatency(event.timestamp);
+            AcquisitionScheduler scheduler = acquisitionScheduler;
+            if (scheduler != null) {
+                scheduler.onOrientation(event.timestamp, orientationHistory);
+            }
+            OnOrientationChangedListener listener = orientationChangedListener;
+            float[] quaternion = orientationFusion.getQuaternion().array();
+            if (listener != null && orientationChangeFilter.onOrientation(event.timestamp, quaternion)) {
+                listener.onOrientationChanged(this);
+            }
+        }
+    }
+
+    /**
+     * @return true, if duty cycling is enabled and the sensors other than the gyroscope currently run at the
+     *         stationary rate, while the events of the gyroscope are not fused
+     */
+    public boolean isStationary() {
+        StationaryDetector detector = stationaryDetector;
+        return detector != null && detector.isStationary();
+    }
+
+    /**
+     * @return How often the sensors were slowed down because the device lay still, since the provider was started
+     */
+    public int getStationaryTransitionCount() {
+        StationaryDetector detector = stationaryDetector;
+        return detector == null ? 0 : detector.getStationaryTransitionCount();
+    }
+
+    /**
+     * @return How often the sensors were brought back to their configured rate, since the provider was started
+     */
+    public int getMotionTransitionCount() {
+        StationaryDetector detector = stationaryDetector;
+        return detector == null ? 0 : detector.getMotionTransitionCount();
+    }
+
+    /**
+     * The event time-stamps are based on the elapsed real-time on most devices. Other time bases give no meaningful
+     * latency, these events are ignored.
+     */
+    private void recordPublishLatency(long eventTimestamp) {
+        long latency = SystemClock.elapsedRealtimeNanos() - eventTimestamp;
+        if (latency >= 0 && latency < 1000000000L) {
+            publishLatencySum += latency;
+            publishLatencyMax = Math.max(publishLatencyMax, latency);
+            publishCount++;
+        }
+    }
+
+    /**
+     * Get the average time between the measurement of a sensor event and the publication of the resulting
+     * orientation since the provider was started
+     * 
+     * @return The latency in nano-seconds, 0 if nothing was published yet
+     */
+    public long getAveragePublishLatency() {
+        int count = publishCount;
+        return count == 0 ? 0 : publishLatencySum / count;
+    }
+
+    /**
+     * Get the maximum time between the measurement of a sensor event and the publication of the resulting orientation
+     * since the provider was started
+     * 
+     * @return The latency in nano-seconds
+     */
+    public long getMaxPublishLatency() {
+        return publishLatencyMax;
     }
 
     @Override
@@ -95,30 +450,154 @@ public abstract class OrientationProvider implements SensorEventListener {
         // Not doing anything
     }
 
+    /**
+     * Publishes the current orientation of the fusion to the readers. Called after every event that updated the
+     * orientation. This never blocks, regardless of how many threads are reading at the same time.
+     */
+    protected void publishOrientation() {
+        orientationSnapshot.publish(orientationFusion.getQuaternion().array(),
+                orientationFusion.getRotationMatrix().matrix, eventTimestamp, angularVelocity);
+    }
+
+    /**
+     * Sets the listener that is notified when the orientation changed noticeably. Small changes are only notified
+     * once they add up to the minimum angle, and the notifications are at least the minimum interval apart.
+     * 
+     * @param listener The listener, which is called on the sensor thread, or null to remove it
+     * @param minAngle The minimum rotation between two notifications in radians
+     * @param minInterval The minimum time between two notifications in nano-seconds, e.g. the duration of a frame
+     */
+    public void setOnOrientationChangedListener(OnOrientationChangedListener listener, float minAngle,
+            long minInterval) {
+        // The filter first, the sensor thread reads the listener first
+        orientationChangedListener = null;
+        if (listener != null) {
+            OrientationChangeFilter filter = new OrientationChangeFilter(minAngle, minInterval);
+            // The statistics of the session count the notifications of the new filter
+            startChangeCount = filter.getPassedCount();
+            orientationChangeFilter = filter;
+            orientationChangedListener = listener;
+        }
+    }
+
+    /**
+     * Sets the scheduler that takes samples of the orientation at a fixed rate. The scheduler is driven by the
+     * time-stamps of the sensor events and is called on the sensor thread, independent of any rendering.
+     * 
+     * @param scheduler The scheduler, or null to stop taking samples
+     */
+    public void setAcquisitionScheduler(AcquisitionScheduler scheduler) {
+        acquisitionScheduler = scheduler;
+    }
+
+    /**
+     * Enables the prediction of the orientation. A longer horizon hides more latency, but overshoots more when the
+     * device stops rotating. Providers without a gyroscope always predict the current orientation.
+     * 
+     * @param maxPredictionHorizon The longest time in nano-seconds an orientation is extrapolated beyond the last
+     *            sensor event, 0 disables the prediction
+     */
+    public void setMaxPredictionHorizon(long maxPredictionHorizon) {
+        this.maxPredictionHorizon = maxPredictionHorizon;
+    }
+
+    public long getMaxPredictionHorizon() {
+        return maxPredictionHorizon;
+    }
+
+    /**
+     * Get the predicted rotation of the device at the given time, e.g. the time the next frame will be shown, by
+     * extrapolating the current orientation with the last angular velocity of the gyroscope. Without prediction
+     * enabled, this is the current rotation.
+     * 
+     * @param targetTimestamp The time in nano-seconds, in the time base of the sensor events (SensorEvent.timestamp,
+     *            SystemClock.elapsedRealtimeNanos() on most devices)
+     * @param quaternion The quaternion that receives the rotation
+     */
+    public void getPredictedQuaternion(long targetTimestamp, Quaternion quaternion) {
+        float[] predicted = predict(targetTimestamp);
+        quaternion.setXYZW(predicted[0], predicted[1], predicted[2], predicted[3]);
+    }
+
+    /**
+     * Get the predicted rotation of the device at the given time as rotation matrix, see
+     * {@link #getPredictedQuaternion(long, Quaternion)}
+     */
+    public void getPredictedRotationMatrix(long targetTimestamp, MatrixF4x4 matrix) {
+        getPredictedRotationMatrix(targetTimestamp, matrix.matrix);
+    }
+
+    /**
+     * Get the predicted rotation of the device at the given time as rotation matrix, see
+     * {@link #getPredictedQuaternion(long, Quaternion)}
+     * 
+     * @param matrix An array of at least 16 floats that receives the column major 4x4 matrix
+     */
+    public void getPredictedRotationMatrix(long targetTimestamp, float[] matrix) {
+        float[] predicted = predict(targetTimestamp);
+        // The matrix is calculated from the quaternion with the original w, like in the fusions
+        predicted[3] = -predicted[3];
+        SensorMath.getRotationMatrixFromVector(matrix, predicted);
+    }
+
+    /**
+     * @return The predicted quaternion in a temporary array of the calling thread
+     */
+    private float[] predict(long targetTimestamp) {
+        float[][] values = predictionValues.get();
+        float[] quaternion = values[0];
+        float[] velocity = values[1];
+        long timestamp = orientationSnapshot.readMotion(quaternion, velocity);
+        long horizon = Math.max(0, Math.min(targetTimestamp - timestamp, maxPredictionHorizon));
+        if (horizon > 0) {
+            OrientationPredictor.predict(quaternion, velocity, horizon * 1e-9f, quaternion);
+        }
+        return quaternion;
+    }
+
     /**
      * Get the current rotation of the device in the rotation matrix format (4x4 matrix)
      */
     public void getRotationMatrix(MatrixF4x4 matrix) {
-        synchronized (synchronizationToken) {
-            matrix.set(currentOrientationRotationMatrix);
-        }
+        orientationSnapshot.readRotationMatrix(matrix);
+    }
+
+    /**
+     * Get the current rotation of the device in the rotation matrix format (4x4 matrix, column major as expected by
+     * OpenGL), written directly into the given buffer
+     * 
+     * @param matrix A buffer of at least 16 floats, its position is not changed
+     */
+    public void getRotationMatrix(FloatBuffer matrix) {
+        orientationSnapshot.readRotationMatrix(matrix);
     }
 
     /**
      * Get the current rotation of the device in the quaternion format (vector4f)
      */
     public void getQuaternion(Quaternion quaternion) {
-        synchronized (synchronizationToken) {
-            quaternion.set(currentOrientationQuaternion);
-        }
+        orientationSnapshot.readQuaternion(quaternion);
+    }
+
+    /**
+     * Get the rotation of the device at the given time, e.g. the time a camera frame was captured. Between two sensor
+     * events, the rotation is interpolated.
+     * 
+     * @param timestamp The time in nano-seconds, in the time base of the sensor events (SensorEvent.timestamp)
+     * @param quaternion The quaternion that receives the rotation
+     * @return false, if the time is before the oldest orientation that is still kept. After the newest orientation,
+     *         the newest orientation is returned.
+     */
+    public boolean getQuaternionAt(long timestamp, Quaternion quaternion) {
+        return orientationHistory.getQuaternionAt(timestamp, quaternion);
     }
 
     /**
      * Get the current rotation of the device in the Euler angles
      */
     public void getEulerAngles(float angles[]) {
-        synchronized (synchronizationToken) {
-            SensorManager.getOrientation(currentOrientationRotationMatrix.matrix, angles);
-        }
+        float[] matrix = eulerAnglesMatrix.get();
+        orientationSnapshot.readRotationMatrix(matrix);
+        SensorMath.getOrientation(matrix, angles);
     }
 }
@@ -0,0 +1,214 @@
+package org.hitlabnz.sensor_fusion_demo.orientationProvider;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hitlabnz.sensor_fusion_demo.representation.MatrixF4x4;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+
+/**
+ * Lock-free publication of the fused orientation from the sensor thread to any number of reader threads (e.g. the GL
+ * thread of the CubeRenderer).
+ *
+ * <p>
+ * The snapshot is a sequence lock: The single writer makes the sequence odd, stores the quaternion and the rotation
+ * matrix and makes the sequence even again. A reader copies the values and retries if the sequence changed in the
+ * meantime or was odd when it started. Neither side ever blocks the other and no objects are allocated after
+ * construction.
+ * </p>
+ *
+ * <p>
+ * The values are kept as raw float bits inside an {@link AtomicIntegerArray}, so every store is a release and every
+ * load an acquire. This is what makes the retry check sound under the Java memory model without explicit fences,
+ * which are not available on older Android versions.
+ * </p>
+ */
+public class OrientationSnapshot {
+
+    /**
+     * Number of values that describe the quaternion (x, y, z, w)
+     */
+    private static final int QUATERNION_SIZE = 4;
+
+    /**
+     * Number of values that describe the 4x4 rotation matrix
+     */
+    private static final int MATRIX_SIZE = 16;
+
+    /**
+     * Number of values that describe the angular velocity (x, y, z)
+     */
+    private static final int ANGULAR_VELOCITY_SIZE = 3;
+
+    /**
+     * Angular velocity of a snapshot that is published without one
+     */
+    private static final float[] NO_ROTATION = new float[ANGULAR_VELOCITY_SIZE];
+
+    /**
+     * Sequence counter. Odd while a write is in progress, even when the values are consistent.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The published values: The quaternion first, followed by the rotation matrix and the angular velocity.
+     */
+    private final AtomicIntegerArray values = new AtomicIntegerArray(QUATERNION_SIZE + MATRIX_SIZE
+            + ANGULAR_VELOCITY_SIZE);
+
+    /**
+     * The time-stamp of the sensor event the published orientation was calculated from
+     */
+    private final AtomicLong timestamp = new AtomicLong();
+
+    /**
+     * Initialises a new snapshot with the identity orientation
+     */
+    public OrientationSnapshot() {
+        values.set(3, Float.floatToRawIntBits(1));
+        for (int i = 0; i < 4; i++) {
+            values.set(QUATERNION_SIZE + i * 5, Float.floatToRawIntBits(1));
+        }
+    }
+
+    /**
+     * Publishes a new orientation. Must only be called from one thread at a time (the sensor thread).
+     *
+     * @param quaternion The orientation as quaternion
+     * @param matrix The same orientation as 4x4 rotation matrix
+     */
+    public void publish(Quaternion quaternion, MatrixF4x4 matrix) {
+        publish(quaternion.array(), matrix.matrix);
+    }
+
+    /**
+     * Publishes a new orientation. Must only be called from one thread at a time (the sensor thread).
+     *
+     * @param quaternion The orientation as quaternion in the order x, y, z, w
+     * @param matrix The same orientation as 4x4 rotation matrix
+     */
+    public void publish(float[] quaternion, float[] matrix) {
+        publish(quaternion, matrix, 0, NO_ROTATION);
+    }
+
+    /**
+     * Publishes a new orientation together with the motion at that time, which allows to predict the orientation.
+     * Must only be called from one thread at a time (the sensor thread).
+     *
+     * @param quaternion The orientation as quaternion in the order x, y, z, w
+     * @param matrix The same orientation as 4x4 rotation matrix
+     * @param eventTimestamp The time-stamp of the sensor event the orientation was calculated from, in nano-seconds
+     * @param angularVelocity The last angular velocity of the device around x, y and z in rad/s
+     */
+    public void publish(float[] quaternion, float[] matrix, long eventTimestamp, float[] angularVelocity) {
+        long current = sequence.get();
+        sequence.set(current + 1);
+
+        for (int i = 0; i < QUATERNION_SIZE; i++) {
+            values.lazySet(i, Float.floatToRawIntBits(quaternion[i]));
+        }
+        for (int i = 0; i < MATRIX_SIZE; i++) {
+            values.lazySet(QUATERNION_SIZE + i, Float.floatToRawIntBits(matrix[i]));
+        }
+        for (int i = 0; i < ANGULAR_VELOCITY_SIZE; i++) {
+            values.lazySet(QUATERNION_SIZE + MATRIX_SIZE + i, Float.floatToRawIntBits(angularVelocity[i]));
+        }
+        timestamp.lazySet(eventTimestamp);
+
+        sequence.set(current + 2);
+    }
+
+    /**
+     * Copies the last published quaternion into the given quaternion
+     *
+     * @param quaternion The quaternion that receives the current orientation
+     */
+    public void readQuaternion(Quaternion quaternion) {
+        float x, y, z, w;
+        long before, after;
+        do {
+            before = sequence.get();
+            x = Float.intBitsToFloat(values.get(0));
+            y = Float.intBitsToFloat(values.get(1));
+            z = Float.intBitsToFloat(values.get(2));
+            w = Float.intBitsToFloat(values.get(3));
+            after = sequence.get();
+        } while ((before & 1) != 0 || before != after);
+
+        quaternion.setXYZW(x, y, z, w);
+    }
+
+    /**
+     * Copies the last published rotation matrix into the given matrix
+     *
+     * @param matrix The matrix that receives the current orientation
+     */
+    public void readRotationMatrix(MatrixF4x4 matrix) {
+        readRotationMatrix(matrix.matrix);
+    }
+
+    /**
+     * Copies the last published rotation matrix into the given array
+     *
+     * @param matrix An array of at least 16 floats that receives the current orientation
+     */
+    public void readRotationMatrix(float[] matrix) {
+        long before, after;
+        do {
+            before = sequence.get();
+            for (int i = 0; i < MATRIX_SIZE; i++) {
+                matrix[i] = Float.intBitsToFloat(values.get(QUATERNION_SIZE + i));
+            }
+            after = sequence.get();
+        } while ((before & 1) != 0 || before != after);
+    }
+
+    /**
+     * Copies the last published rotation matrix into the given buffer, e.g. a direct buffer that is handed to OpenGL
+     * without another copy. The position of the buffer is not changed.
+     *
+     * @param matrix A buffer of at least 16 floats that receives the current orientation
+     */
+    public void readRotationMatrix(FloatBuffer matrix) {
+        long before, after;
+        do {
+            before = sequence.get();
+            for (int i = 0; i < MATRIX_SIZE; i++) {
+                matrix.put(i, Float.intBitsToFloat(values.get(QUATERNION_SIZE + i)));
+            }
+            after = sequence.get();
+        } while ((before & 1) != 0 || before != after);
+    }
+
+    /**
+     * Copies the last published quaternion and the angular velocity at its time
+     *
+     * @param quaternion An array of at least 4 floats that receives the current orientation (x, y, z, w)
+     * @param angularVelocity An array of at least 3 floats that receives the angular velocity in rad/s
+     * @return The time-stamp of the sensor event the orientation was calculated from, in nano-seconds
+     */
+    public long readMotion(float[] quaternion, float[] angularVelocity) {
+        long eventTimestamp;
+        long before, after;
+        do {
+            before = sequence.get();
+            for (int i = 0; i < QUATERNION_SIZE; i++) {
+                quaternion[i] = Float.intBitsToFloat(values.get(i));
+            }
+            for (int i = 0; i < ANGULAR_VELOCITY_SIZE; i++) {
+                angularVelocity[i] = Float.intBitsToFloat(values.get(QUATERNION_SIZE + MATRIX_SIZE + i));
+            }
+            eventTimestamp = timestamp.get();
+            after = sequence.get();
+        } while ((before & 1) != 0 || before != after);
+        return eventTimestamp;
+    }
+
+    /**
+     * @return The number of orientations published so far
+     */
+    public long getPublishCount() {
+        return sequence.get() >>> 1;
+    }
+}
@@ -0,0 +1,109 @@
+package org.hitlabnz.sensor_fusion_demo.orientationProvider;
+
+import android.util.SparseIntArray;
+
+/**
+ * How an {@link OrientationProvider} registers its sensors: the sampling period of each sensor and the maximum report
+ * latency for hardware batching.
+ * 
+ * With a report latency above 0, the sensor hub collects the events in its FIFO and delivers them in bursts, so the
+ * CPU wakes up less often. The fusions only use the time-stamps of the events, so a burst is fused like the same
+ * events delivered one by one. Batching needs Android 4.4; on older versions the latency is ignored.
+ * 
+ * With duty cycling enabled, the provider slows down the accelerometer, the magnetometer and any other sensor but the
+ * gyroscope while the gyroscope shows that the device is lying still, and restores the configured periods with the
+ * first gyroscope event that shows motion. The gyroscope keeps its configured period, so that event arrives without
+ * delay and the fusion integrates the motion from its start.
+ * 
+ * The configuration is read when the provider is started.
+ */
+public class SensorConfiguration {
+
+    /**
+     * Sampling period of SensorManager.SENSOR_DELAY_GAME in micro-seconds, the default for all sensors
+     */
+    public static final int SENSOR_DELAY_GAME = 20000;
+
+    /**
+     * Sampling period that asks for the maximum rate of the sensor
+     */
+    public static final int SENSOR_DELAY_FASTEST = 0;
+
+    private int defaultSamplingPeriod = SENSOR_DELAY_GAME;
+    private final SparseIntArray samplingPeriods = new SparseIntArray();
+    private int maxReportLatency = 0;
+    private int stationaryQuietPeriod = 0;
+    private int stationarySamplingPeriod = 200000;
+
+    /**
+     * Sets the sampling period of all sensors that have no sampling period of their own
+     * 
+     * @param samplingPeriod The period in micro-seconds
+     */
+    public void setDefaultSamplingPeriod(int samplingPeriod) {
+        this.defaultSamplingPeriod = samplingPeriod;
+    }
+
+    /**
+     * Sets the sampling period of one type of sensor
+     * 
+     * @param sensorType The type of the sensor, e.g. Sensor.TYPE_GYROSCOPE
+     * @param samplingPeriod The period in micro-seconds, e.g. {@link #SENSOR_DELAY_FASTEST}
+     */
+    public void setSamplingPeriod(int sensorType, int samplingPeriod) {
+        samplingPeriods.put(sensorType, samplingPeriod);
+    }
+
+    /**
+     * @param sensorType The type of the sensor
+     * @return The sampling period of the sensor in micro-seconds
+     */
+    public int getSamplingPeriod(int sensorType) {
+        return samplingPeriods.get(sensorType, defaultSamplingPeriod);
+    }
+
+    /**
+     * Sets the maximum time the events may be held back by the hardware, 0 disables batching
+     * 
+     * @param maxReportLatency The latency in micro-seconds
+     */
+    public void setMaxReportLatency(int maxReportLatency) {
+        this.maxReportLatency = maxReportLatency;
+    }
+
+    public int getMaxReportLatency() {
+        return maxReportLatency;
+    }
+
+    /**
+     * Enables the duty cycling: After the given time without motion, all sensors but the gyroscope are registered with
+     * the stationary sampling period, and the gyroscope events are only checked for motion instead of being fused.
+     * Only has an effect on providers that use the gyroscope.
+     * 
+     * @param quietPeriod The time without motion in micro-seconds, 0 disables the duty cycling
+     */
+    public void setStationaryQuietPeriod(int quietPeriod) {
+        this.stationaryQuietPeriod = quietPeriod;
+    }
+
+    public int getStationaryQuietPeriod() {
+        return stationaryQuietPeriod;
+    }
+
+    /**
+     * Sets the sampling period of the sensors other than the gyroscope while the device is stationary
+     * 
+     * @param samplingPeriod The period in micro-seconds
+     */
+    public void setStationarySamplingPeriod(int samplingPeriod) {
+        this.stationarySamplingPeriod = samplingPeriod;
+    }
+
+    public int getStationarySamplingPeriod() {
+        return stationarySamplingPeriod;
+    }
+
+    public boolean isDutyCyclingEnabled() {
+        return stationaryQuietPeriod > 0;
+    }
+}
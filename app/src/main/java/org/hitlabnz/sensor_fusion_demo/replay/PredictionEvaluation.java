@@ -0,0 +1,249 @@
+package org.hitlabnz.sensor_fusion_demo.replay;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.OrientationFusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.OrientationPredictor;
+import org.hitlabnz.sensor_fusion_demo.fusion.SensorType;
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationHistory;
+import org.hitlabnz.sensor_fusion_demo.representation.MathBackend;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.hitlabnz.sensor_fusion_demo.representation.QuaternionArray;
+
+/**
+ * Measures how well the {@link OrientationPredictor} predicts the orientation of a fusion on a recorded session.
+ *
+ * <p>
+ * The recording is replayed into the fusion and every orientation is kept together with the last angular velocity
+ * of the gyroscope. For each orientation and horizon, the prediction is compared with the orientation the fusion
+ * actually had at that time (interpolated between its neighbouring events), and so is the orientation without
+ * prediction, which is what a renderer shows that only reads the last orientation. The errors are angles in degrees.
+ * The rotations between the orientations are calculated in batches with a {@link MathBackend}, the vector one if it
+ * is on the class path.
+ * </p>
+ *
+ * <pre>
+ * ./gradlew :benchmark:predictionEvaluation -Pargs="session.txt CalibratedGyroscope 10 20 50 100"
+ * </pre>
+ */
+public class PredictionEvaluation {
+
+    /**
+     * The errors of one horizon
+     */
+    public static class Result {
+        /**
+         * The horizon in nano-seconds
+         */
+        public final long horizon;
+
+        /**
+         * The number of orientations that were predicted
+         */
+        public final int samples;
+
+        /**
+         * Mean and maximum error of the last orientation, without prediction, in degrees
+         */
+        public final double meanHeldError;
+        public final double maxHeldError;
+
+        /**
+         * Mean and maximum error of the predicted orientation in degrees
+         */
+        public final double meanPredictedError;
+        public final double maxPredictedError;
+
+        Result(long horizon, int samples, double meanHeldError, double maxHeldError, double meanPredictedError,
+                double maxPredictedError) {
+            this.horizon = horizon;
+            this.samples = samples;
+            this.meanHeldError = meanHeldError;
+            this.maxHeldError = maxHeldError;
+            this.meanPredictedError = meanPredictedError;
+            this.maxPredictedError = maxPredictedError;
+        }
+    }
+
+    private final SensorRecording recording;
+
+    /**
+     * The orientations of the last replay: time-stamps, quaternions (x, y, z, w) and angular velocities (x, y, z)
+     */
+    private int size;
+    private long[] timestamps = new long[1024];
+    private float[] quaternions = new float[4 * 1024];
+    private float[] angularVelocities = new float[3 * 1024];
+
+    /**
+     * Initialises a new PredictionEvaluation
+     *
+     * @param recording The recorded session, should contain gyroscope events
+     */
+    public PredictionEvaluation(SensorRecording recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Replays the recording into the fusion and measures the prediction error for each horizon, with the
+     * {@link MathBackend#getDefault() default backend}
+     *
+     * @param fusion The fusion, should be freshly created
+     * @param horizons The horizons in nano-seconds
+     * @return One result per horizon
+     */
+    public Result[] evaluate(OrientationFusion fusion, long[] horizons) {
+        return evaluate(fusion, horizons, MathBackend.getDefault());
+    }
+
+    /**
+     * Replays the recording into the fusion and measures the prediction error for each horizon
+     *
+     * @param fusion The fusion, should be freshly created
+     * @param horizons The horizons in nano-seconds
+     * @param backend Calculates the rotations between the orientations and the actual ones
+     * @return One result per horizon
+     */
+    public Result[] evaluate(OrientationFusion fusion, long[] horizons, MathBackend backend) {
+        record(fusion);
+
+        // The orientations of the fusion between its events
+        OrientationHistory history = new OrientationHistory(Math.max(1, Integer.highestOneBit(size) * 2));
+        float[] quaternion = new float[4];
+        float[] angularVelocity = new float[3];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(quaternions, 4 * i, quaternion, 0, 4);
+            history.add(timestamps[i], quaternion);
+        }
+
+        Result[] results = new Result[horizons.length];
+        Quaternion actual = new Quaternion();
+        for (int h = 0; h < horizons.length; h++) {
+            long horizon = horizons[h];
+            int samples = 0;
+            while (samples < size && timestamps[samples] + horizon <= timestamps[size - 1]) {
+                samples++;
+            }
+
+            // The inverse of the actual orientations, and the orientations without and with prediction
+            QuaternionArray inverse = new QuaternionArray(samples);
+            QuaternionArray held = new QuaternionArray(samples);
+            QuaternionArray predicted = new QuaternionArray(samples);
+            for (int i = 0; i < samples; i++) {
+                history.getQuaternionAt(timestamps[i] + horizon, actual);
+                inverse.set(i, -actual.getX(), -actual.getY(), -actual.getZ(), actual.getW());
+                System.arraycopy(quaternions, 4 * i, quaternion, 0, 4);
+                System.arraycopy(angularVelocities, 3 * i, angularVelocity, 0, 3);
+                held.set(i, quaternion[0], quaternion[1], quaternion[2], quaternion[3]);
+                OrientationPredictor.predict(quaternion, angularVelocity, horizon * 1e-9f, quaternion);
+                predicted.set(i, quaternion[0], quaternion[1], quaternion[2], quaternion[3]);
+            }
+            // The gyroscope fusions do not normalise their quaternions
+            backend.normalise(inverse);
+            backend.normalise(held);
+            backend.normalise(predicted);
+
+            QuaternionArray rotation = new QuaternionArray(samples);
+            backend.multiplyByQuat(inverse, held, rotation);
+            double heldSum = 0, heldMax = 0;
+            for (int i = 0; i < samples; i++) {
+                double heldError = angle(rotation, i);
+                heldSum += heldError;
+                heldMax = Math.max(heldMax, heldError);
+            }
+            backend.multiplyByQuat(inverse, predicted, rotation);
+            double predictedSum = 0, predictedMax = 0;
+            for (int i = 0; i < samples; i++) {
+                double predictedError = angle(rotation, i);
+                predictedSum += predictedError;
+                predictedMax = Math.max(predictedMax, predictedError);
+            }
+            results[h] = new Result(horizon, samples, samples > 0 ? heldSum / samples : 0, heldMax,
+                    samples > 0 ? predictedSum / samples : 0, predictedMax);
+        }
+        return results;
+    }
+
+    /**
+     * Replays the recording and keeps every orientation with the angular velocity at its time
+     */
+    private void record(OrientationFusion fusion) {
+        size = 0;
+        final float[] angularVelocity = new float[3];
+        new SessionReplay(recording, false).replay(fusion, new SessionReplay.Listener() {
+            @Override
+            public void onEvent(int index, boolean orientationChanged, Quaternion quaternion, long processingNanos) {
+                if (recording.getSensorType(index) == SensorType.GYROSCOPE) {
+                    System.arraycopy(recording.getValues(index), 0, angularVelocity, 0, 3);
+                }
+                if (orientationChanged) {
+                    add(recording.getTimestamp(index), quaternion.array(), angularVelocity);
+                }
+            }
+        });
+    }
+
+    private void add(long timestamp, float[] quaternion, float[] angularVelocity) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            quaternions = Arrays.copyOf(quaternions, 4 * size * 2);
+            angularVelocities = Arrays.copyOf(angularVelocities, 3 * size * 2);
+        }
+        timestamps[size] = timestamp;
+        System.arraycopy(quaternion, 0, quaternions, 4 * size, 4);
+        System.arraycopy(angularVelocity, 0, angularVelocities, 3 * size, 3);
+        size++;
+    }
+
+    /**
+     * @return The angle of the unity quaternion at the given index in degrees
+     */
+    private static double angle(QuaternionArray rotations, int index) {
+        float x = rotations.x[index], y = rotations.y[index], z = rotations.z[index];
+        // 2 * atan2(|v|, |w|) instead of 2 * acos(w), which is not accurate for small angles. q and -q are the same
+        // rotation, so the absolute value of w gives the shorter way
+        return Math.toDegrees(2 * Math.atan2(Math.sqrt(x * x + y * y + z * z), Math.abs(rotations.w[index])));
+    }
+
+    /**
+     * Evaluates a recording from the command line.
+     *
+     * <p>
+     * Arguments: The recording, the name of the fusion (as for {@link SessionReplay#main(String[])}) and optionally
+     * the horizons in milliseconds (10, 20, 50 and 100 if not given). Prints one line per horizon.
+     * </p>
+     *
+     * @param args The command line arguments
+     * @throws Exception If the evaluation fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: PredictionEvaluation <recording> <fusion> [horizon in ms]...");
+            System.exit(1);
+            return;
+        }
+        long[] horizons = new long[] { 10000000L, 20000000L, 50000000L, 100000000L };
+        if (args.length > 2) {
+            horizons = new long[args.length - 2];
+            for (int i = 0; i < horizons.length; i++) {
+                horizons[i] = Long.parseLong(args[i + 2]) * 1000000L;
+            }
+        }
+
+        SensorRecording recording = SensorRecording.load(new File(args[0]));
+        OrientationFusion fusion = (OrientationFusion) Class.forName(
+                OrientationFusion.class.getPackage().getName() + "." + args[1] + "Fusion").newInstance();
+
+        MathBackend backend = MathBackend.getDefault();
+        System.out.println("# " + args[1] + ": error in degrees without prediction (held) and with prediction, "
+                + backend.getName() + " backend");
+        System.out.println("# horizon_ms samples held_mean held_max predicted_mean predicted_max");
+        for (Result result : new PredictionEvaluation(recording).evaluate(fusion, horizons, backend)) {
+            System.out.println(String.format(Locale.US, "%d %d %.3f %.3f %.3f %.3f", result.horizon / 1000000L,
+                    result.samples, result.meanHeldError, result.maxHeldError, result.meanPredictedError,
+                    result.maxPredictedError));
+        }
+    }
+}
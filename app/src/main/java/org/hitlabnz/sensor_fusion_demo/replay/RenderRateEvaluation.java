@@ -0,0 +1,104 @@
+package org.hitlabnz.sensor_fusion_demo.replay;
+
+import java.io.File;
+import java.util.Locale;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.OrientationFusion;
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationChangeFilter;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+
+/**
+ * Counts how many frames rendering on demand would draw for a recorded session: The recording is replayed into a
+ * fusion and every published orientation goes through an {@link OrientationChangeFilter}, like in the app. All counts
+ * are per minute of the recording, so they can be compared with continuous rendering at the frame rate.
+ *
+ * <pre>
+ * ./gradlew :benchmark:renderRateEvaluation -Pargs="session.txt CalibratedGyroscope 0.1 60"
+ * </pre>
+ */
+public class RenderRateEvaluation {
+
+    /**
+     * The counts of one replay, per minute of the recording
+     */
+    public static class Result {
+        public final double eventsPerMinute;
+        public final double orientationsPerMinute;
+        public final double framesPerMinute;
+
+        Result(double eventsPerMinute, double orientationsPerMinute, double framesPerMinute) {
+            this.eventsPerMinute = eventsPerMinute;
+            this.orientationsPerMinute = orientationsPerMinute;
+            this.framesPerMinute = framesPerMinute;
+        }
+    }
+
+    private final SensorRecording recording;
+
+    /**
+     * Initialises a new RenderRateEvaluation
+     *
+     * @param recording The recorded session
+     */
+    public RenderRateEvaluation(SensorRecording recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Replays the recording into the fusion and counts the frames that would be requested
+     *
+     * @param fusion The fusion, should be freshly created
+     * @param minAngle The minimum rotation between two frames in radians
+     * @param maxFrameRate The maximum number of frames per second
+     * @return The counts per minute
+     */
+    public Result evaluate(OrientationFusion fusion, float minAngle, int maxFrameRate) {
+        final OrientationChangeFilter filter = new OrientationChangeFilter(minAngle, 1000000000L / maxFrameRate);
+        int events = new SessionReplay(recording, false).replay(fusion, new SessionReplay.Listener() {
+            @Override
+            public void onEvent(int index, boolean orientationChanged, Quaternion quaternion, long processingNanos) {
+                if (orientationChanged) {
+                    filter.onOrientation(recording.getTimestamp(index), quaternion.array());
+                }
+            }
+        });
+        double minutes = recording.size() > 1 ? (recording.getTimestamp(recording.size() - 1) - recording
+                .getTimestamp(0)) / 60e9 : 0;
+        if (minutes == 0) {
+            return new Result(0, 0, 0);
+        }
+        return new Result(events / minutes, filter.getOrientationCount() / minutes, filter.getPassedCount()
+                / minutes);
+    }
+
+    /**
+     * Evaluates a recording from the command line.
+     *
+     * <p>
+     * Arguments: The recording, the name of the fusion (as for {@link SessionReplay#main(String[])}), optionally the
+     * minimum angle in degrees (0.1 if not given) and the maximum frame rate (60 if not given).
+     * </p>
+     *
+     * @param args The command line arguments
+     * @throws Exception If the evaluation fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: RenderRateEvaluation <recording> <fusion> [min angle in degrees] [max fps]");
+            System.exit(1);
+            return;
+        }
+        float minAngle = args.length > 2 ? Float.parseFloat(args[2]) : 0.1f;
+        int maxFrameRate = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+
+        SensorRecording recording = SensorRecording.load(new File(args[0]));
+        OrientationFusion fusion = (OrientationFusion) Class.forName(
+                OrientationFusion.class.getPackage().getName() + "." + args[1] + "Fusion").newInstance();
+
+        Result result = new RenderRateEvaluation(recording).evaluate(fusion, (float) Math.toRadians(minAngle),
+                maxFrameRate);
+        System.out.println(String.format(Locale.US,
+                "%s: %.0f events, %.0f orientations, %.0f frames per minute (continuous: %d)", args[1],
+                result.eventsPerMinute, result.orientationsPerMinute, result.framesPerMinute, maxFrameRate * 60));
+    }
+}
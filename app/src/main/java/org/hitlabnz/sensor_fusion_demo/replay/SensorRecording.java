@@ -0,0 +1,160 @@
+package org.hitlabnz.sensor_fusion_demo.replay;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A recorded session of sensor events with their original timestamps.
+ *
+ * <p>
+ * Recordings are stored as text, one event per line: The timestamp in nanoseconds, the
+ * {@link org.hitlabnz.sensor_fusion_demo.fusion.SensorType sensor type} and the values of the event. Lines starting
+ * with # are comments. The events must be ordered by their timestamp.
+ * </p>
+ *
+ * <pre>
+ * # timestamp type values
+ * 1484097452185000000 4 0.0123 -0.0071 0.0004
+ * 1484097452190000000 11 0.0512 0.7012 0.0112 0.7110
+ * </pre>
+ *
+ * <p>
+ * The events are kept in memory, so a replay only measures the fusion and not the parsing of the file.
+ * </p>
+ */
+public class SensorRecording {
+
+    private int size;
+    private int[] sensorTypes = new int[1024];
+    private long[] timestamps = new long[1024];
+    private float[][] values = new float[1024][];
+
+    /**
+     * Appends an event to the recording
+     *
+     * @param sensorType The type of the sensor
+     * @param timestamp The timestamp of the event in nanoseconds, must not be before the last event
+     * @param eventValues The values of the event, are copied
+     */
+    public void add(int sensorType, long timestamp, float[] eventValues) {
+        if (size > 0 && timestamp < timestamps[size - 1]) {
+            throw new IllegalArgumentException("Event at " + timestamp + " is older than the previous event at "
+                    + timestamps[size - 1]);
+        }
+        if (size == sensorTypes.length) {
+            sensorTypes = Arrays.copyOf(sensorTypes, size * 2);
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        sensorTypes[size] = sensorType;
+        timestamps[size] = timestamp;
+        values[size] = eventValues.clone();
+        size++;
+    }
+
+    /**
+     * @return The number of events
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index The index of the event
+     * @return The sensor type of the event
+     */
+    public int getSensorType(int index) {
+        return sensorTypes[index];
+    }
+
+    /**
+     * @param index The index of the event
+     * @return The timestamp of the event in nanoseconds
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @param index The index of the event
+     * @return The values of the event. The returned array must not be modified.
+     */
+    public float[] getValues(int index) {
+        return values[index];
+    }
+
+    /**
+     * Loads a recording from a file
+     *
+     * @param file The recording
+     * @return The loaded recording
+     * @throws IOException If the file can not be read or is malformed
+     */
+    public static SensorRecording load(File file) throws IOException {
+        SensorRecording recording = new SensorRecording();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "US-ASCII"));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length < 3) {
+                    throw new IOException(file + ":" + lineNumber + ": Expected timestamp, sensor type and values");
+                }
+                try {
+                    long timestamp = Long.parseLong(fields[0]);
+                    int sensorType = Integer.parseInt(fields[1]);
+                    float[] eventValues = new float[fields.length - 2];
+                    for (int i = 0; i < eventValues.length; i++) {
+                        eventValues[i] = Float.parseFloat(fields[i + 2]);
+                    }
+                    recording.add(sensorType, timestamp, eventValues);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return recording;
+    }
+
+    /**
+     * Saves the recording to a file
+     *
+     * @param file The target file, is overwritten
+     * @throws IOException If the file can not be written
+     */
+    public void save(File file) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "US-ASCII"));
+        try {
+            writer.write("# timestamp type values\n");
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                line.setLength(0);
+                line.append(timestamps[i]).append(' ').append(sensorTypes[i]);
+                for (float value : values[i]) {
+                    // Float.toString is locale independent and can be parsed back without loss
+                    line.append(' ').append(value);
+                }
+                line.append('\n');
+                writer.write(line.toString());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
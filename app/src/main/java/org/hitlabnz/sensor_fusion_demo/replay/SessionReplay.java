@@ -0,0 +1,186 @@
+package org.hitlabnz.sensor_fusion_demo.replay;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.locks.LockSupport;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.OrientationFusion;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+
+/**
+ * Replays a {@link SensorRecording} into an {@link OrientationFusion}, e.g. to reproduce panic resets or jumps of the
+ * rotation vector that were recorded in the field, or to compare the fusions on identical input.
+ *
+ * <p>
+ * The fusions only see the timestamps of the recording, so the result of a replay does not depend on the speed of the
+ * machine: Replaying as fast as possible and replaying in real time give exactly the same orientations. In real time
+ * mode the events are delivered at their original pace, measured from the first event. Like on the device, a fusion
+ * only gets the events of the sensors it registered for.
+ * </p>
+ *
+ * <p>
+ * Can be started from the command line of the build host:
+ * </p>
+ *
+ * <pre>
+ * ./gradlew :benchmark:replay -Pargs="session.txt ImprovedOrientationSensor1 --realtime result.txt"
+ * </pre>
+ */
+public class SessionReplay {
+
+    /**
+     * Receives the result of every event that was delivered to the fusion
+     */
+    public interface Listener {
+        /**
+         * Called after the fusion processed an event
+         *
+         * @param index The index of the event in the recording
+         * @param orientationChanged Whether the fusion updated the orientation with this event
+         * @param quaternion The current orientation of the fusion, must not be modified
+         * @param processingNanos The time the fusion needed to process the event in nanoseconds
+         */
+        void onEvent(int index, boolean orientationChanged, Quaternion quaternion, long processingNanos);
+    }
+
+    private final SensorRecording recording;
+    private final boolean realTime;
+
+    /**
+     * Initialises a new SessionReplay
+     *
+     * @param recording The recorded session
+     * @param realTime True to deliver the events at their original pace, false to deliver them as fast as possible
+     */
+    public SessionReplay(SensorRecording recording, boolean realTime) {
+        this.recording = recording;
+        this.realTime = realTime;
+    }
+
+    /**
+     * Replays the whole recording into the fusion
+     *
+     * @param fusion The fusion, should be freshly created
+     * @param listener Receives the result of every delivered event
+     * @return The number of events that were delivered to the fusion
+     */
+    public int replay(OrientationFusion fusion, Listener listener) {
+        int[] sensorTypes = fusion.getSensorTypes();
+        int delivered = 0;
+        long startNanos = System.nanoTime();
+        long firstTimestamp = recording.size() > 0 ? recording.getTimestamp(0) : 0;
+
+        for (int i = 0; i < recording.size(); i++) {
+            int sensorType = recording.getSensorType(i);
+            if (!contains(sensorTypes, sensorType)) {
+                continue;
+            }
+            long timestamp = recording.getTimestamp(i);
+
+            if (realTime) {
+                long due = startNanos + (timestamp - firstTimestamp);
+                long remaining;
+                while ((remaining = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(remaining);
+                }
+            }
+
+            long before = System.nanoTime();
+            boolean orientationChanged = fusion.onSensorEvent(sensorType, timestamp, recording.getValues(i));
+            long processingNanos = System.nanoTime() - before;
+
+            delivered++;
+            listener.onEvent(i, orientationChanged, fusion.getQuaternion(), processingNanos);
+        }
+        return delivered;
+    }
+
+    private static boolean contains(int[] array, int value) {
+        for (int element : array) {
+            if (element == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replays a recording from the command line.
+     *
+     * <p>
+     * Arguments: The recording, the name of the fusion (the class name in the fusion package without the Fusion
+     * suffix, e.g. ImprovedOrientationSensor1), optionally --realtime and optionally the output file (standard output
+     * if not given). Writes one line per delivered event: Timestamp, sensor type, 1 if the orientation changed or 0,
+     * the quaternion (x, y, z, w) and the processing time in nanoseconds. A summary is printed to standard error.
+     * </p>
+     *
+     * @param args The command line arguments
+     * @throws Exception If the replay fails
+     */
+    public static void main(String[] args) throws Exception {
+        String recordingFile = null;
+        String fusionName = null;
+        String outputFile = null;
+        boolean realTime = false;
+        for (String arg : args) {
+            if (arg.equals("--realtime")) {
+                realTime = true;
+            } else if (recordingFile == null) {
+                recordingFile = arg;
+            } else if (fusionName == null) {
+                fusionName = arg;
+            } else {
+                outputFile = arg;
+            }
+        }
+        if (fusionName == null) {
+            System.err.println("Usage: SessionReplay <recording> <fusion> [--realtime] [output]");
+            System.exit(1);
+            return;
+        }
+
+        final SensorRecording recording = SensorRecording.load(new File(recordingFile));
+        OrientationFusion fusion = (OrientationFusion) Class.forName(
+                OrientationFusion.class.getPackage().getName() + "." + fusionName + "Fusion").newInstance();
+
+        OutputStream stream = outputFile != null ? new FileOutputStream(outputFile) : System.out;
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(stream, "US-ASCII"));
+        final StringBuilder line = new StringBuilder();
+        final long[] statistics = new long[3]; // updates, total processing time, maximum processing time
+
+        int delivered = new SessionReplay(recording, realTime).replay(fusion, new Listener() {
+            @Override
+            public void onEvent(int index, boolean orientationChanged, Quaternion quaternion, long processingNanos) {
+                if (orientationChanged) {
+                    statistics[0]++;
+                }
+                statistics[1] += processingNanos;
+                statistics[2] = Math.max(statistics[2], processingNanos);
+
+                line.setLength(0);
+                line.append(recording.getTimestamp(index)).append(' ').append(recording.getSensorType(index))
+                        .append(' ').append(orientationChanged ? 1 : 0).append(' ').append(quaternion.x())
+                        .append(' ').append(quaternion.y()).append(' ').append(quaternion.z()).append(' ')
+                        .append(quaternion.w()).append(' ').append(processingNanos).append('\n');
+                try {
+                    writer.write(line.toString());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.flush();
+        if (outputFile != null) {
+            writer.close();
+        }
+
+        System.err.println(fusionName + ": " + delivered + " events, " + statistics[0] + " updates, "
+                + (delivered > 0 ? statistics[1] / delivered : 0) + " ns mean, " + statistics[2]
+                + " ns max processing time");
+    }
+}
@@ -0,0 +1,156 @@
+package org.hitlabnz.sensor_fusion_demo.representation;
+
+/**
+ * A quaternion that consists of nothing but its four components.
+ *
+ * <p>
+ * Unlike {@link Quaternion}, it does not carry a rotation matrix, temporary vectors or a backing array: One instance is
+ * a single object of four floats. Matrices are only written into buffers supplied by the caller and no method
+ * allocates memory, so it can be used on the path of every sensor event and in large numbers. The calculations are
+ * the ones of {@link QuaternionMath}, the same as the ones of {@link Quaternion}.
+ * </p>
+ */
+public final class CompactQuaternion implements QuaternionMath.Output {
+
+    private float x;
+    private float y;
+    private float z;
+    private float w;
+
+    /**
+     * Creates a new CompactQuaternion and initialises it with the identity quaternion
+     */
+    public CompactQuaternion() {
+        w = 1;
+    }
+
+    /**
+     * Creates a new CompactQuaternion with the given components
+     */
+    public CompactQuaternion(float x, float y, float z, float w) {
+        setXYZW(x, y, z, w);
+    }
+
+    public float x() {
+        return x;
+    }
+
+    public float y() {
+        return y;
+    }
+
+    public float z() {
+        return z;
+    }
+
+    public float w() {
+        return w;
+    }
+
+    @Override
+    public void setXYZW(float x, float y, float z, float w) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+    }
+
+    /**
+     * Copies the values from the given quaternion to this one
+     *
+     * @param quat The quaternion to copy from
+     */
+    public void set(CompactQuaternion quat) {
+        setXYZW(quat.x, quat.y, quat.z, quat.w);
+    }
+
+    /**
+     * Copies the values from the given quaternion (or vector) to this one
+     *
+     * @param quat The quaternion to copy from
+     */
+    public void set(Vector4f quat) {
+        setXYZW(quat.points[0], quat.points[1], quat.points[2], quat.points[3]);
+    }
+
+    /**
+     * Copies the values of this quaternion to the given quaternion (or vector)
+     *
+     * @param output The quaternion to copy to
+     */
+    public void copyTo(Vector4f output) {
+        output.setXYZW(x, y, z, w);
+    }
+
+    /**
+     * Sets the quaternion to an identity quaternion of 0,0,0,1.
+     */
+    public void loadIdentityQuat() {
+        setXYZW(0, 0, 0, 1);
+    }
+
+    /**
+     * Normalise this Quaternion into a unity Quaternion.
+     */
+    public void normalise() {
+        QuaternionMath.normalise(x, y, z, w, this);
+    }
+
+    /**
+     * Calculates the dot-product of this and the given quaternion
+     *
+     * @param input The other quaternion
+     * @return The dot-product
+     */
+    public float dotProduct(CompactQuaternion input) {
+        return QuaternionMath.dotProduct(x, y, z, w, input.x, input.y, input.z, input.w);
+    }
+
+    /**
+     * Multiply this quaternion by the input quaternion and store the result in the output quaternion. The output may
+     * be this or the input quaternion.
+     *
+     * @param input The quaternion to multiply with
+     * @param output The quaternion to store the result in
+     */
+    public void multiplyByQuat(CompactQuaternion input, CompactQuaternion output) {
+        QuaternionMath.multiply(x, y, z, w, input.x, input.y, input.z, input.w, output);
+    }
+
+    /**
+     * Multiply this quaternion by the input quaternion and store the result in this quaternion
+     *
+     * @param input The quaternion to multiply with
+     */
+    public void multiplyByQuat(CompactQuaternion input) {
+        multiplyByQuat(input, this);
+    }
+
+    /**
+     * Get a spherical linear interpolation between this quaternion and the input quaternion, storing the result in the
+     * output quaternion. The output may be this or the input quaternion.
+     *
+     * @param input The quaternion to be slerped with this quaternion.
+     * @param output The quaternion to store the result in.
+     * @param t The ratio between the two quaternions where 0 <= t <= 1.0 . Increase value of t will bring rotation
+     *            closer to the input quaternion.
+     */
+    public void slerp(CompactQuaternion input, CompactQuaternion output, float t) {
+        QuaternionMath.slerp(x, y, z, w, input.x, input.y, input.z, input.w, t, output);
+    }
+
+    /**
+     * Writes this quaternion as 4x4 rotation matrix, in the same layout as {@link Quaternion#getMatrix4x4()}
+     *
+     * @param matrix The column major output matrix
+     * @param offset The index of the first element of the matrix in the array
+     */
+    public void toMatrix4x4(float[] matrix, int offset) {
+        MatrixF4x4.setRotation(matrix, offset, x, y, z, w);
+    }
+
+    @Override
+    public String toString() {
+        return "{X: " + x + ", Y:" + y + ", Z:" + z + ", W:" + w + "}";
+    }
+}
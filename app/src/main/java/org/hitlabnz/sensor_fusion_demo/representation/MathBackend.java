@@ -0,0 +1,162 @@
+package org.hitlabnz.sensor_fusion_demo.representation;
+
+/**
+ * The bulk operations of the representation package that can be executed by a different implementation on the host,
+ * e.g. one with SIMD instructions. The {@link #scalar() scalar} backend runs everywhere and is the one of the plain
+ * Java code in {@link QuaternionArray} and {@link Matrix}.
+ *
+ * <p>
+ * The SIMD backend based on the incubating Vector API of JDK 16+ is not part of the app, the benchmark module builds
+ * it when its JDK supports it. {@link #getDefault()} picks it up, if it is on the class path and the JVM runs with
+ * <code>--add-modules jdk.incubator.vector</code>. All backends give bit-identical results.
+ * </p>
+ */
+public abstract class MathBackend {
+
+    /**
+     * System property to select the backend by name ("scalar" or "vector"), instead of the best one available
+     */
+    public static final String PROPERTY = "sensorfusion.mathBackend";
+
+    /**
+     * Name of the class that implements the Vector API backend
+     */
+    private static final String VECTOR_BACKEND_CLASS =
+            "org.hitlabnz.sensor_fusion_demo.representation.vector.VectorMathBackend";
+
+    private static final MathBackend SCALAR = new ScalarMathBackend();
+
+    private static MathBackend defaultBackend;
+
+    /**
+     * @return The backend that uses the plain Java code
+     */
+    public static MathBackend scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Get a backend by its name
+     *
+     * @param name "scalar" or "vector"
+     * @return The backend
+     * @throws IllegalArgumentException If there is no backend with this name or it can not be used on this JVM
+     */
+    public static MathBackend forName(String name) {
+        if ("scalar".equals(name)) {
+            return SCALAR;
+        } else if ("vector".equals(name)) {
+            try {
+                return (MathBackend) Class.forName(VECTOR_BACKEND_CLASS).newInstance();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Vector backend is not available", e);
+            } catch (LinkageError e) {
+                // Class found, but the JVM was started without the Vector API module
+                throw new IllegalArgumentException("Vector backend is not available", e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown math backend " + name + ", expected scalar or vector");
+    }
+
+    /**
+     * Get the backend selected by the system property {@link #PROPERTY}, or else the vector backend if it is available
+     * and the scalar one otherwise
+     *
+     * @return The backend
+     */
+    public static synchronized MathBackend getDefault() {
+        if (defaultBackend == null) {
+            String name = System.getProperty(PROPERTY);
+            if (name != null) {
+                defaultBackend = forName(name);
+            } else {
+                try {
+                    defaultBackend = forName("vector");
+                } catch (IllegalArgumentException e) {
+                    defaultBackend = SCALAR;
+                }
+            }
+        }
+        return defaultBackend;
+    }
+
+    /**
+     * @return The name of the backend, as accepted by {@link #forName(String)}
+     */
+    public abstract String getName();
+
+    /**
+     * Multiply each quaternion of lhs by the one of rhs with the same index, see
+     * {@link QuaternionArray#multiplyByQuat(QuaternionArray, QuaternionArray)}
+     */
+    public abstract void multiplyByQuat(QuaternionArray lhs, QuaternionArray rhs, QuaternionArray output);
+
+    /**
+     * Dot-product of each quaternion of a and the one of b with the same index, see
+     * {@link QuaternionArray#dotProduct(QuaternionArray, float[])}
+     */
+    public abstract void dotProduct(QuaternionArray a, QuaternionArray b, float[] output);
+
+    /**
+     * Normalise all quaternions, see {@link QuaternionArray#normalise()}
+     */
+    public abstract void normalise(QuaternionArray quaternions);
+
+    /**
+     * Multiply two 4x4 matrices, see {@link Matrix#multiplyMM(float[], int, float[], int, float[], int)}. The output
+     * must not overlap with lhs or rhs.
+     */
+    public abstract void multiplyMM(float[] output, int outputOffset, float[] lhs, int lhsOffset, float[] rhs,
+            int rhsOffset);
+
+    /**
+     * Multiply a 4x4 matrix with a vector of 4 values, see
+     * {@link Matrix#multiplyMV(float[], int, float[], int, float[], int)}. The output must not overlap with lhs or
+     * rhs.
+     */
+    public abstract void multiplyMV(float[] output, int outputOffset, float[] lhs, int lhsOffset, float[] rhs,
+            int rhsOffset);
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    /**
+     * The backend that delegates to the plain Java code
+     */
+    private static class ScalarMathBackend extends MathBackend {
+
+        @Override
+        public String getName() {
+            return "scalar";
+        }
+
+        @Override
+        public void multiplyByQuat(QuaternionArray lhs, QuaternionArray rhs, QuaternionArray output) {
+            lhs.multiplyByQuat(rhs, output);
+        }
+
+        @Override
+        public void dotProduct(QuaternionArray a, QuaternionArray b, float[] output) {
+            a.dotProduct(b, output);
+        }
+
+        @Override
+        public void normalise(QuaternionArray quaternions) {
+            quaternions.normalise();
+        }
+
+        @Override
+        public void multiplyMM(float[] output, int outputOffset, float[] lhs, int lhsOffset, float[] rhs,
+                int rhsOffset) {
+            Matrix.multiplyMM(output, outputOffset, lhs, lhsOffset, rhs, rhsOffset);
+        }
+
+        @Override
+        public void multiplyMV(float[] output, int outputOffset, float[] lhs, int lhsOffset, float[] rhs,
+                int rhsOffset) {
+            Matrix.multiplyMV(output, outputOffset, lhs, lhsOffset, rhs, rhsOffset);
+        }
+    }
+}
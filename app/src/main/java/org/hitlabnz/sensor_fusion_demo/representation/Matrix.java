@@ -23,13 +23,27 @@ package org.hitlabnz.sensor_fusion_demo.representation;
  * v[offset + 3]
  * </pre>
  * 
+ * All methods can be called from several threads at the same time. Methods that need temporary memory use an array
+ * per thread, or the scratch array passed by the caller.
+ * 
  */
 public class Matrix {
 
     /**
-     * Temporary memory for operations that need temporary matrix data.
+     * Number of floats that the scratch array of the methods with a scratch parameter must provide
+     */
+    public static final int SCRATCH_SIZE = 32;
+
+    /**
+     * Temporary memory for operations that need temporary matrix data, one array per thread so concurrent callers do
+     * not have to wait for each other.
      */
-    private static final float[] TEMP_MATRIX_ARRAY = new float[32];
+    private static final ThreadLocal<float[]> TEMP_MATRIX_ARRAY = new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+            return new float[SCRATCH_SIZE];
+        }
+    };
 
     /**
      * Multiply two 4x4 matrices together and store the result in a third 4x4
@@ -605,10 +619,26 @@ public class Matrix {
      * @param z scale factor z
      */
     public static void rotateM(float[] rm, int rmOffset, float[] m, int mOffset, float a, float x, float y, float z) {
-        synchronized (TEMP_MATRIX_ARRAY) {
-            setRotateM(TEMP_MATRIX_ARRAY, 0, a, x, y, z);
-            multiplyMM(rm, rmOffset, m, mOffset, TEMP_MATRIX_ARRAY, 0);
-        }
+        rotateM(rm, rmOffset, m, mOffset, a, x, y, z, TEMP_MATRIX_ARRAY.get());
+    }
+
+    /**
+     * Rotates matrix m by angle a (in degrees) around the axis (x, y, z), using caller owned temporary memory
+     * 
+     * @param rm returns the result
+     * @param rmOffset index into rm where the result matrix starts
+     * @param m source matrix
+     * @param mOffset index into m where the source matrix starts
+     * @param a angle to rotate in degrees
+     * @param x scale factor x
+     * @param y scale factor y
+     * @param z scale factor z
+     * @param scratch temporary memory of at least {@link #SCRATCH_SIZE} floats, must not be shared with another thread
+     */
+    public static void rotateM(float[] rm, int rmOffset, float[] m, int mOffset, float a, float x, float y, float z,
+            float[] scratch) {
+        setRotateM(scratch, 0, a, x, y, z);
+        multiplyMM(rm, rmOffset, m, mOffset, scratch, 0);
     }
 
     /**
@@ -623,11 +653,25 @@ public class Matrix {
      * @param z scale factor z
      */
     public static void rotateM(float[] m, int mOffset, float a, float x, float y, float z) {
-        synchronized (TEMP_MATRIX_ARRAY) {
-            setRotateM(TEMP_MATRIX_ARRAY, 0, a, x, y, z);
-            multiplyMM(TEMP_MATRIX_ARRAY, 16, m, mOffset, TEMP_MATRIX_ARRAY, 0);
-            System.arraycopy(TEMP_MATRIX_ARRAY, 16, m, mOffset, 16);
-        }
+        rotateM(m, mOffset, a, x, y, z, TEMP_MATRIX_ARRAY.get());
+    }
+
+    /**
+     * Rotates matrix m in place by angle a (in degrees)
+     * around the axis (x, y, z), using caller owned temporary memory
+     * 
+     * @param m source matrix
+     * @param mOffset index into m where the matrix starts
+     * @param a angle to rotate in degrees
+     * @param x scale factor x
+     * @param y scale factor y
+     * @param z scale factor z
+     * @param scratch temporary memory of at least {@link #SCRATCH_SIZE} floats, must not be shared with another thread
+     */
+    public static void rotateM(float[] m, int mOffset, float a, float x, float y, float z, float[] scratch) {
+        setRotateM(scratch, 0, a, x, y, z);
+        multiplyMM(scratch, 16, m, mOffset, scratch, 0);
+        System.arraycopy(scratch, 16, m, mOffset, 16);
     }
 
     /**
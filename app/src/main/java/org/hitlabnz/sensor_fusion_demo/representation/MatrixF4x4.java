@@ -16,12 +16,15 @@ import android.util.Log;
  * If the matrix is of size 9 but you set say w2, the value will not be set and the set method will return without any
  * error.
  *
+ * When several values are written at once, prefer the bulk methods {@link #set3x3} and {@link #setRotation}: they
+ * determine the layout once instead of once per value.
+ *
  */
 public class MatrixF4x4 {
 
     public static final int[] matIndCol9_3x3 = { 0, 1, 2, 3, 4, 5, 6, 7, 8 };
     public static final int[] matIndCol16_3x3 = { 0, 1, 2, 4, 5, 6, 8, 9, 10 };
-    public static final int[] matIndRow9_3x3 = { 0, 3, 6, 1, 4, 7, 3, 5, 8 };
+    public static final int[] matIndRow9_3x3 = { 0, 3, 6, 1, 4, 7, 2, 5, 8 };
     public static final int[] matIndRow16_3x3 = { 0, 4, 8, 1, 5, 9, 2, 6, 10 };
 
     public static final int[] matIndCol16_4x4 = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 };
@@ -248,6 +251,90 @@ public class MatrixF4x4 {
 
     }
 
+    /**
+     * Sets the upper left 3x3 part of the matrix, with the same mapping as the set{x,#} methods. The other values of a
+     * 4x4 matrix are left unchanged.
+     */
+    public void set3x3(float x0, float x1, float x2, float y0, float y1, float y2, float z0, float z1, float z2) {
+        if (matrix.length == 16 && colMaj) {
+            matrix[0] = x0;
+            matrix[1] = x1;
+            matrix[2] = x2;
+            matrix[4] = y0;
+            matrix[5] = y1;
+            matrix[6] = y2;
+            matrix[8] = z0;
+            matrix[9] = z1;
+            matrix[10] = z2;
+        } else {
+            int[] indices;
+            if (matrix.length == 16) {
+                indices = matIndRow16_3x3;
+            } else if (colMaj) {
+                indices = matIndCol9_3x3;
+            } else {
+                indices = matIndRow9_3x3;
+            }
+            matrix[indices[0]] = x0;
+            matrix[indices[1]] = x1;
+            matrix[indices[2]] = x2;
+            matrix[indices[3]] = y0;
+            matrix[indices[4]] = y1;
+            matrix[indices[5]] = y2;
+            matrix[indices[6]] = z0;
+            matrix[indices[7]] = z1;
+            matrix[indices[8]] = z2;
+        }
+    }
+
+    /**
+     * Sets this matrix to the rotation of the given unit quaternion. A 4x4 matrix gets no translation and w3 = 1.
+     */
+    public void setRotation(float x, float y, float z, float w) {
+        if (matrix.length == 16 && colMaj) {
+            setRotation(matrix, 0, x, y, z, w);
+        } else {
+            set3x3(1 - 2 * (y * y) - 2 * (z * z), 2 * (x * y) + 2 * (w * z), 2 * (x * z) - 2 * (w * y),
+                    2 * (x * y) - 2 * (w * z), 1 - 2 * (x * x) - 2 * (z * z), 2 * (y * z) + 2 * (w * x),
+                    2 * (x * z) + 2 * (w * y), 2 * (y * z) - 2 * (w * x), 1 - 2 * (x * x) - 2 * (y * y));
+            if (matrix.length == 16) {
+                matrix[3] = matrix[7] = matrix[11] = 0;
+                matrix[12] = matrix[13] = matrix[14] = 0;
+                matrix[15] = 1;
+            }
+        }
+    }
+
+    /**
+     * Writes the rotation of the given unit quaternion as column major 4x4 matrix into an array, the layout of a
+     * MatrixF4x4 after {@link #setRotation(float, float, float, float)}.
+     *
+     * @param matrix The array to write to
+     * @param offset The index of the first of the 16 values
+     */
+    public static void setRotation(float[] matrix, int offset, float x, float y, float z, float w) {
+        float xx = x * x, yy = y * y, zz = z * z;
+        float xy = x * y, xz = x * z, yz = y * z;
+        float wx = w * x, wy = w * y, wz = w * z;
+
+        matrix[offset] = 1 - 2 * yy - 2 * zz;
+        matrix[offset + 1] = 2 * xy + 2 * wz;
+        matrix[offset + 2] = 2 * xz - 2 * wy;
+        matrix[offset + 3] = 0;
+        matrix[offset + 4] = 2 * xy - 2 * wz;
+        matrix[offset + 5] = 1 - 2 * xx - 2 * zz;
+        matrix[offset + 6] = 2 * yz + 2 * wx;
+        matrix[offset + 7] = 0;
+        matrix[offset + 8] = 2 * xz + 2 * wy;
+        matrix[offset + 9] = 2 * yz - 2 * wx;
+        matrix[offset + 10] = 1 - 2 * xx - 2 * yy;
+        matrix[offset + 11] = 0;
+        matrix[offset + 12] = 0;
+        matrix[offset + 13] = 0;
+        matrix[offset + 14] = 0;
+        matrix[offset + 15] = 1;
+    }
+
     public void setX0(float value) {
 
         if (matrix.length == 16) {
@@ -15,15 +15,20 @@ package org.hitlabnz.sensor_fusion_demo.representation;
  * This class also contains the representation of the same rotation as a Quaternion and 4x4-Rotation-Matrix.
  * </p>
  * 
+ * <p>
+ * The calculations are the ones of {@link QuaternionMath}, which {@link CompactQuaternion} uses as well.
+ * </p>
+ * 
  * @author Leigh Beattie, Alexander Pacha
  * 
  */
-public class Quaternion extends Vector4f {
+public class Quaternion extends Vector4f implements QuaternionMath.Output {
 
     /**
      * Rotation matrix that contains the same rotation as the Quaternion in a 4x4 homogenised rotation matrix.
      * Remember that for performance reasons, this matrix is only updated, when it is accessed and not on every change
-     * of the quaternion-values.
+     * of the quaternion-values. It is only created on the first access, so quaternions that are never converted into a
+     * matrix stay small.
      */
     private MatrixF4x4 matrix;
 
@@ -35,15 +40,11 @@ public class Quaternion extends Vector4f {
      */
     private boolean dirty = false;
 
-    private Vector4f tmpVector = new Vector4f();
-    private Quaternion tmpQuaternion;
-
     /**
      * Creates a new Quaternion object and initialises it with the identity Quaternion
      */
     public Quaternion() {
         super();
-        matrix = new MatrixF4x4();
         loadIdentityQuat();
     }
 
@@ -51,13 +52,7 @@ public class Quaternion extends Vector4f {
      * Normalise this Quaternion into a unity Quaternion.
      */
     public void normalise() {
-        this.dirty = true;
-        float mag = (float) Math.sqrt(points[3] * points[3] + points[0] * points[0] + points[1] * points[1] + points[2]
-                * points[2]);
-        points[3] = points[3] / mag;
-        points[0] = points[0] / mag;
-        points[1] = points[1] / mag;
-        points[2] = points[2] / mag;
+        QuaternionMath.normalise(points[0], points[1], points[2], points[3], this);
     }
 
     @Override
@@ -75,38 +70,22 @@ public class Quaternion extends Vector4f {
         copyVec4(quat);
     }
 
+    @Override
+    public void setXYZW(float x, float y, float z, float w) {
+        this.dirty = true;
+        super.setXYZW(x, y, z, w);
+    }
+
     /**
-     * Multiply this quaternion by the input quaternion and store the result in the out quaternion
+     * Multiply this quaternion by the input quaternion and store the result in the out quaternion. The output may be
+     * this or the input quaternion.
      * 
      * @param input
      * @param output
      */
     public void multiplyByQuat(Quaternion input, Quaternion output) {
-
-        if (input != output) {
-            output.points[3] = (points[3] * input.points[3] - points[0] * input.points[0] - points[1] * input.points[1] - points[2]
-                    * input.points[2]); //w = w1w2 - x1x2 - y1y2 - z1z2
-            output.points[0] = (points[3] * input.points[0] + points[0] * input.points[3] + points[1] * input.points[2] - points[2]
-                    * input.points[1]); //x = w1x2 + x1w2 + y1z2 - z1y2
-            output.points[1] = (points[3] * input.points[1] + points[1] * input.points[3] + points[2] * input.points[0] - points[0]
-                    * input.points[2]); //y = w1y2 + y1w2 + z1x2 - x1z2
-            output.points[2] = (points[3] * input.points[2] + points[2] * input.points[3] + points[0] * input.points[1] - points[1]
-                    * input.points[0]); //z = w1z2 + z1w2 + x1y2 - y1x2
-        } else {
-            tmpVector.points[0] = input.points[0];
-            tmpVector.points[1] = input.points[1];
-            tmpVector.points[2] = input.points[2];
-            tmpVector.points[3] = input.points[3];
-
-            output.points[3] = (points[3] * tmpVector.points[3] - points[0] * tmpVector.points[0] - points[1]
-                    * tmpVector.points[1] - points[2] * tmpVector.points[2]); //w = w1w2 - x1x2 - y1y2 - z1z2
-            output.points[0] = (points[3] * tmpVector.points[0] + points[0] * tmpVector.points[3] + points[1]
-                    * tmpVector.points[2] - points[2] * tmpVector.points[1]); //x = w1x2 + x1w2 + y1z2 - z1y2
-            output.points[1] = (points[3] * tmpVector.points[1] + points[1] * tmpVector.points[3] + points[2]
-                    * tmpVector.points[0] - points[0] * tmpVector.points[2]); //y = w1y2 + y1w2 + z1x2 - x1z2
-            output.points[2] = (points[3] * tmpVector.points[2] + points[2] * tmpVector.points[3] + points[0]
-                    * tmpVector.points[1] - points[1] * tmpVector.points[0]); //z = w1z2 + z1w2 + x1y2 - y1x2
-        }
+        QuaternionMath.multiply(points[0], points[1], points[2], points[3], input.points[0], input.points[1],
+                input.points[2], input.points[3], output);
     }
 
     /**
@@ -116,11 +95,7 @@ public class Quaternion extends Vector4f {
      * @param output
      */
     public void multiplyByQuat(Quaternion input) {
-        this.dirty = true;
-        if(tmpQuaternion == null) tmpQuaternion = new Quaternion();
-        tmpQuaternion.copyVec4(this);
-        multiplyByQuat(input, tmpQuaternion);
-        this.copyVec4(tmpQuaternion);
+        multiplyByQuat(input, this);
     }
 
     /**
@@ -130,7 +105,7 @@ public class Quaternion extends Vector4f {
      */
     public void multiplyByScalar(float scalar) {
         this.dirty = true;
-        multiplyByScalar(scalar);
+        super.multiplyByScalar(scalar);
     }
 
     /**
@@ -184,27 +159,10 @@ public class Quaternion extends Vector4f {
      * {@link Quaternion#getMatrix4x4 getMatrix4x4}
      */
     private void convertQuatToMatrix() {
-        float x = points[0];
-        float y = points[1];
-        float z = points[2];
-        float w = points[3];
-
-        matrix.setX0(1 - 2 * (y * y) - 2 * (z * z)); //1 - 2y2 - 2z2
-        matrix.setX1(2 * (x * y) + 2 * (w * z)); // 2xy - 2wz
-        matrix.setX2(2 * (x * z) - 2 * (w * y)); //2xz + 2wy
-        matrix.setX3(0);
-        matrix.setY0(2 * (x * y) - 2 * (w * z)); //2xy + 2wz
-        matrix.setY1(1 - 2 * (x * x) - 2 * (z * z)); //1 - 2x2 - 2z2
-        matrix.setY2(2 * (y * z) + 2 * (w * x)); // 2yz + 2wx
-        matrix.setY3(0);
-        matrix.setZ0(2 * (x * z) + 2 * (w * y)); //2xz + 2wy
-        matrix.setZ1(2 * (y * z) - 2 * (w * x)); //2yz - 2wx
-        matrix.setZ2(1 - 2 * (x * x) - 2 * (y * y)); //1 - 2x2 - 2y2
-        matrix.setZ3(0);
-        matrix.setW0(0);
-        matrix.setW1(0);
-        matrix.setW2(0);
-        matrix.setW3(1);
+        if (matrix == null) {
+            matrix = new MatrixF4x4();
+        }
+        matrix.setRotation(points[0], points[1], points[2], points[3]);
     }
 
     /**
@@ -274,27 +232,28 @@ public class Quaternion extends Vector4f {
 
     /**
      * This is an internal method used to build a quaternion from a rotation matrix and then sets the current quaternion
-     * from that matrix.
+     * from that matrix. The matrix is only read and not kept.
      * 
+     * @param mat The rotation matrix, 9 or 16 values
+     * @param columnMajor Whether the matrix is column major
      */
-    private void generateQuaternionFromMatrix() {
+    private void generateQuaternionFromMatrix(float[] mat, boolean columnMajor) {
 
         float qx;
         float qy;
         float qz;
         float qw;
 
-        float[] mat = matrix.getMatrix();
         int[] indices = null;
 
-        if (this.matrix.size() == 16) {
-            if (this.matrix.isColumnMajor()) {
+        if (mat.length == 16) {
+            if (columnMajor) {
                 indices = MatrixF4x4.matIndCol16_3x3;
             } else {
                 indices = MatrixF4x4.matIndRow16_3x3;
             }
         } else {
-            if (this.matrix.isColumnMajor()) {
+            if (columnMajor) {
                 indices = MatrixF4x4.matIndCol9_3x3;
             } else {
                 indices = MatrixF4x4.matIndRow9_3x3;
@@ -340,10 +299,7 @@ public class Quaternion extends Vector4f {
             qz = 0.25f * s;
         }
 
-        setX(qx);
-        setY(qy);
-        setZ(qz);
-        setW(qw);
+        setXYZW(qx, qy, qz, qw);
     }
 
     /**
@@ -353,11 +309,7 @@ public class Quaternion extends Vector4f {
      * @param matrix A column major rotation matrix
      */
     public void setColumnMajor(float[] matrix) {
-
-        this.matrix.setMatrix(matrix);
-        this.matrix.setColumnMajor(true);
-
-        generateQuaternionFromMatrix();
+        generateQuaternionFromMatrix(matrix, true);
     }
 
     /**
@@ -367,11 +319,7 @@ public class Quaternion extends Vector4f {
      * @param matrix A column major rotation matrix
      */
     public void setRowMajor(float[] matrix) {
-
-        this.matrix.setMatrix(matrix);
-        this.matrix.setColumnMajor(false);
-
-        generateQuaternionFromMatrix();
+        generateQuaternionFromMatrix(matrix, false);
     }
 
     /**
@@ -434,7 +382,7 @@ public class Quaternion extends Vector4f {
      */
     public MatrixF4x4 getMatrix4x4() {
         //toMatrixColMajor();
-        if (dirty) {
+        if (dirty || matrix == null) {
             convertQuatToMatrix();
             dirty = false;
         }
@@ -455,70 +403,8 @@ public class Quaternion extends Vector4f {
      *            closer to the input quaternion.
      */
     public void slerp(Quaternion input, Quaternion output, float t) {
-        // Calculate angle between them.
-        //double cosHalftheta = this.dotProduct(input);
-        Quaternion bufferQuat;
-        float cosHalftheta = this.dotProduct(input);
-
-        if (cosHalftheta < 0) {
-            if(tmpQuaternion == null) tmpQuaternion = new Quaternion();
-            bufferQuat = tmpQuaternion;
-            cosHalftheta = -cosHalftheta;
-            bufferQuat.points[0] = (-input.points[0]);
-            bufferQuat.points[1] = (-input.points[1]);
-            bufferQuat.points[2] = (-input.points[2]);
-            bufferQuat.points[3] = (-input.points[3]);
-        } else {
-            bufferQuat = input;
-        }
-        /**
-         * if(dot < 0.95f){
-         * double angle = Math.acos(dot);
-         * double ratioA = Math.sin((1 - t) * angle);
-         * double ratioB = Math.sin(t * angle);
-         * double divisor = Math.sin(angle);
-         * 
-         * //Calculate Quaternion
-         * output.setW((float)((this.getW() * ratioA + input.getW() * ratioB)/divisor));
-         * output.setX((float)((this.getX() * ratioA + input.getX() * ratioB)/divisor));
-         * output.setY((float)((this.getY() * ratioA + input.getY() * ratioB)/divisor));
-         * output.setZ((float)((this.getZ() * ratioA + input.getZ() * ratioB)/divisor));
-         * }
-         * else{
-         * lerp(input, output, t);
-         * }
-         */
-        // if qa=qb or qa=-qb then theta = 0 and we can return qa
-        if (Math.abs(cosHalftheta) >= 1.0) {
-            output.points[0] = (this.points[0]);
-            output.points[1] = (this.points[1]);
-            output.points[2] = (this.points[2]);
-            output.points[3] = (this.points[3]);
-        } else {
-            double sinHalfTheta = Math.sqrt(1.0 - cosHalftheta * cosHalftheta);
-            // if theta = 180 degrees then result is not fully defined
-            // we could rotate around any axis normal to qa or qb
-            //if(Math.abs(sinHalfTheta) < 0.001){
-            //output.setW(this.getW() * 0.5f + input.getW() * 0.5f);
-            //output.setX(this.getX() * 0.5f + input.getX() * 0.5f);
-            //output.setY(this.getY() * 0.5f + input.getY() * 0.5f);
-            //output.setZ(this.getZ() * 0.5f + input.getZ() * 0.5f);
-            //  lerp(bufferQuat, output, t);
-            //}
-            //else{
-            double halfTheta = Math.acos(cosHalftheta);
-
-            double ratioA = Math.sin((1 - t) * halfTheta) / sinHalfTheta;
-            double ratioB = Math.sin(t * halfTheta) / sinHalfTheta;
-
-            //Calculate Quaternion
-            output.points[3] = ((float) (points[3] * ratioA + bufferQuat.points[3] * ratioB));
-            output.points[0] = ((float) (this.points[0] * ratioA + bufferQuat.points[0] * ratioB));
-            output.points[1] = ((float) (this.points[1] * ratioA + bufferQuat.points[1] * ratioB));
-            output.points[2] = ((float) (this.points[2] * ratioA + bufferQuat.points[2] * ratioB));
-
-            //}
-        }
+        QuaternionMath.slerp(points[0], points[1], points[2], points[3], input.points[0], input.points[1],
+                input.points[2], input.points[3], t, output);
     }
 
 }
@@ -0,0 +1,223 @@
+package org.hitlabnz.sensor_fusion_demo.representation;
+
+/**
+ * A fixed number of quaternions, stored as structure of arrays: one array per component instead of one object per
+ * quaternion.
+ *
+ * <p>
+ * Meant for the offline processing of long recordings, where millions of samples go through the same operation. The
+ * element-wise operations ({@link #multiplyByQuat}, {@link #normalise}) are straight-line loops over the component
+ * arrays without branches, which the JIT can turn into SIMD instructions. The operations that need trigonometric
+ * functions ({@link #slerp}, {@link #setFromAngularVelocity}) and the conversion into interleaved matrices are not
+ * vectorised, but still save the indirection and the memory of one object per quaternion.
+ * </p>
+ *
+ * <p>
+ * All operations use the same formulas as {@link Quaternion}, so they give the same results as the per-object path.
+ * </p>
+ */
+public class QuaternionArray {
+
+    /**
+     * The components of the quaternions. Element i of the four arrays is the quaternion i.
+     */
+    public final float[] x;
+    public final float[] y;
+    public final float[] z;
+    public final float[] w;
+
+    /**
+     * Creates a new QuaternionArray of identity quaternions
+     *
+     * @param size The number of quaternions
+     */
+    public QuaternionArray(int size) {
+        x = new float[size];
+        y = new float[size];
+        z = new float[size];
+        w = new float[size];
+        loadIdentityQuat();
+    }
+
+    public int size() {
+        return w.length;
+    }
+
+    public void set(int index, float x, float y, float z, float w) {
+        this.x[index] = x;
+        this.y[index] = y;
+        this.z[index] = z;
+        this.w[index] = w;
+    }
+
+    /**
+     * Copies the values of the given quaternion to the quaternion at the given index
+     */
+    public void set(int index, Vector4f quat) {
+        set(index, quat.points[0], quat.points[1], quat.points[2], quat.points[3]);
+    }
+
+    /**
+     * Copies the quaternion at the given index to the output quaternion
+     */
+    public void get(int index, Vector4f output) {
+        output.setXYZW(x[index], y[index], z[index], w[index]);
+    }
+
+    /**
+     * Sets all quaternions to the identity quaternion of 0,0,0,1.
+     */
+    public void loadIdentityQuat() {
+        for (int i = 0; i < w.length; i++) {
+            x[i] = 0;
+            y[i] = 0;
+            z[i] = 0;
+            w[i] = 1;
+        }
+    }
+
+    /**
+     * Multiply each quaternion by the input quaternion with the same index and store the result in the output. The
+     * output may be this or the input array.
+     *
+     * @param input The quaternions to multiply with, at least as many as this array holds
+     * @param output The quaternions to store the result in, at least as many as this array holds
+     */
+    public void multiplyByQuat(QuaternionArray input, QuaternionArray output) {
+        float[] x1 = x, y1 = y, z1 = z, w1 = w;
+        float[] x2 = input.x, y2 = input.y, z2 = input.z, w2 = input.w;
+        float[] xOut = output.x, yOut = output.y, zOut = output.z, wOut = output.w;
+        for (int i = 0; i < w1.length; i++) {
+            float ax = x1[i], ay = y1[i], az = z1[i], aw = w1[i];
+            float bx = x2[i], by = y2[i], bz = z2[i], bw = w2[i];
+            wOut[i] = aw * bw - ax * bx - ay * by - az * bz;
+            xOut[i] = aw * bx + ax * bw + ay * bz - az * by;
+            yOut[i] = aw * by + ay * bw + az * bx - ax * bz;
+            zOut[i] = aw * bz + az * bw + ax * by - ay * bx;
+        }
+    }
+
+    /**
+     * Calculates the dot-product of each quaternion and the input quaternion with the same index
+     *
+     * @param input The other quaternions
+     * @param output Receives one dot-product per quaternion
+     */
+    public void dotProduct(QuaternionArray input, float[] output) {
+        float[] x1 = x, y1 = y, z1 = z, w1 = w;
+        float[] x2 = input.x, y2 = input.y, z2 = input.z, w2 = input.w;
+        for (int i = 0; i < w1.length; i++) {
+            output[i] = x1[i] * x2[i] + y1[i] * y2[i] + z1[i] * z2[i] + w1[i] * w2[i];
+        }
+    }
+
+    /**
+     * Normalise all quaternions into unity quaternions.
+     */
+    public void normalise() {
+        float[] x = this.x, y = this.y, z = this.z, w = this.w;
+        for (int i = 0; i < w.length; i++) {
+            float mag = (float) Math.sqrt(w[i] * w[i] + x[i] * x[i] + y[i] * y[i] + z[i] * z[i]);
+            w[i] = w[i] / mag;
+            x[i] = x[i] / mag;
+            y[i] = y[i] / mag;
+            z[i] = z[i] / mag;
+        }
+    }
+
+    /**
+     * Spherical linear interpolation between each quaternion and the input quaternion with the same index, see
+     * {@link Quaternion#slerp(Quaternion, Quaternion, float)}. The output may be this or the input array.
+     *
+     * @param input The quaternions to be slerped with these quaternions
+     * @param output The quaternions to store the result in
+     * @param t The ratio between the two quaternions where 0 <= t <= 1.0
+     */
+    public void slerp(QuaternionArray input, QuaternionArray output, float t) {
+        for (int i = 0; i < w.length; i++) {
+            float ax = x[i], ay = y[i], az = z[i], aw = w[i];
+            float bx = input.x[i], by = input.y[i], bz = input.z[i], bw = input.w[i];
+            float cosHalftheta = ax * bx + ay * by + az * bz + aw * bw;
+
+            // Take the shorter way
+            if (cosHalftheta < 0) {
+                cosHalftheta = -cosHalftheta;
+                bx = -bx;
+                by = -by;
+                bz = -bz;
+                bw = -bw;
+            }
+
+            // if qa=qb or qa=-qb then theta = 0 and we can return qa
+            if (Math.abs(cosHalftheta) >= 1.0) {
+                output.set(i, ax, ay, az, aw);
+            } else {
+                double sinHalfTheta = Math.sqrt(1.0 - cosHalftheta * cosHalftheta);
+                double halfTheta = Math.acos(cosHalftheta);
+
+                double ratioA = Math.sin((1 - t) * halfTheta) / sinHalfTheta;
+                double ratioB = Math.sin(t * halfTheta) / sinHalfTheta;
+
+                output.set(i, (float) (ax * ratioA + bx * ratioB), (float) (ay * ratioA + by * ratioB),
+                        (float) (az * ratioA + bz * ratioB), (float) (aw * ratioA + bw * ratioB));
+            }
+        }
+    }
+
+    /**
+     * Sets each quaternion to the rotation of one gyroscope sample: the rotation around the axis of the angular
+     * velocity by its magnitude times the time step.
+     *
+     * @param rateX Angular velocity around x in rad/s, one value per quaternion
+     * @param rateY Angular velocity around y in rad/s, one value per quaternion
+     * @param rateZ Angular velocity around z in rad/s, one value per quaternion
+     * @param dT Time step of each sample in seconds, one value per quaternion
+     */
+    public void setFromAngularVelocity(float[] rateX, float[] rateY, float[] rateZ, float[] dT) {
+        for (int i = 0; i < w.length; i++) {
+            float axisX = rateX[i], axisY = rateY[i], axisZ = rateZ[i];
+            double velocity = Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+            double thetaOverTwo = velocity * dT[i] / 2.0f;
+            // sin(theta / 2) / velocity, so the axis does not need to be normalised
+            double scale = velocity > 0 ? Math.sin(thetaOverTwo) / velocity : 0;
+            set(i, (float) (scale * axisX), (float) (scale * axisY), (float) (scale * axisZ),
+                    (float) Math.cos(thetaOverTwo));
+        }
+    }
+
+    /**
+     * Applies the rotations one after another, like a gyroscope fusion: output[i] = this[i] * output[i - 1], with
+     * the start orientation before the first one. Each result depends on the previous one, so this is not vectorised.
+     *
+     * @param start The orientation before the first rotation
+     * @param output The orientation after each rotation, may be this array
+     */
+    public void integrate(Vector4f start, QuaternionArray output) {
+        float cx = start.points[0], cy = start.points[1], cz = start.points[2], cw = start.points[3];
+        for (int i = 0; i < w.length; i++) {
+            float ax = x[i], ay = y[i], az = z[i], aw = w[i];
+            float nw = aw * cw - ax * cx - ay * cy - az * cz;
+            float nx = aw * cx + ax * cw + ay * cz - az * cy;
+            float ny = aw * cy + ay * cw + az * cx - ax * cz;
+            float nz = aw * cz + az * cw + ax * cy - ay * cx;
+            cx = nx;
+            cy = ny;
+            cz = nz;
+            cw = nw;
+            output.set(i, cx, cy, cz, cw);
+        }
+    }
+
+    /**
+     * Writes all quaternions as column major 4x4 rotation matrices, one after another, in the layout of
+     * {@link Quaternion#getMatrix4x4()}
+     *
+     * @param matrices The array to write to, needs 16 values per quaternion after the offset
+     * @param offset The index of the first value of the first matrix
+     */
+    public void toMatrix4x4(float[] matrices, int offset) {
+        for (int i = 0; i < w.length; i++) {
+            MatrixF4x4.setRotation(matrices, offset + 16 * i, x[i], y[i], z[i], w[i]);
+        }
+    }
+}
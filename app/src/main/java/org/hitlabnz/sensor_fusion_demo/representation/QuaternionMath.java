@@ -0,0 +1,89 @@
+package org.hitlabnz.sensor_fusion_demo.representation;
+
+/**
+ * The quaternion calculations of {@link Quaternion} and {@link CompactQuaternion}, so both classes give the same
+ * results and can not drift apart.
+ *
+ * <p>
+ * The inputs are passed as components and the result is written with {@link Output#setXYZW}, so the output may be one
+ * of the inputs and nothing is allocated. The conversion into a rotation matrix is
+ * {@link MatrixF4x4#setRotation(float[], int, float, float, float, float)}.
+ * </p>
+ */
+public final class QuaternionMath {
+
+    /**
+     * Receives the result of a calculation
+     */
+    public interface Output {
+        void setXYZW(float x, float y, float z, float w);
+    }
+
+    private QuaternionMath() {
+    }
+
+    /**
+     * Calculates the dot-product of two quaternions
+     */
+    public static float dotProduct(float x1, float y1, float z1, float w1, float x2, float y2, float z2, float w2) {
+        return x1 * x2 + y1 * y2 + z1 * z2 + w1 * w2;
+    }
+
+    /**
+     * Normalises a quaternion into a unity quaternion
+     *
+     * @param output The quaternion to store the result in
+     */
+    public static void normalise(float x, float y, float z, float w, Output output) {
+        float mag = (float) Math.sqrt(w * w + x * x + y * y + z * z);
+        output.setXYZW(x / mag, y / mag, z / mag, w / mag);
+    }
+
+    /**
+     * Multiplies the first quaternion by the second one
+     *
+     * @param output The quaternion to store the product in
+     */
+    public static void multiply(float x1, float y1, float z1, float w1, float x2, float y2, float z2, float w2,
+            Output output) {
+        output.setXYZW(w1 * x2 + x1 * w2 + y1 * z2 - z1 * y2,
+                w1 * y2 + y1 * w2 + z1 * x2 - x1 * z2,
+                w1 * z2 + z1 * w2 + x1 * y2 - y1 * x2,
+                w1 * w2 - x1 * x2 - y1 * y2 - z1 * z2);
+    }
+
+    /**
+     * Spherical linear interpolation between the first and the second quaternion, the shorter way
+     *
+     * @param t The ratio between the two quaternions where 0 <= t <= 1.0 . Increase value of t will bring rotation
+     *            closer to the second quaternion.
+     * @param output The quaternion to store the result in
+     */
+    public static void slerp(float x1, float y1, float z1, float w1, float x2, float y2, float z2, float w2, float t,
+            Output output) {
+        float cosHalftheta = dotProduct(x1, y1, z1, w1, x2, y2, z2, w2);
+
+        // Take the shorter way
+        if (cosHalftheta < 0) {
+            cosHalftheta = -cosHalftheta;
+            x2 = -x2;
+            y2 = -y2;
+            z2 = -z2;
+            w2 = -w2;
+        }
+
+        // if qa=qb or qa=-qb then theta = 0 and we can return qa
+        if (Math.abs(cosHalftheta) >= 1.0) {
+            output.setXYZW(x1, y1, z1, w1);
+        } else {
+            double sinHalfTheta = Math.sqrt(1.0 - cosHalftheta * cosHalftheta);
+            double halfTheta = Math.acos(cosHalftheta);
+
+            double ratioA = Math.sin((1 - t) * halfTheta) / sinHalfTheta;
+            double ratioB = Math.sin(t * halfTheta) / sinHalfTheta;
+
+            output.setXYZW((float) (x1 * ratioA + x2 * ratioB), (float) (y1 * ratioA + y2 * ratioB),
+                    (float) (z1 * ratioA + z2 * ratioB), (float) (w1 * ratioA + w2 * ratioB));
+        }
+    }
+}
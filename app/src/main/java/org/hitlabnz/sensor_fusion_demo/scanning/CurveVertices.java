@@ -0,0 +1,148 @@
+package org.hitlabnz.sensor_fusion_demo.scanning;
+
+import java.util.Arrays;
+
+/**
+ * The points of the scanned curves as they are drawn: Each sample moves the pen one unit along its tangent, like the
+ * Morphorider does between two samples, and each segment continues where the previous one ended.
+ *
+ * <p>
+ * Points are only ever appended. When the arrays are full, they are copied into arrays of twice the size, so the
+ * points a reader has seen are never changed afterwards. A reader takes a {@link Frame} with
+ * {@link #read(Frame)} and can then use its arrays without holding a lock, e.g. to upload the new points to the GPU.
+ * Writers (the thread that takes the samples and the UI thread that starts the segments) are synchronised.
+ * </p>
+ */
+public class CurveVertices {
+
+    /**
+     * Number of floats per point (x, y, z)
+     */
+    public static final int COMPONENTS = 3;
+
+    /**
+     * The points and segments as seen by a reader. Only the first {@link #pointCount} points and the first
+     * {@link #segmentCount} segments are valid, they do not change anymore.
+     */
+    public static class Frame {
+        /**
+         * The points (x, y, z)
+         */
+        public float[] vertices;
+        public int pointCount;
+
+        /**
+         * The index of the first point of each segment
+         */
+        public int[] segmentStarts;
+        public int segmentCount;
+
+        /**
+         * The bounding box of the valid points
+         */
+        public final float[] min = new float[COMPONENTS];
+        public final float[] max = new float[COMPONENTS];
+
+        /**
+         * @return The number of points of the given segment
+         */
+        public int getSegmentLength(int segment) {
+            int end = segment + 1 < segmentCount ? segmentStarts[segment + 1] : pointCount;
+            return end - segmentStarts[segment];
+        }
+    }
+
+    private float[] vertices;
+    private int pointCount;
+    private int[] segmentStarts = new int[64];
+    private int segmentCount;
+
+    /**
+     * The position of the pen
+     */
+    private final float[] position = new float[COMPONENTS];
+    private final float[] min = new float[COMPONENTS];
+    private final float[] max = new float[COMPONENTS];
+
+    /**
+     * Initialises a new, empty curve at the origin
+     *
+     * @param capacity The number of points that fit before the arrays grow
+     */
+    public CurveVertices(int capacity) {
+        vertices = new float[Math.max(1, capacity) * COMPONENTS];
+    }
+
+    /**
+     * Starts a new segment at the current position of the pen
+     */
+    public synchronized void startSegment() {
+        if (segmentCount == segmentStarts.length) {
+            segmentStarts = Arrays.copyOf(segmentStarts, segmentCount * 2);
+        }
+        segmentStarts[segmentCount++] = pointCount;
+        addPoint();
+    }
+
+    /**
+     * Moves the pen one unit along the tangent of a sample. Starts a segment if there is none yet.
+     *
+     * @param tx x-component of the tangent
+     * @param ty y-component of the tangent
+     * @param tz z-component of the tangent
+     */
+    public synchronized void add(float tx, float ty, float tz) {
+        if (segmentCount == 0) {
+            startSegment();
+        }
+        position[0] += tx;
+        position[1] += ty;
+        position[2] += tz;
+        addPoint();
+    }
+
+    private void addPoint() {
+        if (pointCount * COMPONENTS == vertices.length) {
+            // A new array, so readers can keep using the old one
+            vertices = Arrays.copyOf(vertices, vertices.length * 2);
+        }
+        for (int i = 0; i < COMPONENTS; i++) {
+            vertices[pointCount * COMPONENTS + i] = position[i];
+            if (pointCount == 0 || position[i] < min[i]) {
+                min[i] = position[i];
+            }
+            if (pointCount == 0 || position[i] > max[i]) {
+                max[i] = position[i];
+            }
+        }
+        pointCount++;
+    }
+
+    /**
+     * @return The number of points of all segments
+     */
+    public synchronized int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @return The number of segments
+     */
+    public synchronized int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Takes the current points and segments. Does not copy the points and does not allocate.
+     *
+     * @param frame Receives the points and segments
+     */
+    public synchronized void read(Frame frame) {
+        frame.vertices = vertices;
+        frame.pointCount = pointCount;
+        frame.segmentStarts = segmentStarts;
+        frame.segmentCount = segmentCount;
+        System.arraycopy(min, 0, frame.min, 0, COMPONENTS);
+        System.arraycopy(max, 0, frame.max, 0, COMPONENTS);
+    }
+}
@@ -0,0 +1,112 @@
+package org.hitlabnz.sensor_fusion_demo.scanning;
+
+import java.io.IOException;
+import java.util.Formatter;
+import java.util.Locale;
+
+/**
+ * Keeps the rotation matrices of the last scanned samples for diagnostics, instead of writing every matrix to the log.
+ *
+ * <p>
+ * Recording a matrix only copies it into a pre-allocated ring buffer; it does not allocate and does not format
+ * anything. The text is only built when the buffer is dumped, in the layout of the former log output: the columns
+ * B (binormal), T (tangent) and N (normal) of the 4x4 matrix, one row per line. Recording and reading are
+ * synchronised, the lock is only contended while a dump is running.
+ * </p>
+ */
+public class MatrixDiagnostics {
+
+    /**
+     * Number of floats per record, a 4x4 matrix
+     */
+    private static final int MATRIX_SIZE = 16;
+
+    private static final String[] ROW_NAMES = { "Rx", "Ry", "Rz", "Rw" };
+
+    private final long[] timestamps;
+    private final float[] matrices;
+
+    /**
+     * Number of matrices recorded so far, the newest one is at (recordCount - 1) % capacity
+     */
+    private long recordCount;
+
+    /**
+     * Initialises a new MatrixDiagnostics
+     *
+     * @param capacity The number of matrices that are kept
+     */
+    public MatrixDiagnostics(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+        timestamps = new long[capacity];
+        matrices = new float[capacity * MATRIX_SIZE];
+    }
+
+    /**
+     * @return The number of matrices that are kept
+     */
+    public int getCapacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * Records the matrix of a sample, replacing the oldest one if the buffer is full. Does not allocate.
+     *
+     * @param timestamp The time of the sample in milliseconds
+     * @param matrix The rotation matrix of the sample (4x4, column major)
+     */
+    public synchronized void record(long timestamp, float[] matrix) {
+        int slot = (int) (recordCount % timestamps.length);
+        timestamps[slot] = timestamp;
+        System.arraycopy(matrix, 0, matrices, slot * MATRIX_SIZE, MATRIX_SIZE);
+        recordCount++;
+    }
+
+    /**
+     * @return The number of matrices recorded so far, including the ones that were replaced
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Copies the newest matrix
+     *
+     * @param matrix Receives the matrix (4x4, column major)
+     * @return The time of its sample in milliseconds, -1 if nothing was recorded yet
+     */
+    public synchronized long getLatest(float[] matrix) {
+        if (recordCount == 0) {
+            return -1;
+        }
+        int slot = (int) ((recordCount - 1) % timestamps.length);
+        System.arraycopy(matrices, slot * MATRIX_SIZE, matrix, 0, MATRIX_SIZE);
+        return timestamps[slot];
+    }
+
+    /**
+     * Writes the kept matrices as text, oldest first
+     *
+     * @param out Receives the text, one line per row of a matrix
+     * @throws IOException If the output fails
+     */
+    public synchronized void dump(Appendable out) throws IOException {
+        Formatter formatter = new Formatter(out, Locale.US);
+        long first = Math.max(0, recordCount - timestamps.length);
+        for (long record = first; record < recordCount; record++) {
+            int offset = (int) (record % timestamps.length) * MATRIX_SIZE;
+            formatter.format("%d  ___B___  ___T___  ___N___\n", timestamps[(int) (record % timestamps.length)]);
+            for (int row = 0; row < 4; row++) {
+                formatter.format("%s   %+4.2f    %+4.2f    %+4.2f    %+4.2f\n", ROW_NAMES[row], matrices[offset + row],
+                        matrices[offset + 4 + row], matrices[offset + 8 + row], matrices[offset + 12 + row]);
+            }
+        }
+        formatter.flush();
+        IOException exception = formatter.ioException();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
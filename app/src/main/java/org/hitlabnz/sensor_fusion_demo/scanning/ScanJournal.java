@@ -0,0 +1,436 @@
+package org.hitlabnz.sensor_fusion_demo.scanning;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the scanned Morphorider curves in a memory-mapped, append-only journal that survives the app being killed
+ * in the middle of a scan.
+ *
+ * <p>
+ * The journal consists of a header block and data blocks of {@link #BLOCK_SIZE} bytes. Each data block holds up to
+ * {@link #RECORDS_PER_BLOCK} records of {@link #RECORD_SIZE} bytes, all values big endian:
+ * </p>
+ *
+ * <pre>
+ * header:       magic (4 bytes), version (2), record size (2), block size (4), close marker (4)
+ * record:       type (1 byte), boundary (1), open (1), unused (5), timestamp in milliseconds (8), six floats (24)
+ * block header: block index (4), unused (4), two commit slots of marker (4), record count (4), CRC32 (4)
+ * </pre>
+ *
+ * <p>
+ * Adding a record only stores it into the mapped file and commits it: The CRC32 of the records of the block is
+ * updated and written together with the new record count into one of the two commit slots of the block, the commit
+ * marker last. The slots take turns, so if the app dies while a slot is written, the other slot still describes the
+ * block without the last record. Nothing is written to storage explicitly before {@link #close()}, the records are in
+ * the page cache of the system as soon as they are added.
+ * </p>
+ *
+ * <p>
+ * {@link #close()} writes the close marker into the header. A journal without it was not closed, e.g. because the
+ * app was killed: {@link #recover(File)} finds the last record that was committed and truncates the journal after it.
+ * {@link #exportMorphorider(File, File)} converts the committed records into the Morphorider text format. Adding
+ * records is synchronised (sensor and UI thread), it does not block on I/O except when the next megabyte of the file
+ * is mapped.
+ * </p>
+ *
+ * <p>
+ * A journal file must only be used by one journal at a time: {@link #create(File)} and {@link #recover(File)} shrink
+ * the file, which loses the records of a journal that still has it mapped, and accessing the mapping of a shrunk file
+ * may crash the process.
+ * </p>
+ */
+public class ScanJournal implements ScanOutput {
+
+    /**
+     * First four bytes of a journal ("MRJN")
+     */
+    public static final int MAGIC = 0x4D524A4E;
+
+    /**
+     * Version of the journal format
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * Size of a record, a block and the header of a block in bytes
+     */
+    public static final int RECORD_SIZE = 40;
+    public static final int BLOCK_SIZE = 4096;
+    private static final int BLOCK_HEADER_SIZE = 32;
+    public static final int RECORDS_PER_BLOCK = (BLOCK_SIZE - BLOCK_HEADER_SIZE) / RECORD_SIZE;
+
+    /**
+     * The header of the journal takes a whole block, so the data blocks are aligned with the pages of the file
+     */
+    private static final int HEADER_SIZE = BLOCK_SIZE;
+
+    /**
+     * Number of blocks that are mapped at once, one megabyte
+     */
+    private static final int BLOCKS_PER_MAPPING = 256;
+
+    /**
+     * Offsets of the commit slots in the block header and of the values in a slot
+     */
+    private static final int SLOT_OFFSET = 8;
+    private static final int SLOT_SIZE = 12;
+    private static final int SLOT_COUNT = 4;
+    private static final int SLOT_CRC = 8;
+
+    /**
+     * The commit marker of a block is this value XOR the block index, so the zeros of a block that was never written
+     * are not mistaken for a commit
+     */
+    private static final int COMMIT_MARKER = 0x434F4D54;
+
+    /**
+     * Offset of the close marker in the header and its value ("CLSD"), written by {@link #close()}
+     */
+    private static final int CLOSE_MARKER_OFFSET = 12;
+    private static final int CLOSE_MARKER = 0x434C5344;
+
+    private static final int VALUES_PER_RECORD = 6;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    /**
+     * The mapping of the blocks from {@link #mappingStart} on, null after close
+     */
+    private MappedByteBuffer mapping;
+    private long mappingStart;
+
+    /**
+     * The current block, the number of its records and the CRC32 of these records
+     */
+    private long block;
+    private int blockRecords;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The record that is added, before it is copied into the mapping
+     */
+    private final byte[] record = new byte[RECORD_SIZE];
+    private final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+
+    private long recordCount;
+    private volatile long droppedRecords;
+
+    private ScanJournal(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+    }
+
+    /**
+     * Creates a new, empty journal
+     *
+     * @param file The file that will be overwritten with the journal, must not be used by another journal
+     * @return The journal, records can be added right away
+     * @throws IOException If the file can not be written
+     */
+    public static ScanJournal create(File file) throws IOException {
+        ScanJournal journal = new ScanJournal(file);
+        try {
+            journal.channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putShort(VERSION);
+            header.putShort((short) RECORD_SIZE);
+            header.putInt(BLOCK_SIZE);
+            header.rewind();
+            journal.channel.write(header, 0);
+            journal.map(0);
+        } catch (IOException e) {
+            journal.channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * Maps the blocks from the given one on
+     */
+    private void map(long firstBlock) throws IOException {
+        mappingStart = firstBlock;
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + firstBlock * BLOCK_SIZE,
+                (long) BLOCKS_PER_MAPPING * BLOCK_SIZE);
+    }
+
+    @Override
+    public boolean network() {
+        return append(TraceWriter.RECORD_NETWORK, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public boolean curve(int boundary, int open) {
+        return append(TraceWriter.RECORD_CURVE, boundary, open, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public boolean segment() {
+        return append(TraceWriter.RECORD_SEGMENT, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public boolean sample(long timestamp, float tx, float ty, float tz, float nx, float ny, float nz) {
+        return append(TraceWriter.RECORD_SAMPLE, 0, 0, timestamp, tx, ty, tz, nx, ny, nz);
+    }
+
+    /**
+     * Stores and commits one record. Does not allocate.
+     */
+    private synchronized boolean append(byte type, int boundary, int open, long timestamp, float v0, float v1,
+            float v2, float v3, float v4, float v5) {
+        if (mapping == null) {
+            droppedRecords++;
+            return false;
+        }
+        if (blockRecords == RECORDS_PER_BLOCK) {
+            if (block + 1 - mappingStart == BLOCKS_PER_MAPPING) {
+                try {
+                    map(block + 1);
+                } catch (IOException e) {
+                    droppedRecords++;
+                    return false;
+                }
+            }
+            block++;
+            blockRecords = 0;
+            crc.reset();
+        }
+
+        recordBuffer.clear();
+        recordBuffer.put(type);
+        recordBuffer.put((byte) boundary);
+        recordBuffer.put((byte) open);
+        recordBuffer.put((byte) 0);
+        recordBuffer.putInt(0);
+        recordBuffer.putLong(timestamp);
+        recordBuffer.putFloat(v0);
+        recordBuffer.putFloat(v1);
+        recordBuffer.putFloat(v2);
+        recordBuffer.putFloat(v3);
+        recordBuffer.putFloat(v4);
+        recordBuffer.putFloat(v5);
+        crc.update(record, 0, RECORD_SIZE);
+
+        int blockOffset = (int) (block - mappingStart) * BLOCK_SIZE;
+        mapping.position(blockOffset + BLOCK_HEADER_SIZE + blockRecords * RECORD_SIZE);
+        mapping.put(record);
+        blockRecords++;
+
+        // The commit: invalidate the slot, write count and checksum, then the marker
+        int slot = blockOffset + SLOT_OFFSET + (blockRecords & 1) * SLOT_SIZE;
+        mapping.putInt(blockOffset, (int) block);
+        mapping.putInt(slot, 0);
+        mapping.putInt(slot + SLOT_COUNT, blockRecords);
+        mapping.putInt(slot + SLOT_CRC, (int) crc.getValue());
+        mapping.putInt(slot, COMMIT_MARKER ^ (int) block);
+        recordCount++;
+        return true;
+    }
+
+    /**
+     * Does nothing: Every record is committed when it is added and survives the app being killed. Only
+     * {@link #close()} writes the journal to storage.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Writes the journal to storage, marks it as closed and closes it. Records that are added afterwards are dropped.
+     * The file keeps the unused part of the last mapping, which does not contain committed records.
+     */
+    @Override
+    public synchronized void close() {
+        if (mapping == null) {
+            return;
+        }
+        mapping.force();
+        mapping = null;
+        try {
+            ByteBuffer marker = ByteBuffer.allocate(4);
+            marker.putInt(CLOSE_MARKER);
+            marker.rewind();
+            channel.write(marker, CLOSE_MARKER_OFFSET);
+            channel.force(false);
+        } catch (IOException e) {
+            // the records were written by force(), the journal is recovered like one that was not closed
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing left to write
+            }
+        }
+    }
+
+    /**
+     * Tells whether a journal was closed, or is still in use or was left behind by an app that was killed
+     *
+     * @param journalFile The journal
+     * @return true, if the journal was closed with {@link #close()}
+     * @throws IOException If the file can not be read or is not a journal
+     */
+    public static boolean isClosed(File journalFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(journalFile, "r");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(CLOSE_MARKER_OFFSET + 4);
+            if (!readFully(file.getChannel(), header, 0, header.capacity()) || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a scan journal");
+            }
+            return header.getInt(CLOSE_MARKER_OFFSET) == CLOSE_MARKER;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return The number of records that were added
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    /**
+     * Finds the last committed record of a journal that was not closed, e.g. because the app was killed, and truncates
+     * the journal after it
+     *
+     * @param journalFile The journal, must not be in use by a journal of this process
+     * @return The number of committed records
+     * @throws IOException If the file can not be read or written, or is not a journal
+     */
+    public static long recover(File journalFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            long records = scan(channel, null);
+            long blocks = (records + RECORDS_PER_BLOCK - 1) / RECORDS_PER_BLOCK;
+            channel.truncate(HEADER_SIZE + blocks * BLOCK_SIZE);
+            int lastBlockRecords = (int) (records - (blocks - 1) * RECORDS_PER_BLOCK);
+            if (blocks > 0 && lastBlockRecords < RECORDS_PER_BLOCK) {
+                // Clear what was written after the last commit
+                long end = HEADER_SIZE + blocks * BLOCK_SIZE;
+                ByteBuffer zeros = ByteBuffer.allocate((RECORDS_PER_BLOCK - lastBlockRecords) * RECORD_SIZE);
+                channel.write(zeros, end - BLOCK_SIZE + BLOCK_HEADER_SIZE + lastBlockRecords * RECORD_SIZE);
+            }
+            channel.force(false);
+            return records;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Converts the committed records of a journal into the Morphorider text format. The journal is not changed.
+     *
+     * @param journalFile The journal, does not need to be closed or recovered
+     * @param textFile The file that will be overwritten with the text
+     * @return The number of records that were converted
+     * @throws IOException If a file can not be read or written, or the journal is not a journal
+     */
+    public static long exportMorphorider(File journalFile, File textFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(journalFile, "r");
+        Formatter output = new Formatter(textFile, "US-ASCII", Locale.US);
+        try {
+            long records = scan(file.getChannel(), output);
+            output.flush();
+            if (output.ioException() != null) {
+                throw output.ioException();
+            }
+            return records;
+        } finally {
+            file.close();
+            output.close();
+        }
+    }
+
+    /**
+     * Reads the blocks up to the last committed record
+     *
+     * @param output Receives the committed records in the Morphorider text format, may be null
+     * @return The number of committed records
+     */
+    private static long scan(FileChannel channel, Formatter output) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        if (!readFully(channel, buffer, 0, HEADER_SIZE) || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a scan journal");
+        }
+        short version = buffer.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported journal version " + version);
+        }
+
+        CRC32 crc = new CRC32();
+        float[] values = new float[VALUES_PER_RECORD];
+        long records = 0;
+        for (long block = 0; readFully(channel, buffer, HEADER_SIZE + block * BLOCK_SIZE, BLOCK_SIZE); block++) {
+            if (buffer.getInt(0) != (int) block) {
+                break;
+            }
+            int count = Math.max(committedRecords(buffer, block, 0, crc), committedRecords(buffer, block, 1, crc));
+            for (int i = 0; output != null && i < count; i++) {
+                int offset = BLOCK_HEADER_SIZE + i * RECORD_SIZE;
+                byte type = buffer.get(offset);
+                values[0] = buffer.get(offset + 1);
+                values[1] = buffer.get(offset + 2);
+                if (type == TraceWriter.RECORD_SAMPLE) {
+                    for (int v = 0; v < VALUES_PER_RECORD; v++) {
+                        values[v] = buffer.getFloat(offset + 16 + v * 4);
+                    }
+                }
+                TraceWriter.appendMorphorider(output, type, buffer.getLong(offset + 8), values, 0);
+            }
+            records += count;
+            if (count < RECORDS_PER_BLOCK) {
+                break;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return The record count of the commit slot, if its marker and checksum are valid, otherwise 0
+     */
+    private static int committedRecords(ByteBuffer block, long index, int slot, CRC32 crc) {
+        int offset = SLOT_OFFSET + slot * SLOT_SIZE;
+        int count = block.getInt(offset + SLOT_COUNT);
+        if (block.getInt(offset) != (COMMIT_MARKER ^ (int) index) || count <= 0 || count > RECORDS_PER_BLOCK) {
+            return 0;
+        }
+        crc.reset();
+        crc.update(block.array(), BLOCK_HEADER_SIZE, count * RECORD_SIZE);
+        return (int) crc.getValue() == block.getInt(offset + SLOT_CRC) ? count : 0;
+    }
+
+    /**
+     * Reads the given number of bytes at the position into the buffer
+     *
+     * @return false, if the file ends before
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position, int length)
+            throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
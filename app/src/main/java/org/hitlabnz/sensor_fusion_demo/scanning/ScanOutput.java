@@ -0,0 +1,63 @@
+package org.hitlabnz.sensor_fusion_demo.scanning;
+
+/**
+ * Stores the scanned Morphorider curves: the network header, the curves, their segments and the samples.
+ *
+ * The samples arrive on the sensor thread, the curve and segment markers on the UI thread; the caller orders them, so a
+ * marker never falls between the parts of a sample. Implementations must not block or allocate while a record is
+ * added; records they can not store are dropped and counted.
+ */
+public interface ScanOutput {
+
+    /**
+     * Adds the "MORPHORIDER NETWORK" header
+     *
+     * @return false, if the record was dropped
+     */
+    boolean network();
+
+    /**
+     * Starts a new curve
+     *
+     * @param boundary 1 if the curve is a boundary
+     * @param open 1 if the curve is open
+     * @return false, if the record was dropped
+     */
+    boolean curve(int boundary, int open);
+
+    /**
+     * Starts a new segment of the current curve
+     *
+     * @return false, if the record was dropped
+     */
+    boolean segment();
+
+    /**
+     * Adds a sample of the current segment
+     *
+     * @param timestamp Time of the sample in milliseconds
+     * @param tx x-component of the tangent
+     * @param ty y-component of the tangent
+     * @param tz z-component of the tangent
+     * @param nx x-component of the normal
+     * @param ny y-component of the normal
+     * @param nz z-component of the normal
+     * @return false, if the record was dropped
+     */
+    boolean sample(long timestamp, float tx, float ty, float tz, float nx, float ny, float nz);
+
+    /**
+     * Asks to store the pending records soon. Does not block.
+     */
+    void flush();
+
+    /**
+     * Stores all pending records and closes the output. Blocks until everything is stored.
+     */
+    void close();
+
+    /**
+     * @return The number of records that were dropped
+     */
+    long getDroppedRecords();
+}
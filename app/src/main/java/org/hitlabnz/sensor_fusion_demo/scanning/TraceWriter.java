@@ -0,0 +1,470 @@
+package org.hitlabnz.sensor_fusion_demo.scanning;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+/**
+ * Writes the scanned Morphorider curves to a file on a background thread.
+ *
+ * <p>
+ * The producers (the sensor thread for the samples, the UI thread for the curve and segment markers) only store a few
+ * primitives into a pre-allocated ring buffer. The writer thread drains the ring buffer in large batches into one
+ * {@link FileChannel} that stays open for the whole session. If the writer falls behind and the ring buffer is full,
+ * records are dropped and counted instead of blocking the producer.
+ * </p>
+ *
+ * <p>
+ * The file is either written in a compact binary format (the default) or in the Morphorider text format:
+ * </p>
+ *
+ * <pre>
+ * MORPHORIDER NETWORK
+ * CURVE  1  0
+ * SEGMENT
+ *    1484097452185  +0.000000 +1.000000 +0.000000 +0.000000 +0.000000 +1.000000
+ * </pre>
+ *
+ * <p>
+ * Binary files start with {@link #BINARY_MAGIC} and {@link #BINARY_VERSION}, followed by one record per entry: A
+ * record type byte, for curves two ints (boundary and open flag), for samples the timestamp in milliseconds as long
+ * and the tangent and normal as six floats. All values are big endian. Binary files can be converted to the text
+ * format with {@link #exportMorphorider(File, File)}.
+ * </p>
+ */
+public class TraceWriter implements ScanOutput {
+
+    /**
+     * The file formats that can be written
+     */
+    public enum Format {
+        /**
+         * Compact binary records (33 bytes per sample)
+         */
+        BINARY,
+        /**
+         * The Morphorider text format (78 bytes per sample)
+         */
+        MORPHORIDER
+    }
+
+    /**
+     * First four bytes of a binary trace ("MRTR")
+     */
+    public static final int BINARY_MAGIC = 0x4D525452;
+
+    /**
+     * Version of the binary format
+     */
+    public static final short BINARY_VERSION = 1;
+
+    static final byte RECORD_NETWORK = 1;
+    static final byte RECORD_CURVE = 2;
+    static final byte RECORD_SEGMENT = 3;
+    static final byte RECORD_SAMPLE = 4;
+
+    /**
+     * Number of float values per sample (tangent and normal)
+     */
+    private static final int VALUES_PER_RECORD = 6;
+
+    /**
+     * Size of the largest binary record in bytes
+     */
+    private static final int MAX_BINARY_RECORD_SIZE = 1 + 8 + VALUES_PER_RECORD * 4;
+
+    /**
+     * Size of the largest text line in bytes
+     */
+    private static final int MAX_TEXT_RECORD_SIZE = 128;
+
+    /**
+     * Time the writer thread sleeps, if it is not woken up by a full buffer or a flush request
+     */
+    private static final long FLUSH_INTERVAL_NANOS = 500 * 1000 * 1000L;
+
+    private final File file;
+    private final Format format;
+
+    /**
+     * The ring buffer. Slot i of the ring uses types[i], timestamps[i] and values[i * 6] to values[i * 6 + 5].
+     */
+    private final byte[] types;
+    private final long[] timestamps;
+    private final float[] values;
+    private final int mask;
+
+    /**
+     * Index of the next record to write into the ring buffer. Only changed by the producers.
+     */
+    private volatile long tail;
+
+    /**
+     * Index of the next record to drain from the ring buffer. Only changed by the writer thread.
+     */
+    private volatile long head;
+
+    private volatile long droppedRecords;
+    private volatile boolean flushRequested;
+    private volatile boolean running;
+    private volatile Thread writerThread;
+
+    /**
+     * Buffer that collects one batch before it is written to the channel. Only used by the writer thread.
+     */
+    private final ByteBuffer batchBuffer;
+
+    /**
+     * Formatter for the text format. Only used by the writer thread.
+     */
+    private final StringBuilder line = new StringBuilder(MAX_TEXT_RECORD_SIZE);
+    private final Formatter lineFormatter = new Formatter(line, Locale.US);
+
+    /**
+     * Initialises a new TraceWriter. Nothing is written until {@link #start()} is called.
+     *
+     * @param file The file that will be overwritten with the trace
+     * @param format The format of the file
+     * @param capacity Number of records the ring buffer can hold, will be rounded up to a power of two
+     */
+    public TraceWriter(File file, Format format, int capacity) {
+        this.file = file;
+        this.format = format;
+
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        types = new byte[size];
+        timestamps = new long[size];
+        values = new float[size * VALUES_PER_RECORD];
+        mask = size - 1;
+
+        int recordSize = format == Format.BINARY ? MAX_BINARY_RECORD_SIZE : MAX_TEXT_RECORD_SIZE;
+        batchBuffer = ByteBuffer.allocateDirect(recordSize * Math.min(size, 1024)).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @return The file this writer writes to
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The format of the file
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Truncates the file and starts the writer thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "TraceWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Writes all pending records, stops the writer thread and closes the file. Blocks until everything is written.
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            thread = writerThread;
+            writerThread = null;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Asks the writer thread to write all pending records now instead of waiting for the next batch. Does not block.
+     */
+    public void flush() {
+        flushRequested = true;
+        LockSupport.unpark(writerThread);
+    }
+
+    /**
+     * @return The number of records that were dropped, because the ring buffer was full
+     */
+    public long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    /**
+     * Adds the "MORPHORIDER NETWORK" header
+     *
+     * @return false, if the record was dropped because the ring buffer is full
+     */
+    public boolean network() {
+        return enqueue(RECORD_NETWORK, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Starts a new curve
+     *
+     * @param boundary 1 if the curve is a boundary
+     * @param open 1 if the curve is open
+     * @return false, if the record was dropped because the ring buffer is full
+     */
+    public boolean curve(int boundary, int open) {
+        return enqueue(RECORD_CURVE, 0, boundary, open, 0, 0, 0, 0);
+    }
+
+    /**
+     * Starts a new segment of the current curve
+     *
+     * @return false, if the record was dropped because the ring buffer is full
+     */
+    public boolean segment() {
+        return enqueue(RECORD_SEGMENT, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Adds a sample of the current segment. Does not allocate and does not block.
+     *
+     * @param timestamp Time of the sample in milliseconds
+     * @param tx x-component of the tangent
+     * @param ty y-component of the tangent
+     * @param tz z-component of the tangent
+     * @param nx x-component of the normal
+     * @param ny y-component of the normal
+     * @param nz z-component of the normal
+     * @return false, if the record was dropped because the ring buffer is full
+     */
+    public boolean sample(long timestamp, float tx, float ty, float tz, float nx, float ny, float nz) {
+        return enqueue(RECORD_SAMPLE, timestamp, tx, ty, tz, nx, ny, nz);
+    }
+
+    /**
+     * Stores one record in the ring buffer. The lock only serialises the producers (sensor and UI thread); the writer
+     * thread never takes it.
+     */
+    private synchronized boolean enqueue(byte type, long timestamp, float v0, float v1, float v2, float v3, float v4,
+            float v5) {
+        long currentTail = tail;
+        int capacity = mask + 1;
+        long fill = currentTail - head;
+        if (fill >= capacity) {
+            droppedRecords++;
+            return false;
+        }
+
+        int slot = (int) (currentTail & mask);
+        int offset = slot * VALUES_PER_RECORD;
+        types[slot] = type;
+        timestamps[slot] = timestamp;
+        values[offset] = v0;
+        values[offset + 1] = v1;
+        values[offset + 2] = v2;
+        values[offset + 3] = v3;
+        values[offset + 4] = v4;
+        values[offset + 5] = v5;
+        tail = currentTail + 1;
+
+        // Wake up the writer early, if the ring buffer is getting full
+        if (fill + 1 == capacity / 2) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+
+    /**
+     * Main loop of the writer thread
+     */
+    private void writeLoop() {
+        FileOutputStream stream = null;
+        try {
+            stream = new FileOutputStream(file, false);
+            FileChannel channel = stream.getChannel();
+
+            if (format == Format.BINARY) {
+                batchBuffer.putInt(BINARY_MAGIC);
+                batchBuffer.putShort(BINARY_VERSION);
+            }
+
+            while (true) {
+                boolean stopping = !running;
+                drain(channel);
+                if (stopping) {
+                    break;
+                }
+                if (!flushRequested) {
+                    LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+                }
+                flushRequested = false;
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            Log.e("Exception", "Trace write failed: " + e.toString());
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    Log.e("Exception", "Closing trace failed: " + e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all records that are currently in the ring buffer
+     */
+    private void drain(FileChannel channel) throws IOException {
+        long currentHead = head;
+        long currentTail = tail;
+        int recordSize = format == Format.BINARY ? MAX_BINARY_RECORD_SIZE : MAX_TEXT_RECORD_SIZE;
+
+        while (currentHead < currentTail) {
+            if (batchBuffer.remaining() < recordSize) {
+                writeBatch(channel);
+            }
+            int slot = (int) (currentHead & mask);
+            if (format == Format.BINARY) {
+                putBinaryRecord(slot);
+            } else {
+                putTextRecord(slot);
+            }
+            currentHead++;
+            head = currentHead;
+        }
+        writeBatch(channel);
+    }
+
+    private void writeBatch(FileChannel channel) throws IOException {
+        batchBuffer.flip();
+        while (batchBuffer.hasRemaining()) {
+            channel.write(batchBuffer);
+        }
+        batchBuffer.clear();
+    }
+
+    private void putBinaryRecord(int slot) {
+        byte type = types[slot];
+        int offset = slot * VALUES_PER_RECORD;
+        batchBuffer.put(type);
+        if (type == RECORD_CURVE) {
+            batchBuffer.putInt((int) values[offset]);
+            batchBuffer.putInt((int) values[offset + 1]);
+        } else if (type == RECORD_SAMPLE) {
+            batchBuffer.putLong(timestamps[slot]);
+            for (int i = 0; i < VALUES_PER_RECORD; i++) {
+                batchBuffer.putFloat(values[offset + i]);
+            }
+        }
+    }
+
+    private void putTextRecord(int slot) {
+        int offset = slot * VALUES_PER_RECORD;
+        line.setLength(0);
+        appendMorphorider(lineFormatter, types[slot], timestamps[slot], values, offset);
+        for (int i = 0; i < line.length(); i++) {
+            batchBuffer.put((byte) line.charAt(i));
+        }
+    }
+
+    /**
+     * Appends one line of the Morphorider text format, including the line break
+     */
+    static void appendMorphorider(Formatter formatter, byte type, long timestamp, float[] values, int offset) {
+        switch (type) {
+        case RECORD_NETWORK:
+            formatter.format("MORPHORIDER NETWORK\n");
+            break;
+        case RECORD_CURVE:
+            formatter.format("CURVE %2d %2d\n", (int) values[offset], (int) values[offset + 1]);
+            break;
+        case RECORD_SEGMENT:
+            formatter.format("SEGMENT\n");
+            break;
+        case RECORD_SAMPLE:
+            formatter.format("%16d  %+8.6f %+8.6f %+8.6f %+8.6f %+8.6f %+8.6f\n", timestamp, values[offset],
+                    values[offset + 1], values[offset + 2], values[offset + 3], values[offset + 4],
+                    values[offset + 5]);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Converts a binary trace into the Morphorider text format
+     *
+     * @param binaryFile A file written by a TraceWriter in the {@link Format#BINARY binary} format
+     * @param textFile The file that will be overwritten with the text
+     * @throws IOException if a file could not be read or written, or the binary file is not a trace
+     */
+    public static void exportMorphorider(File binaryFile, File textFile) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(binaryFile)));
+        Formatter output = new Formatter(textFile, "US-ASCII", Locale.US);
+        try {
+            if (input.readInt() != BINARY_MAGIC) {
+                throw new IOException(binaryFile + " is not a binary trace");
+            }
+            short version = input.readShort();
+            if (version != BINARY_VERSION) {
+                throw new IOException("Unsupported trace version " + version);
+            }
+
+            float[] values = new float[VALUES_PER_RECORD];
+            while (true) {
+                int type;
+                try {
+                    type = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                long timestamp = 0;
+                if (type == RECORD_CURVE) {
+                    values[0] = input.readInt();
+                    values[1] = input.readInt();
+                } else if (type == RECORD_SAMPLE) {
+                    timestamp = input.readLong();
+                    for (int i = 0; i < VALUES_PER_RECORD; i++) {
+                        values[i] = input.readFloat();
+                    }
+                } else if (type != RECORD_NETWORK && type != RECORD_SEGMENT) {
+                    throw new IOException("Unknown record type " + type + " in " + binaryFile);
+                }
+                appendMorphorider(output, (byte) type, timestamp, values, 0);
+            }
+            if (output.ioException() != null) {
+                throw output.ioException();
+            }
+        } finally {
+            input.close();
+            output.close();
+        }
+    }
+}
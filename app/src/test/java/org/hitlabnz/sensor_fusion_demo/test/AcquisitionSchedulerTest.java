@@ -0,0 +1,119 @@
+package org.hitlabnz.sensor_fusion_demo.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.AcquisitionScheduler;
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationHistory;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.junit.Test;
+
+import static org.hitlabnz.sensor_fusion_demo.test.TestUtils.rotationAroundZ;
+import static org.junit.Assert.*;
+
+public class AcquisitionSchedulerTest {
+
+    private static final long PERIOD = 20000000L;
+
+    /**
+     * Collects the samples: time-stamps and the angle around z
+     */
+    private static class Samples implements AcquisitionScheduler.OnSampleListener {
+        final List<Long> timestamps = new ArrayList<Long>();
+        final List<Double> angles = new ArrayList<Double>();
+
+        @Override
+        public void onSample(long timestamp, Quaternion quaternion) {
+            timestamps.add(timestamp);
+            angles.add(2 * Math.atan2(quaternion.getZ(), quaternion.getW()));
+        }
+    }
+
+    @Test
+    public void acquisitionScheduler_irregularSensorEvents_expectExactRate() throws Exception {
+
+        // Arrange: events 3 to 15 ms apart of a rotation of 0.5 rad/s
+        OrientationHistory history = new OrientationHistory(512);
+        Samples samples = new Samples();
+        AcquisitionScheduler scheduler = new AcquisitionScheduler(PERIOD, samples);
+        Random random = new Random(42);
+        long start = 5000000000L;
+
+        // Act: 10 seconds
+        for (long timestamp = start; timestamp < start + 10000000000L; timestamp += 3000000 + random
+                .nextInt(12000000)) {
+            history.add(timestamp, rotationAroundZ((timestamp - start) * 0.5e-9));
+            scheduler.onOrientation(timestamp, history);
+        }
+
+        // Assert
+        assertTrue(samples.timestamps.size() >= 499);
+        for (int i = 0; i < samples.timestamps.size(); i++) {
+            assertEquals(start + i * PERIOD, (long) samples.timestamps.get(i));
+            assertEquals(i * PERIOD * 0.5e-9, samples.angles.get(i), 1e-4);
+        }
+        assertEquals(0, scheduler.getMissedCount());
+        assertEquals(50.0, scheduler.getAchievedRate(), 0.1);
+        // The samples become available with the irregular events, up to 15 ms late
+        assertTrue(scheduler.getMaxDelay() < 15000000L);
+        assertTrue(scheduler.getDelayJitter() > 1000000L);
+        assertTrue(scheduler.getIntervalJitter() > 1000000L);
+        assertTrue(scheduler.getIntervalJitter() < 15000000L);
+        assertTrue(scheduler.getMaxInterval() > PERIOD);
+        assertTrue(scheduler.getMaxInterval() < PERIOD + 15000000L);
+        assertTrue(scheduler.getEventRate() > 100);
+        assertTrue(scheduler.getEventRate() < 125);
+        assertTrue(scheduler.getMaxEventInterval() < 15000000L);
+    }
+
+    @Test
+    public void acquisitionScheduler_slowSensorEvents_expectSamplesInPairs() throws Exception {
+
+        // Arrange: events at 25 Hz, half the rate of the samples
+        OrientationHistory history = new OrientationHistory(512);
+        Samples samples = new Samples();
+        AcquisitionScheduler scheduler = new AcquisitionScheduler(PERIOD, samples);
+
+        // Act: 10 seconds
+        for (long timestamp = 0; timestamp <= 10000000000L; timestamp += 2 * PERIOD) {
+            history.add(timestamp, rotationAroundZ(0));
+            scheduler.onOrientation(timestamp, history);
+        }
+
+        // Assert: all samples are taken, but two at a time with every event
+        assertEquals(501, samples.timestamps.size());
+        assertEquals(50.0, scheduler.getAchievedRate(), 1e-9);
+        assertEquals(PERIOD, scheduler.getIntervalJitter(), 1);
+        assertEquals(2 * PERIOD, scheduler.getMaxInterval());
+        assertEquals(PERIOD, scheduler.getMaxDelay());
+        assertEquals(25.0, scheduler.getEventRate(), 1e-9);
+    }
+
+    @Test
+    public void acquisitionScheduler_longGap_expectSkippedInsteadOfCaughtUp() throws Exception {
+
+        // Arrange: events every 10 ms, then nothing for 5 seconds
+        OrientationHistory history = new OrientationHistory(512);
+        Samples samples = new Samples();
+        AcquisitionScheduler scheduler = new AcquisitionScheduler(PERIOD, samples);
+        for (long timestamp = 0; timestamp <= 100000000L; timestamp += 10000000L) {
+            history.add(timestamp, rotationAroundZ(0));
+            scheduler.onOrientation(timestamp, history);
+        }
+
+        // Act
+        long resumed = 5100000000L;
+        history.add(resumed, rotationAroundZ(0));
+        scheduler.onOrientation(resumed, history);
+
+        // Assert: 6 samples before the gap, the last sample after it at the time of the event
+        assertEquals(7, samples.timestamps.size());
+        assertEquals(resumed, (long) samples.timestamps.get(6));
+        assertTrue(scheduler.getMissedCount() > 200);
+        assertTrue(scheduler.getMissedCount() < 250);
+        assertEquals(resumed - 100000000L, scheduler.getMaxInterval());
+        assertEquals(resumed - 100000000L, scheduler.getMaxEventInterval());
+        assertTrue(scheduler.getAchievedRate() < 2);
+    }
+}
@@ -0,0 +1,69 @@
+package org.hitlabnz.sensor_fusion_demo.test;
+
+import org.hitlabnz.sensor_fusion_demo.scanning.CurveVertices;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class CurveVerticesTest {
+
+    @Test
+    public void curveVertices_addSamples_expectSegmentsContinueAtPen() throws Exception {
+
+        // Arrange
+        CurveVertices curve = new CurveVertices(4);
+
+        // Act: two samples along x, a new segment, one sample along y
+        curve.startSegment();
+        curve.add(1, 0, 0);
+        curve.add(1, 0, 0);
+        curve.startSegment();
+        curve.add(0, 1, 0);
+        CurveVertices.Frame frame = new CurveVertices.Frame();
+        curve.read(frame);
+
+        // Assert
+        assertThat(frame.pointCount, is(5));
+        assertThat(frame.segmentCount, is(2));
+        assertThat(frame.getSegmentLength(0), is(3));
+        assertThat(frame.getSegmentLength(1), is(2));
+        float[] expected = new float[] { 0, 0, 0, 1, 0, 0, 2, 0, 0, 2, 0, 0, 2, 1, 0 };
+        assertArrayEquals(expected, Arrays.copyOf(frame.vertices, 15), 0);
+        assertArrayEquals(new float[] { 0, 0, 0 }, frame.min, 0);
+        assertArrayEquals(new float[] { 2, 1, 0 }, frame.max, 0);
+    }
+
+    @Test
+    public void curveVertices_growBeyondCapacity_expectEarlierFrameUnchanged() throws Exception {
+
+        // Arrange: a frame taken before the arrays grow
+        CurveVertices curve = new CurveVertices(16);
+        for (int i = 0; i < 10; i++) {
+            curve.add(0, 0, 1);
+        }
+        CurveVertices.Frame before = new CurveVertices.Frame();
+        curve.read(before);
+        float[] seen = Arrays.copyOf(before.vertices, before.pointCount * CurveVertices.COMPONENTS);
+
+        // Act: more than 100000 points in many segments
+        for (int i = 0; i < 100000; i++) {
+            if (i % 1000 == 0) {
+                curve.startSegment();
+            }
+            curve.add(1, 0, 0);
+        }
+        CurveVertices.Frame after = new CurveVertices.Frame();
+        curve.read(after);
+
+        // Assert
+        assertArrayEquals(seen, Arrays.copyOf(before.vertices, seen.length), 0);
+        assertArrayEquals(seen, Arrays.copyOf(after.vertices, seen.length), 0);
+        assertThat(after.segmentCount, is(101));
+        assertThat(after.pointCount, is(11 + 100000 + 100));
+        assertEquals(100000, after.max[0], 0);
+        assertEquals(10, after.max[2], 0);
+    }
+}
@@ -0,0 +1,60 @@
+package org.hitlabnz.sensor_fusion_demo.test;
+
+import org.hitlabnz.sensor_fusion_demo.scanning.MatrixDiagnostics;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class MatrixDiagnosticsTest {
+
+    private static float[] matrix(float value) {
+        float[] matrix = new float[16];
+        for (int i = 0; i < 16; i++) {
+            matrix[i] = value + i / 100.0f;
+        }
+        return matrix;
+    }
+
+    @Test
+    public void matrixDiagnostics_recordMoreThanCapacity_expectNewestKept() throws Exception {
+
+        // Arrange
+        MatrixDiagnostics diagnostics = new MatrixDiagnostics(2);
+
+        // Act
+        diagnostics.record(1000, matrix(0));
+        diagnostics.record(1020, matrix(0.5f));
+        diagnostics.record(1040, matrix(-0.5f));
+        float[] latest = new float[16];
+        long timestamp = diagnostics.getLatest(latest);
+        StringBuilder text = new StringBuilder();
+        diagnostics.dump(text);
+
+        // Assert
+        assertThat(diagnostics.getRecordCount(), is(3L));
+        assertThat(timestamp, is(1040L));
+        assertArrayEquals(matrix(-0.5f), latest, 0);
+        String[] lines = text.toString().split("\n");
+        assertThat(lines.length, is(10));
+        assertThat(lines[0], is("1020  ___B___  ___T___  ___N___"));
+        assertThat(lines[1], is("Rx   +0.50    +0.54    +0.58    +0.62"));
+        assertThat(lines[5], is("1040  ___B___  ___T___  ___N___"));
+        assertThat(lines[9], is("Rw   -0.47    -0.43    -0.39    -0.35"));
+    }
+
+    @Test
+    public void matrixDiagnostics_empty_expectNothing() throws Exception {
+
+        // Arrange
+        MatrixDiagnostics diagnostics = new MatrixDiagnostics(4);
+        StringBuilder text = new StringBuilder();
+
+        // Act
+        diagnostics.dump(text);
+
+        // Assert
+        assertThat(diagnostics.getLatest(new float[16]), is(-1L));
+        assertThat(text.length(), is(0));
+    }
+}
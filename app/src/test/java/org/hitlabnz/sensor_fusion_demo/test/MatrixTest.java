@@ -0,0 +1,142 @@
+package org.hitlabnz.sensor_fusion_demo.test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.SensorMath;
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationSnapshot;
+import org.hitlabnz.sensor_fusion_demo.representation.MathBackend;
+import org.hitlabnz.sensor_fusion_demo.representation.Matrix;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Matrix has to give the same results, no matter how many threads use it at the same time.
+ */
+public class MatrixTest {
+
+    private static final int THREADS = 8;
+    private static final int TASKS = 64;
+    private static final int STEPS = 50000;
+
+    @Test
+    public void matrix_parallelRotateAndMultiply_expectBitExactSingleThreadedResults() throws Exception {
+
+        // Arrange
+        float[][] expected = new float[TASKS][];
+        for (int task = 0; task < TASKS; task++) {
+            expected[task] = transform(task, null);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<float[]>> results = new ArrayList<Future<float[]>>();
+
+        // Act
+        try {
+            for (int task = 0; task < TASKS; task++) {
+                final int seed = task;
+                // Every other task brings its own scratch, the others use the one of their thread
+                final float[] scratch = task % 2 == 0 ? new float[Matrix.SCRATCH_SIZE] : null;
+                results.add(executor.submit(new Callable<float[]>() {
+                    @Override
+                    public float[] call() {
+                        return transform(seed, scratch);
+                    }
+                }));
+            }
+
+            // Assert
+            for (int task = 0; task < TASKS; task++) {
+                assertArrayEquals(expected[task], results.get(task).get(), 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void snapshotRotationMatrix_intoBuffer_expectSameMatrixAsAxisAngleRotation() throws Exception {
+
+        // Arrange: an orientation published like the fusions do, (x, y, z, -w) and the matrix of (x, y, z, w)
+        float[] rotation = new float[] { 0.113f, 0.226f, 0.339f, 0.906f };
+        float norm = (float) Math.sqrt(rotation[0] * rotation[0] + rotation[1] * rotation[1] + rotation[2]
+                * rotation[2] + rotation[3] * rotation[3]);
+        for (int i = 0; i < 4; i++) {
+            rotation[i] /= norm;
+        }
+        float[] matrix = new float[16];
+        SensorMath.getRotationMatrixFromVector(matrix, rotation);
+        OrientationSnapshot snapshot = new OrientationSnapshot();
+        snapshot.publish(new float[] { rotation[0], rotation[1], rotation[2], -rotation[3] }, matrix);
+        FloatBuffer buffer = ByteBuffer.allocateDirect(16 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        // Act
+        snapshot.readRotationMatrix(buffer);
+
+        // Assert: the renderer used to rotate by the angle and axis of the published quaternion, as glRotatef does
+        float[] expected = new float[16];
+        Matrix.setRotateM(expected, 0, (float) (2.0f * Math.acos(-rotation[3]) * 180.0f / Math.PI), rotation[0],
+                rotation[1], rotation[2]);
+        assertEquals(0, buffer.position());
+        for (int i = 0; i < 16; i++) {
+            assertEquals(expected[i], buffer.get(i), 1e-5f);
+        }
+    }
+
+    @Test
+    public void mathBackend_withoutVectorApi_expectScalarFallback() throws Exception {
+
+        // Arrange: the vector backend is not part of the app
+        float[] lhs = new float[16];
+        float[] rhs = new float[16];
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        Matrix.setRotateM(lhs, 0, 30, 0.2f, 0.5f, 0.8f);
+        Matrix.setRotateM(rhs, 0, 45, 1, 0, 0);
+
+        // Act
+        MathBackend backend = MathBackend.getDefault();
+        backend.multiplyMM(actual, 0, lhs, 0, rhs, 0);
+        Matrix.multiplyMM(expected, 0, lhs, 0, rhs, 0);
+
+        // Assert
+        assertEquals("scalar", backend.getName());
+        assertArrayEquals(expected, actual, 0);
+        try {
+            MathBackend.forName("vector");
+            fail("Vector backend should not be available");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A chain of rotations and multiplications that depends on the seed
+     */
+    private static float[] transform(int seed, float[] scratch) {
+        float[] m = new float[16];
+        float[] rotated = new float[16];
+        float[] product = new float[16];
+        Matrix.setIdentityM(m, 0);
+        for (int i = 0; i < STEPS; i++) {
+            float angle = seed + i * 0.7f;
+            if (scratch == null) {
+                Matrix.rotateM(m, 0, angle, 0.2f, 0.5f, 0.8f);
+                Matrix.rotateM(rotated, 0, m, 0, -angle, 1, 0, seed);
+            } else {
+                Matrix.rotateM(m, 0, angle, 0.2f, 0.5f, 0.8f, scratch);
+                Matrix.rotateM(rotated, 0, m, 0, -angle, 1, 0, seed, scratch);
+            }
+            Matrix.multiplyMM(product, 0, rotated, 0, m, 0);
+            System.arraycopy(product, 0, m, 0, 16);
+        }
+        return m;
+    }
+}
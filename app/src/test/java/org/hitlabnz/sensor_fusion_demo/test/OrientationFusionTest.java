@@ -0,0 +1,308 @@
+package org.hitlabnz.sensor_fusion_demo.test;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.CalibratedGyroscopeFusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.ExtendedKalmanFilterFusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.MadgwickFusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.MahonyFusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.OrientationFusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.RotationVectorFusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.SensorMath;
+import org.hitlabnz.sensor_fusion_demo.fusion.SensorType;
+import org.hitlabnz.sensor_fusion_demo.fusion.StationaryDetector;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * The fusions do not depend on Android, so they can be fed with synthetic sensor events.
+ */
+public class OrientationFusionTest {
+
+    @Test
+    public void calibratedGyroscope_constantRotationAroundZ_expectIntegratedAngle() throws Exception {
+
+        // Arrange
+        CalibratedGyroscopeFusion fusion = new CalibratedGyroscopeFusion();
+        float[] rate = new float[] { 0, 0, 1.0f };
+
+        // Act
+        long timestamp = 1000000000L;
+        boolean firstEventChanged = fusion.onSensorEvent(SensorType.GYROSCOPE, timestamp, rate);
+        for (int i = 1; i <= 100; i++) {
+            fusion.onSensorEvent(SensorType.GYROSCOPE, timestamp + i * 10000000L, rate);
+        }
+
+        // Assert: one second at one radian per second
+        Quaternion q = fusion.getQuaternion();
+        assertThat(firstEventChanged, is(false));
+        assertEquals(0.0f, q.x(), 1e-5f);
+        assertEquals(0.0f, q.y(), 1e-5f);
+        assertEquals(Math.sin(0.5), Math.abs(q.z()), 1e-4);
+        assertEquals(Math.cos(0.5), Math.abs(q.w()), 1e-4);
+    }
+
+    @Test
+    public void calibratedGyroscope_batchedBurstWithDuplicatesAndGap_expectOnlyTimestampsCount() throws Exception {
+
+        // Arrange
+        CalibratedGyroscopeFusion fusion = new CalibratedGyroscopeFusion();
+        float[] rate = new float[] { 0, 0, 1.0f };
+        long timestamp = 1000000000L;
+
+        // Act: a burst of 50 events, each delivered twice and the last one once more out of order
+        for (int i = 0; i <= 50; i++) {
+            fusion.onSensorEvent(SensorType.GYROSCOPE, timestamp + i * 10000000L, rate);
+            fusion.onSensorEvent(SensorType.GYROSCOPE, timestamp + i * 10000000L, rate);
+        }
+        boolean reorderedChanged = fusion.onSensorEvent(SensorType.GYROSCOPE, timestamp + 49 * 10000000L, rate);
+        // the sensor was stopped for ten seconds, then another 50 events
+        timestamp += 10500000000L;
+        boolean afterGapChanged = fusion.onSensorEvent(SensorType.GYROSCOPE, timestamp, rate);
+        for (int i = 1; i <= 50; i++) {
+            fusion.onSensorEvent(SensorType.GYROSCOPE, timestamp + i * 10000000L, rate);
+        }
+
+        // Assert: one second at one radian per second, the gap is not integrated
+        Quaternion q = fusion.getQuaternion();
+        assertThat(reorderedChanged, is(false));
+        assertThat(afterGapChanged, is(false));
+        assertEquals(Math.sin(0.5), Math.abs(q.z()), 1e-4);
+        assertEquals(Math.cos(0.5), Math.abs(q.w()), 1e-4);
+    }
+
+    @Test
+    public void rotationVector_event_expectMatrixOfSensorMath() throws Exception {
+
+        // Arrange
+        RotationVectorFusion fusion = new RotationVectorFusion();
+        float[] rotationVector = new float[] { 0.1f, 0.2f, 0.3f };
+        float[] expected = new float[16];
+        SensorMath.getRotationMatrixFromVector(expected, rotationVector);
+
+        // Act
+        boolean changed = fusion.onSensorEvent(SensorType.ROTATION_VECTOR, 1, rotationVector);
+        boolean ignored = fusion.onSensorEvent(SensorType.GYROSCOPE, 2, new float[3]);
+
+        // Assert
+        assertThat(changed, is(true));
+        assertThat(ignored, is(false));
+        assertArrayEquals(expected, fusion.getRotationMatrix().getMatrix(), 0.0f);
+        assertEquals(0.1f, fusion.getQuaternion().x(), 0.0f);
+        assertEquals(0.3f, fusion.getQuaternion().z(), 0.0f);
+    }
+
+    @Test
+    public void sensorMath_quaternionFromVector_expectCalculatedW() throws Exception {
+
+        // Arrange
+        float[] q = new float[4];
+
+        // Act
+        SensorMath.getQuaternionFromVector(q, new float[] { 0.0f, 0.6f, 0.0f });
+
+        // Assert
+        assertEquals(0.8f, q[0], 1e-6f);
+        assertEquals(0.6f, q[2], 0.0f);
+    }
+
+    /**
+     * Feeds a rotation around the z axis at 0.5 rad/s for 20 seconds: Gyroscope at 200 Hz with a constant bias, rotation
+     * vector at 50 Hz without noise. Every 50th rotation vector is a jump by 90 degrees.
+     */
+    private static void feedBiasedRotation(ExtendedKalmanFilterFusion fusion, float[] bias) {
+        long start = 1000000000L;
+        for (int i = 0; i < 4000; i++) {
+            long timestamp = start + i * 5000000L;
+            fusion.onSensorEvent(SensorType.GYROSCOPE, timestamp,
+                    new float[] { bias[0], bias[1], 0.5f + bias[2] });
+            if (i % 4 == 0) {
+                double angle = 0.5 * i * 0.005;
+                if (i % 200 == 100) {
+                    angle += Math.PI / 2;
+                }
+                fusion.onSensorEvent(SensorType.ROTATION_VECTOR, timestamp,
+                        new float[] { 0, 0, (float) Math.sin(angle / 2), (float) Math.cos(angle / 2) });
+            }
+        }
+    }
+
+    @Test
+    public void extendedKalmanFilter_biasedGyroscope_expectBiasEstimated() throws Exception {
+
+        // Arrange
+        ExtendedKalmanFilterFusion fusion = new ExtendedKalmanFilterFusion();
+        float[] bias = new float[] { 0.02f, -0.01f, 0.03f };
+        float[] estimatedBias = new float[3];
+
+        // Act
+        feedBiasedRotation(fusion, bias);
+        fusion.getGyroscopeBias(estimatedBias);
+
+        // Assert
+        assertArrayEquals(bias, estimatedBias, 0.003f);
+        assertThat(fusion.getResetCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void extendedKalmanFilter_rotationVectorJumps_expectJumpsRejected() throws Exception {
+
+        // Arrange
+        ExtendedKalmanFilterFusion fusion = new ExtendedKalmanFilterFusion();
+        RotationVectorFusion reference = new RotationVectorFusion();
+        double angle = 0.5 * 3999 * 0.005;
+        reference.onSensorEvent(SensorType.ROTATION_VECTOR, 0,
+                new float[] { 0, 0, (float) Math.sin(angle / 2), (float) Math.cos(angle / 2) });
+
+        // Act
+        feedBiasedRotation(fusion, new float[3]);
+
+        // Assert: Same orientation and representation as the rotation vector fusion
+        Quaternion expected = reference.getQuaternion();
+        Quaternion actual = fusion.getQuaternion();
+        assertEquals(1.0f, Math.abs(expected.dotProduct(actual)), 1e-4f);
+        assertArrayEquals(reference.getRotationMatrix().getMatrix(), fusion.getRotationMatrix().getMatrix(), 0.01f);
+    }
+
+    @Test
+    public void extendedKalmanFilter_accelerometerAndCompass_expectOrientationOfCompass() throws Exception {
+
+        // Arrange
+        ExtendedKalmanFilterFusion fusion = new ExtendedKalmanFilterFusion(
+                ExtendedKalmanFilterFusion.Reference.ACCELEROMETER_COMPASS);
+        float[] gravity = new float[] { 1.0f, 2.0f, 9.5f };
+        float[] magneticField = new float[] { 5.0f, 20.0f, -40.0f };
+        float[] expected = new float[16];
+        SensorMath.getRotationMatrix(expected, null, gravity, magneticField);
+
+        // Act
+        boolean beforeCompass = fusion.onSensorEvent(SensorType.ACCELEROMETER, 1, gravity);
+        fusion.onSensorEvent(SensorType.MAGNETIC_FIELD, 2, magneticField);
+        boolean afterCompass = fusion.onSensorEvent(SensorType.ACCELEROMETER, 3, gravity);
+
+        // Assert: The matrix of the filter is the rotation matrix of the sensor manager, as used by OpenGL
+        assertThat(beforeCompass, is(false));
+        assertThat(afterCompass, is(true));
+        assertArrayEquals(expected, fusion.getRotationMatrix().getMatrix(), 1e-5f);
+    }
+
+    /**
+     * Initialises the fusion with a device lying flat and pointing north, then rests the device in another orientation
+     * for 20 seconds (gyroscope at 200 Hz, measuring only its bias)
+     */
+    private static void feedRestingDevice(OrientationFusion fusion, float[] gravity, float[] magneticField,
+            float[] gyroscopeBias) {
+        long start = 1000000000L;
+        fusion.onSensorEvent(SensorType.ACCELEROMETER, start, new float[] { 0, 0, 9.81f });
+        fusion.onSensorEvent(SensorType.MAGNETIC_FIELD, start, new float[] { 0, 20.0f, -40.0f });
+        fusion.onSensorEvent(SensorType.GYROSCOPE, start, new float[3]);
+        fusion.onSensorEvent(SensorType.ACCELEROMETER, start, gravity);
+        fusion.onSensorEvent(SensorType.MAGNETIC_FIELD, start, magneticField);
+        for (int i = 1; i <= 4000; i++) {
+            fusion.onSensorEvent(SensorType.GYROSCOPE, start + i * 5000000L, gyroscopeBias);
+        }
+    }
+
+    @Test
+    public void madgwick_restingDevice_expectOrientationOfCompass() throws Exception {
+
+        // Arrange
+        MadgwickFusion fusion = new MadgwickFusion(true, 0.5f);
+        float[] gravity = new float[] { 1.0f, 2.0f, 9.5f };
+        float[] magneticField = new float[] { 5.0f, 20.0f, -40.0f };
+        float[] expected = new float[16];
+        SensorMath.getRotationMatrix(expected, null, gravity, magneticField);
+
+        // Act
+        feedRestingDevice(fusion, gravity, magneticField, new float[3]);
+
+        // Assert: Converged to the rotation matrix of the sensor manager, as used by OpenGL
+        assertArrayEquals(expected, fusion.getRotationMatrix().getMatrix(), 0.01f);
+    }
+
+    @Test
+    public void madgwick_withoutMagnetometer_expectGravityAligned() throws Exception {
+
+        // Arrange
+        MadgwickFusion fusion = new MadgwickFusion(false, 0.5f);
+        float[] gravity = new float[] { 3.0f, -2.0f, 9.0f };
+        float norm = (float) Math.sqrt(3 * 3 + 2 * 2 + 9 * 9);
+
+        // Act
+        feedRestingDevice(fusion, gravity, new float[3], new float[3]);
+
+        // Assert: The third row of the rotation matrix is the up direction in device coordinates
+        float[] matrix = fusion.getRotationMatrix().getMatrix();
+        assertEquals(3.0f / norm, matrix[8], 0.01f);
+        assertEquals(-2.0f / norm, matrix[9], 0.01f);
+        assertEquals(9.0f / norm, matrix[10], 0.01f);
+    }
+
+    @Test
+    public void mahony_restingDevice_expectOrientationOfCompass() throws Exception {
+
+        // Arrange
+        MahonyFusion fusion = new MahonyFusion(true, 2.0f, 0.0f);
+        float[] gravity = new float[] { 1.0f, 2.0f, 9.5f };
+        float[] magneticField = new float[] { 5.0f, 20.0f, -40.0f };
+        float[] expected = new float[16];
+        SensorMath.getRotationMatrix(expected, null, gravity, magneticField);
+
+        // Act
+        feedRestingDevice(fusion, gravity, magneticField, new float[3]);
+
+        // Assert
+        assertArrayEquals(expected, fusion.getRotationMatrix().getMatrix(), 0.01f);
+    }
+
+    @Test
+    public void mahony_biasedGyroscope_expectBiasEstimated() throws Exception {
+
+        // Arrange
+        MahonyFusion fusion = new MahonyFusion(true, 2.0f, 0.5f);
+        float[] gravity = new float[] { 0, 0, 9.81f };
+        float[] magneticField = new float[] { 0, 20.0f, -40.0f };
+        float[] bias = new float[] { 0.01f, -0.02f, 0.015f };
+        float[] estimatedBias = new float[3];
+
+        // Act
+        feedRestingDevice(fusion, gravity, magneticField, bias);
+        fusion.getGyroscopeBias(estimatedBias);
+
+        // Assert: The bias is removed, the device still rests in the initial orientation
+        assertArrayEquals(bias, estimatedBias, 0.003f);
+        assertEquals(1.0f, fusion.getRotationMatrix().getMatrix()[0], 0.01f);
+        assertEquals(1.0f, fusion.getRotationMatrix().getMatrix()[5], 0.01f);
+    }
+
+    @Test
+    public void stationaryDetector_restThenMotion_expectStationaryAfterQuietPeriodAndMovingImmediately()
+            throws Exception {
+
+        // Arrange: 1 s quiet period, gyroscope events every 10 ms
+        StationaryDetector detector = new StationaryDetector(1000000000L);
+        float[] noise = new float[] { 0.01f, -0.02f, 0.01f };
+        float[] motion = new float[] { 0, 0, 0.5f };
+        long timestamp = 1000000000L;
+
+        // Act & Assert: Resting for just under a second
+        for (int i = 0; i < 100; i++) {
+            assertFalse(detector.onGyroscopeEvent(timestamp, noise));
+            timestamp += 10000000L;
+        }
+        assertFalse(detector.isStationary());
+
+        // The quiet period is over
+        assertTrue(detector.onGyroscopeEvent(timestamp, noise));
+        assertTrue(detector.isStationary());
+        assertFalse(detector.onGyroscopeEvent(timestamp + 200000000L, noise));
+
+        // The first event with motion switches back
+        assertTrue(detector.onGyroscopeEvent(timestamp + 400000000L, motion));
+        assertFalse(detector.isStationary());
+        assertFalse(detector.onGyroscopeEvent(timestamp + 410000000L, noise));
+        assertThat(detector.getStationaryTransitionCount(), is(1));
+        assertThat(detector.getMotionTransitionCount(), is(1));
+    }
+}
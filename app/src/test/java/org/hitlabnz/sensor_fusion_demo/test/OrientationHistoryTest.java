@@ -0,0 +1,153 @@
+package org.hitlabnz.sensor_fusion_demo.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationHistory;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.junit.Test;
+
+import static org.hitlabnz.sensor_fusion_demo.test.TestUtils.rotationAroundZ;
+import static org.junit.Assert.*;
+
+public class OrientationHistoryTest {
+
+    /**
+     * Angle of a rotation around z
+     */
+    private static double angleAroundZ(Quaternion quaternion) {
+        return 2 * Math.atan2(quaternion.getZ(), quaternion.getW());
+    }
+
+    @Test
+    public void getQuaternionAt_betweenTwoOrientations_expectInterpolated() throws Exception {
+
+        // Arrange
+        OrientationHistory history = new OrientationHistory(8);
+        history.add(1000, rotationAroundZ(0.0));
+        history.add(2000, rotationAroundZ(0.4));
+        Quaternion quaternion = new Quaternion();
+
+        // Act
+        boolean found = history.getQuaternionAt(1250, quaternion);
+
+        // Assert
+        assertTrue(found);
+        assertEquals(0.1, angleAroundZ(quaternion), 1e-5);
+    }
+
+    @Test
+    public void getQuaternionAt_outsideOfHistory_expectOldestRejectedAndNewestClamped() throws Exception {
+
+        // Arrange
+        OrientationHistory history = new OrientationHistory(8);
+        Quaternion quaternion = new Quaternion();
+
+        // Act & Assert
+        assertFalse(history.getQuaternionAt(1000, quaternion));
+        history.add(1000, rotationAroundZ(0.1));
+        history.add(2000, rotationAroundZ(0.2));
+        assertFalse(history.getQuaternionAt(999, quaternion));
+        assertTrue(history.getQuaternionAt(1000, quaternion));
+        assertEquals(0.1, angleAroundZ(quaternion), 1e-6);
+        assertTrue(history.getQuaternionAt(5000, quaternion));
+        assertEquals(0.2, angleAroundZ(quaternion), 1e-6);
+    }
+
+    @Test
+    public void getQuaternionAt_moreOrientationsThanCapacity_expectOnlyNewestKept() throws Exception {
+
+        // Arrange
+        OrientationHistory history = new OrientationHistory(16);
+        for (int i = 0; i < 100; i++) {
+            history.add(i * 1000L, rotationAroundZ(i * 0.01));
+        }
+        Quaternion quaternion = new Quaternion();
+
+        // Act & Assert
+        assertFalse(history.getQuaternionAt(83999, quaternion));
+        for (int i = 84; i < 99; i++) {
+            assertTrue(history.getQuaternionAt(i * 1000L + 500, quaternion));
+            assertEquals(i * 0.01 + 0.005, angleAroundZ(quaternion), 1e-5);
+        }
+    }
+
+    @Test
+    public void add_olderThanNewest_expectIgnored() throws Exception {
+
+        // Arrange
+        OrientationHistory history = new OrientationHistory(8);
+        history.add(2000, rotationAroundZ(0.2));
+        Quaternion quaternion = new Quaternion();
+
+        // Act
+        history.add(1000, rotationAroundZ(0.1));
+
+        // Assert
+        assertFalse(history.getQuaternionAt(1000, quaternion));
+    }
+
+    /**
+     * One writer adds a rotation whose angle is a function of the time, many readers look up times that are still in
+     * the history. A torn read would return an angle that does not belong to the time.
+     */
+    @Test
+    public void getQuaternionAt_concurrentWriter_expectConsistentOrientations() throws Exception {
+
+        // Arrange
+        final int capacity = 64;
+        final int orientations = 200000;
+        final OrientationHistory history = new OrientationHistory(capacity);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+        final AtomicLong added = new AtomicLong();
+
+        // Act
+        Future<?> writer = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < orientations; i++) {
+                    history.add(i * 1000L, rotationAroundZ((i % 1000) * 0.001));
+                    added.set(i + 1);
+                }
+            }
+        });
+        for (int r = 0; r < 4; r++) {
+            readers.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Quaternion quaternion = new Quaternion();
+                    int errors = 0;
+                    for (int i = 0; i < orientations; i++) {
+                        // Between two of the newest orientations, which are overwritten soon
+                        long sample = added.get() - 2 - i % (capacity - 2);
+                        if (sample >= 0 && sample % 1000 != 999
+                                && history.getQuaternionAt(sample * 1000L + 500, quaternion)) {
+                            double expected = (sample % 1000) * 0.001 + 0.0005;
+                            if (Math.abs(angleAroundZ(quaternion) - expected) > 1e-4) {
+                                errors++;
+                            }
+                        }
+                    }
+                    return errors;
+                }
+            }));
+        }
+        writer.get();
+        int errors = 0;
+        for (Future<Integer> reader : readers) {
+            errors += reader.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(0, errors);
+    }
+}
@@ -1,6 +1,13 @@
 package org.hitlabnz.sensor_fusion_demo.test;
 
+import java.util.Arrays;
+
+import org.hitlabnz.sensor_fusion_demo.representation.CompactQuaternion;
+import org.hitlabnz.sensor_fusion_demo.representation.MatrixF4x4;
 import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.hitlabnz.sensor_fusion_demo.representation.QuaternionArray;
+import org.hitlabnz.sensor_fusion_demo.representation.QuaternionMath;
+import org.hitlabnz.sensor_fusion_demo.representation.Vector3f;
 import org.junit.Test;
 
 import static org.hamcrest.CoreMatchers.*;
@@ -49,5 +56,208 @@ public class QuaternionTest {
         assertThat(q3.z(), is(not(equalTo(0.0f))));
     }
 
-}
+    @Test
+    public void compactQuaternion_multiplySlerpAndMatrix_expectSameValuesAsQuaternion() throws Exception {
+
+        // Arrange
+        Quaternion q1 = new Quaternion();
+        Quaternion q2 = new Quaternion();
+        q1.setXYZW(0.1f, 0.2f, 0.3f, 0.9f);
+        q1.normalise();
+        q2.setXYZW(-0.4f, 0.1f, 0.2f, -0.8f); // negative dot-product with q1
+        q2.normalise();
+        CompactQuaternion c1 = new CompactQuaternion();
+        CompactQuaternion c2 = new CompactQuaternion();
+        c1.set(q1);
+        c2.set(q2);
+        float[] compactMatrix = new float[16];
+
+        // Act
+        q1.multiplyByQuat(q2);
+        c1.multiplyByQuat(c2);
+        q1.slerp(q2, q1, 0.3f);
+        c1.slerp(c2, c1, 0.3f);
+        c1.toMatrix4x4(compactMatrix, 0);
+
+        // Assert
+        assertThat(c1.x(), is(equalTo(q1.x())));
+        assertThat(c1.y(), is(equalTo(q1.y())));
+        assertThat(c1.z(), is(equalTo(q1.z())));
+        assertThat(c1.w(), is(equalTo(q1.w())));
+        assertArrayEquals(q1.getMatrix4x4().getMatrix(), compactMatrix, 0);
+    }
+
+    @Test
+    public void quaternionMath_normaliseMultiplyAndSlerp_expectSameValuesInBothQuaternions() throws Exception {
+
+        // Arrange: the expected values straight from the shared math
+        float[] a = { 0.3f, -0.2f, 0.5f, 1.1f };
+        float[] b = { -0.6f, 0.4f, 0.1f, -0.7f };
+        Quaternion expected = new Quaternion();
+        QuaternionMath.normalise(a[0], a[1], a[2], a[3], expected);
+        QuaternionMath.multiply(expected.x(), expected.y(), expected.z(), expected.w(), b[0], b[1], b[2], b[3],
+                expected);
+        QuaternionMath.slerp(expected.x(), expected.y(), expected.z(), expected.w(), b[0], b[1], b[2], b[3], 0.7f,
+                expected);
+        Quaternion q = new Quaternion();
+        Quaternion qb = new Quaternion();
+        q.setXYZW(a[0], a[1], a[2], a[3]);
+        qb.setXYZW(b[0], b[1], b[2], b[3]);
+        CompactQuaternion c = new CompactQuaternion(a[0], a[1], a[2], a[3]);
+        CompactQuaternion cb = new CompactQuaternion(b[0], b[1], b[2], b[3]);
 
+        // Act
+        q.normalise();
+        q.multiplyByQuat(qb);
+        q.slerp(qb, q, 0.7f);
+        c.normalise();
+        c.multiplyByQuat(cb);
+        c.slerp(cb, c, 0.7f);
+
+        // Assert
+        assertArrayEquals(expected.array(), q.array(), 0);
+        assertArrayEquals(expected.array(), new float[] { c.x(), c.y(), c.z(), c.w() }, 0);
+    }
+
+    @Test
+    public void quaternion_multiplyIntoOutput_expectUpdatedMatrix() throws Exception {
+
+        // Arrange
+        Quaternion q1 = new Quaternion();
+        Quaternion q2 = new Quaternion();
+        Quaternion output = new Quaternion();
+        q2.setAxisAngle(new Vector3f(0, 0, 1), 90);
+        float identityY0 = output.getMatrix4x4().getMatrix()[4];
+
+        // Act
+        q1.multiplyByQuat(q2, output);
+
+        // Assert
+        assertThat(identityY0, is(equalTo(0.0f)));
+        assertEquals(-1.0f, output.getMatrix4x4().getMatrix()[4], 1e-6f);
+    }
+
+    @Test
+    public void quaternion_setRowMajor_expectSourceMatrixUntouched() throws Exception {
+
+        // Arrange
+        Quaternion q = new Quaternion();
+        float[] rotationMatrix = new float[] { 0, -1, 0, 0, 1, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+        float[] copy = rotationMatrix.clone();
+
+        // Act
+        q.setRowMajor(rotationMatrix);
+        q.normalise();
+        q.getMatrix4x4();
+
+        // Assert
+        assertArrayEquals(copy, rotationMatrix, 0);
+        assertEquals(Math.sqrt(0.5), Math.abs(q.w()), 1e-6);
+        assertEquals(Math.sqrt(0.5), Math.abs(q.z()), 1e-6);
+    }
+
+    @Test
+    public void matrix_setRotation_expectSameValuesAsElementSetters() throws Exception {
+
+        for (int size : new int[] { 9, 16 }) {
+            for (boolean columnMajor : new boolean[] { true, false }) {
+
+                // Arrange
+                float x = 0.1f, y = -0.3f, z = 0.2f, w = 0.927f;
+                MatrixF4x4 expected = new MatrixF4x4();
+                MatrixF4x4 actual = new MatrixF4x4();
+                expected.setMatrix(new float[size]);
+                actual.setMatrix(new float[size]);
+                expected.setColumnMajor(columnMajor);
+                actual.setColumnMajor(columnMajor);
+
+                // Act
+                expected.setX0(1 - 2 * (y * y) - 2 * (z * z));
+                expected.setX1(2 * (x * y) + 2 * (w * z));
+                expected.setX2(2 * (x * z) - 2 * (w * y));
+                expected.setY0(2 * (x * y) - 2 * (w * z));
+                expected.setY1(1 - 2 * (x * x) - 2 * (z * z));
+                expected.setY2(2 * (y * z) + 2 * (w * x));
+                expected.setZ0(2 * (x * z) + 2 * (w * y));
+                expected.setZ1(2 * (y * z) - 2 * (w * x));
+                expected.setZ2(1 - 2 * (x * x) - 2 * (y * y));
+                if (size == 16) {
+                    expected.setW3(1);
+                }
+                actual.setRotation(x, y, z, w);
+
+                // Assert
+                assertArrayEquals(expected.getMatrix(), actual.getMatrix(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void quaternionArray_batchOperations_expectSameValuesAsQuaternion() throws Exception {
+
+        // Arrange
+        int size = 100;
+        QuaternionArray a = new QuaternionArray(size);
+        QuaternionArray b = new QuaternionArray(size);
+        Quaternion[] expected = new Quaternion[size];
+        Quaternion[] other = new Quaternion[size];
+        for (int i = 0; i < size; i++) {
+            expected[i] = new Quaternion();
+            expected[i].setXYZW(0.01f * i, 0.5f, -0.2f, 0.8f);
+            other[i] = new Quaternion();
+            other[i].setXYZW(0.3f, -0.01f * i, 0.1f, i % 2 == 0 ? 0.9f : -0.9f);
+            other[i].normalise();
+            a.set(i, expected[i]);
+            b.set(i, other[i]);
+        }
+        float[] matrices = new float[16 * size];
+
+        // Act
+        a.normalise();
+        a.multiplyByQuat(b, a);
+        a.slerp(b, a, 0.25f);
+        a.toMatrix4x4(matrices, 0);
+        for (int i = 0; i < size; i++) {
+            expected[i].normalise();
+            expected[i].multiplyByQuat(other[i], expected[i]);
+            expected[i].slerp(other[i], expected[i], 0.25f);
+        }
+
+        // Assert
+        Quaternion actual = new Quaternion();
+        float[] actualMatrix = new float[16];
+        for (int i = 0; i < size; i++) {
+            a.get(i, actual);
+            assertArrayEquals(expected[i].array(), actual.array(), 0);
+            System.arraycopy(matrices, 16 * i, actualMatrix, 0, 16);
+            assertArrayEquals(expected[i].getMatrix4x4().getMatrix(), actualMatrix, 0);
+        }
+    }
+
+    @Test
+    public void quaternionArray_integrateConstantRate_expectAccumulatedAngle() throws Exception {
+
+        // Arrange: one second at one radian per second around z, in 100 steps
+        int size = 100;
+        float[] rateX = new float[size];
+        float[] rateY = new float[size];
+        float[] rateZ = new float[size];
+        float[] dT = new float[size];
+        Arrays.fill(rateZ, 1.0f);
+        Arrays.fill(dT, 0.01f);
+        QuaternionArray deltas = new QuaternionArray(size);
+        QuaternionArray orientations = new QuaternionArray(size);
+
+        // Act
+        deltas.setFromAngularVelocity(rateX, rateY, rateZ, dT);
+        deltas.integrate(new Quaternion(), orientations);
+
+        // Assert
+        Quaternion last = new Quaternion();
+        orientations.get(size - 1, last);
+        assertEquals(0.0f, last.x(), 1e-6f);
+        assertEquals(0.0f, last.y(), 1e-6f);
+        assertEquals(Math.sin(0.5), last.z(), 1e-5);
+        assertEquals(Math.cos(0.5), last.w(), 1e-5);
+    }
+}
@@ -0,0 +1,174 @@
+package org.hitlabnz.sensor_fusion_demo.test;
+
+import org.hitlabnz.sensor_fusion_demo.scanning.ScanJournal;
+import org.hitlabnz.sensor_fusion_demo.scanning.TraceWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hitlabnz.sensor_fusion_demo.test.TestUtils.readLines;
+import static org.hitlabnz.sensor_fusion_demo.test.TestUtils.writeScan;
+import static org.junit.Assert.*;
+
+public class ScanJournalTest {
+
+    /**
+     * Number of records of the scans, more than two blocks
+     */
+    private static final int RECORDS = 3 + 2 * ScanJournal.RECORDS_PER_BLOCK + 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scanJournal_export_expectSameTextAsTraceWriter() throws Exception {
+
+        // Arrange
+        File journalFile = folder.newFile("mrider.journal");
+        File textFile = folder.newFile("mrider.txt");
+        File expectedFile = folder.newFile("expected.txt");
+        ScanJournal journal = ScanJournal.create(journalFile);
+        TraceWriter writer = new TraceWriter(expectedFile, TraceWriter.Format.MORPHORIDER, 1024);
+        writer.start();
+
+        // Act
+        writeScan(journal, RECORDS);
+        journal.close();
+        writeScan(writer, RECORDS);
+        writer.close();
+        long records = ScanJournal.exportMorphorider(journalFile, textFile);
+
+        // Assert
+        assertThat(records, is((long) RECORDS));
+        assertThat(journal.getRecordCount(), is((long) RECORDS));
+        assertThat(readLines(textFile), is(equalTo(readLines(expectedFile))));
+    }
+
+    @Test
+    public void scanJournal_killedWithCorruptLastRecord_expectRecoveredBeforeIt() throws Exception {
+
+        // Arrange: the journal is not closed, as if the app was killed, and the last record is damaged
+        File journalFile = folder.newFile("mrider.journal");
+        ScanJournal journal = ScanJournal.create(journalFile);
+        writeScan(journal, RECORDS);
+        long lastRecord = recordPosition(RECORDS - 1);
+        corrupt(journalFile, lastRecord + 20);
+
+        // Act
+        boolean closed = ScanJournal.isClosed(journalFile);
+        long records = ScanJournal.recover(journalFile);
+
+        // Assert
+        assertFalse(closed);
+        assertThat(records, is((long) RECORDS - 1));
+        assertThat(journalFile.length(), is((long) ScanJournal.BLOCK_SIZE * 4));
+        assertThat(readByte(journalFile, lastRecord + 20), is(0));
+        File textFile = folder.newFile("mrider.txt");
+        assertThat(ScanJournal.exportMorphorider(journalFile, textFile), is((long) RECORDS - 1));
+        assertThat(readLines(textFile).size(), is(RECORDS - 1));
+    }
+
+    @Test
+    public void scanJournal_corruptMiddleBlock_expectRecoveredUpToIt() throws Exception {
+
+        // Arrange
+        File journalFile = folder.newFile("mrider.journal");
+        ScanJournal journal = ScanJournal.create(journalFile);
+        writeScan(journal, RECORDS);
+        journal.close();
+        corrupt(journalFile, recordPosition(ScanJournal.RECORDS_PER_BLOCK + 5) + 20);
+
+        // Act
+        long records = ScanJournal.recover(journalFile);
+
+        // Assert
+        assertThat(records, is((long) ScanJournal.RECORDS_PER_BLOCK));
+        assertThat(journalFile.length(), is((long) ScanJournal.BLOCK_SIZE * 2));
+    }
+
+    @Test
+    public void scanJournal_tornCommit_expectPreviousCommitUsed() throws Exception {
+
+        // Arrange: the count of the last commit was written, but not its checksum
+        File journalFile = folder.newFile("mrider.journal");
+        ScanJournal journal = ScanJournal.create(journalFile);
+        writeScan(journal, RECORDS);
+        long lastBlock = ScanJournal.BLOCK_SIZE * 3L;
+        int lastBlockRecords = RECORDS - 2 * ScanJournal.RECORDS_PER_BLOCK;
+        int lastSlot = lastBlockRecords & 1;
+        RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        file.seek(lastBlock + 8 + lastSlot * 12 + 4);
+        file.writeInt(lastBlockRecords + 1);
+        file.close();
+
+        // Act
+        long records = ScanJournal.recover(journalFile);
+
+        // Assert
+        assertThat(records, is((long) RECORDS - 1));
+    }
+
+    @Test
+    public void scanJournal_close_expectCloseMarkerAndAllRecords() throws Exception {
+
+        // Arrange
+        File journalFile = folder.newFile("mrider.journal");
+        ScanJournal journal = ScanJournal.create(journalFile);
+        writeScan(journal, RECORDS);
+        boolean closedWhileOpen = ScanJournal.isClosed(journalFile);
+
+        // Act
+        journal.close();
+
+        // Assert
+        assertFalse(closedWhileOpen);
+        assertTrue(ScanJournal.isClosed(journalFile));
+        File textFile = folder.newFile("mrider.txt");
+        assertThat(ScanJournal.exportMorphorider(journalFile, textFile), is((long) RECORDS));
+    }
+
+    @Test
+    public void scanJournal_closed_expectRecordsDropped() throws Exception {
+
+        // Arrange
+        ScanJournal journal = ScanJournal.create(folder.newFile("mrider.journal"));
+        journal.close();
+
+        // Act
+        boolean stored = journal.sample(1, 0, 0, 0, 0, 0, 0);
+
+        // Assert
+        assertFalse(stored);
+        assertThat(journal.getDroppedRecords(), is(1L));
+    }
+
+    /**
+     * Position of a record in the file: the header block, then blocks with a 32 byte header
+     */
+    private static long recordPosition(int record) {
+        int block = record / ScanJournal.RECORDS_PER_BLOCK;
+        int index = record % ScanJournal.RECORDS_PER_BLOCK;
+        return ScanJournal.BLOCK_SIZE * (1L + block) + 32 + index * ScanJournal.RECORD_SIZE;
+    }
+
+    private static void corrupt(File file, long position) throws Exception {
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.seek(position);
+        int value = access.read();
+        access.seek(position);
+        access.write(value ^ 0xFF);
+        access.close();
+    }
+
+    private static int readByte(File file, long position) throws Exception {
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        access.seek(position);
+        int value = access.read();
+        access.close();
+        return value;
+    }
+}
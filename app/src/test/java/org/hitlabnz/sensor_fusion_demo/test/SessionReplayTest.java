@@ -0,0 +1,155 @@
+package org.hitlabnz.sensor_fusion_demo.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.CalibratedGyroscopeFusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.ImprovedOrientationSensor1Fusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.SensorType;
+import org.hitlabnz.sensor_fusion_demo.replay.PredictionEvaluation;
+import org.hitlabnz.sensor_fusion_demo.replay.RenderRateEvaluation;
+import org.hitlabnz.sensor_fusion_demo.replay.SensorRecording;
+import org.hitlabnz.sensor_fusion_demo.replay.SessionReplay;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class SessionReplayTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 50 ms of gyroscope events at 1 kHz with a rotation vector every 5 ms and a few accelerometer events that no
+     * fusion of the test is interested in
+     */
+    private static SensorRecording createRecording() {
+        SensorRecording recording = new SensorRecording();
+        long start = 1484097452185000000L;
+        for (int i = 0; i < 50; i++) {
+            long timestamp = start + i * 1000000L;
+            recording.add(SensorType.GYROSCOPE, timestamp, new float[] { 0.3f, -0.2f, 1.1f });
+            if (i % 5 == 0) {
+                float angle = i * 0.001f;
+                recording.add(SensorType.ROTATION_VECTOR, timestamp,
+                        new float[] { 0, 0, (float) Math.sin(angle), (float) Math.cos(angle) });
+                recording.add(SensorType.ACCELEROMETER, timestamp, new float[] { 0, 0, 9.81f });
+            }
+        }
+        return recording;
+    }
+
+    private static List<float[]> replay(SensorRecording recording, boolean realTime) {
+        final List<float[]> result = new ArrayList<float[]>();
+        new SessionReplay(recording, realTime).replay(new ImprovedOrientationSensor1Fusion(),
+                new SessionReplay.Listener() {
+                    @Override
+                    public void onEvent(int index, boolean orientationChanged, Quaternion quaternion,
+                            long processingNanos) {
+                        result.add(quaternion.array().clone());
+                    }
+                });
+        return result;
+    }
+
+    @Test
+    public void recording_saveAndLoad_expectSameEvents() throws Exception {
+
+        // Arrange
+        SensorRecording recording = createRecording();
+        File file = folder.newFile("session.txt");
+
+        // Act
+        recording.save(file);
+        SensorRecording loaded = SensorRecording.load(file);
+
+        // Assert
+        assertThat(loaded.size(), is(equalTo(recording.size())));
+        for (int i = 0; i < recording.size(); i++) {
+            assertThat(loaded.getSensorType(i), is(equalTo(recording.getSensorType(i))));
+            assertThat(loaded.getTimestamp(i), is(equalTo(recording.getTimestamp(i))));
+            assertArrayEquals(recording.getValues(i), loaded.getValues(i), 0.0f);
+        }
+    }
+
+    @Test
+    public void replay_realTimeAndFast_expectIdenticalOrientations() throws Exception {
+
+        // Arrange
+        SensorRecording recording = createRecording();
+
+        // Act
+        long start = System.nanoTime();
+        List<float[]> realTime = replay(recording, true);
+        long realTimeDuration = System.nanoTime() - start;
+        List<float[]> fast = replay(recording, false);
+
+        // Assert: Accelerometer events are not delivered, the pace has no influence on the result
+        assertThat(realTime.size(), is(equalTo(60)));
+        assertThat(fast.size(), is(equalTo(60)));
+        for (int i = 0; i < fast.size(); i++) {
+            assertArrayEquals(fast.get(i), realTime.get(i), 0.0f);
+        }
+        assertTrue(realTimeDuration >= 49000000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recording_addOlderEvent_expectException() throws Exception {
+
+        // Arrange
+        SensorRecording recording = new SensorRecording();
+        recording.add(SensorType.GYROSCOPE, 2000, new float[3]);
+
+        // Act
+        recording.add(SensorType.GYROSCOPE, 1000, new float[3]);
+    }
+
+    @Test
+    public void predictionEvaluation_constantRotation_expectPredictionWithoutError() throws Exception {
+
+        // Arrange: One second of a rotation with 1 rad/s, gyroscope events at 200 Hz
+        SensorRecording recording = new SensorRecording();
+        for (int i = 0; i < 200; i++) {
+            recording.add(SensorType.GYROSCOPE, 1000000000L + i * 5000000L, new float[] { 0.6f, 0, 0.8f });
+        }
+
+        // Act
+        PredictionEvaluation.Result[] results = new PredictionEvaluation(recording).evaluate(
+                new CalibratedGyroscopeFusion(), new long[] { 50000000L });
+
+        // Assert: Without prediction the orientation lags by 50 ms, which is 2.9 degrees
+        assertThat(results[0].samples, is(equalTo(189)));
+        assertEquals(Math.toDegrees(0.05), results[0].meanHeldError, 0.01);
+        assertEquals(0, results[0].maxPredictedError, 0.01);
+    }
+
+    @Test
+    public void renderRateEvaluation_stillAndMoving_expectFramesOnlyWhileMoving() throws Exception {
+
+        // Arrange: Ten seconds of gyroscope events at 200 Hz, still with sensor noise and rotating with 1 rad/s
+        SensorRecording still = new SensorRecording();
+        SensorRecording moving = new SensorRecording();
+        for (int i = 0; i < 2000; i++) {
+            float noise = i % 2 == 0 ? 0.002f : -0.002f;
+            still.add(SensorType.GYROSCOPE, 1000000000L + i * 5000000L, new float[] { noise, -noise, noise });
+            moving.add(SensorType.GYROSCOPE, 1000000000L + i * 5000000L, new float[] { 0, 1, 0 });
+        }
+        float minAngle = (float) Math.toRadians(0.1);
+
+        // Act
+        RenderRateEvaluation.Result stillResult = new RenderRateEvaluation(still).evaluate(
+                new CalibratedGyroscopeFusion(), minAngle, 60);
+        RenderRateEvaluation.Result movingResult = new RenderRateEvaluation(moving).evaluate(
+                new CalibratedGyroscopeFusion(), minAngle, 60);
+
+        // Assert: Only the first frame while still, every fourth event (capped at 60 fps) while moving
+        assertEquals(12000, stillResult.orientationsPerMinute, 10);
+        assertEquals(6, stillResult.framesPerMinute, 0.1);
+        assertEquals(3000, movingResult.framesPerMinute, 10);
+    }
+}
@@ -0,0 +1,57 @@
+package org.hitlabnz.sensor_fusion_demo.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hitlabnz.sensor_fusion_demo.scanning.ScanOutput;
+
+/**
+ * Helpers shared by the tests
+ */
+final class TestUtils {
+
+    private TestUtils() {
+    }
+
+    /**
+     * Rotation around z by the given angle
+     *
+     * @return The quaternion as x, y, z, w
+     */
+    static float[] rotationAroundZ(double angle) {
+        return new float[] { 0, 0, (float) Math.sin(angle / 2), (float) Math.cos(angle / 2) };
+    }
+
+    /**
+     * Writes a scan of one curve and segment with samples of a rotation around z, 20 ms apart
+     *
+     * @param records The number of records including the three markers
+     */
+    static void writeScan(ScanOutput output, int records) {
+        output.network();
+        output.curve(1, 0);
+        output.segment();
+        for (int i = 0; i < records - 3; i++) {
+            float angle = i * 0.01f;
+            output.sample(1484097452185L + i * 20, 0, (float) Math.cos(angle), (float) Math.sin(angle), 0,
+                    -(float) Math.sin(angle), (float) Math.cos(angle));
+        }
+    }
+
+    static List<String> readLines(File file) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,92 @@
+package org.hitlabnz.sensor_fusion_demo.test;
+
+import org.hitlabnz.sensor_fusion_demo.scanning.TraceWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hitlabnz.sensor_fusion_demo.test.TestUtils.readLines;
+import static org.junit.Assert.*;
+
+public class TraceWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void traceWriter_writeMorphorider_expectOriginalTextFormat() throws Exception {
+
+        // Arrange
+        File file = folder.newFile("mrider.txt");
+        TraceWriter writer = new TraceWriter(file, TraceWriter.Format.MORPHORIDER, 16);
+
+        // Act
+        writeExampleScan(writer);
+
+        // Assert
+        assertThat(readLines(file), is(equalTo(expectedLines())));
+    }
+
+    @Test
+    public void traceWriter_exportBinary_expectSameTextAsMorphorider() throws Exception {
+
+        // Arrange
+        File binaryFile = folder.newFile("mrider.bin");
+        File textFile = folder.newFile("mrider.txt");
+        TraceWriter writer = new TraceWriter(binaryFile, TraceWriter.Format.BINARY, 16);
+
+        // Act
+        writeExampleScan(writer);
+        TraceWriter.exportMorphorider(binaryFile, textFile);
+
+        // Assert
+        assertThat(readLines(textFile), is(equalTo(expectedLines())));
+        assertTrue(binaryFile.length() < textFile.length());
+    }
+
+    @Test
+    public void traceWriter_overflowRingBuffer_expectDroppedRecordsCounted() throws Exception {
+
+        // Arrange
+        File file = folder.newFile("mrider.bin");
+        TraceWriter writer = new TraceWriter(file, TraceWriter.Format.BINARY, 4);
+
+        // Act (writer thread not started, so nothing is drained)
+        for (int i = 0; i < 6; i++) {
+            writer.sample(i, 0, 0, 0, 0, 0, 0);
+        }
+
+        // Assert
+        assertThat(writer.getDroppedRecords(), is(equalTo(2L)));
+    }
+
+    /**
+     * Writes the scan of {@link #expectedLines()}
+     */
+    private static void writeExampleScan(TraceWriter writer) {
+        writer.start();
+        writer.network();
+        writer.curve(1, 0);
+        writer.segment();
+        writer.sample(1484097452185L, 0, 1, 0, 0, -0.5f, 0.25f);
+        writer.segment();
+        writer.sample(1484097452205L, 0.125f, 1, 0, 0, 0, 1);
+        writer.close();
+    }
+
+    private static List<String> expectedLines() {
+        List<String> lines = new ArrayList<>();
+        lines.add("MORPHORIDER NETWORK");
+        lines.add("CURVE  1  0");
+        lines.add("SEGMENT");
+        lines.add("   1484097452185  +0.000000 +1.000000 +0.000000 +0.000000 -0.500000 +0.250000");
+        lines.add("SEGMENT");
+        lines.add("   1484097452205  +0.125000 +1.000000 +0.000000 +0.000000 +0.000000 +1.000000");
+        return lines;
+    }
+}
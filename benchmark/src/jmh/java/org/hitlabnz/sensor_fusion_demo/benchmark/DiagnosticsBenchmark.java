@@ -0,0 +1,61 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.scanning.MatrixDiagnostics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The diagnostics of one scanned sample: Formatting the B/T/N matrix for the log, as every sample used to do, compared
+ * with recording it into the {@link MatrixDiagnostics}. The Log calls themselves are not part of it, they only add
+ * to the former path. Run with the gc profiler and multiply the allocation per operation by 1000 for 1000 samples.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=DiagnosticsBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DiagnosticsBenchmark {
+
+    private final float[] matrix = new float[16];
+    private final MatrixDiagnostics diagnostics = new MatrixDiagnostics(256);
+    private long timestamp = 1484097452185L;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = (float) Math.sin(i);
+        }
+    }
+
+    /**
+     * The former log output of a sample, without the Log calls
+     */
+    @Benchmark
+    public void formatMatrix(Blackhole blackhole) {
+        float[] M = matrix;
+        String one = "   %+4.2f ";
+        String four = one + one + one + one;
+        blackhole.consume("  ___B___  ___T___  ___N___ ");
+        blackhole.consume(String.format(four, M[0], M[4], M[8], M[12]));
+        blackhole.consume(String.format(four, M[1], M[5], M[9], M[13]));
+        blackhole.consume(String.format(four, M[2], M[6], M[10], M[14]));
+        blackhole.consume(String.format(four, M[3], M[7], M[11], M[15]));
+        blackhole.consume(" ");
+    }
+
+    @Benchmark
+    public MatrixDiagnostics recordMatrix() {
+        diagnostics.record(timestamp++, matrix);
+        return diagnostics;
+    }
+}
@@ -0,0 +1,82 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.SensorMath;
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationSnapshot;
+import org.hitlabnz.sensor_fusion_demo.representation.Matrix;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The CPU work of the CubeRenderer on the GL thread to get the transformation of the inside-out scene for one frame:
+ * Converting the quaternion back to angle and axis and rotating as glRotatef does, then multiplying with the view and
+ * projection, compared with reading the rotation matrix of the provider into the buffer that is uploaded to the
+ * shader. The GL calls themselves are not part of it.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=FrameSetupBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameSetupBenchmark {
+
+    private final OrientationSnapshot snapshot = new OrientationSnapshot();
+    private final Quaternion quaternion = new Quaternion();
+
+    private final float[] projectionMatrix = new float[16];
+    private final float[] viewMatrix = new float[16];
+    private final float[] rotationMatrix = new float[16];
+    private final float[] modelViewMatrix = new float[16];
+    private final float[] mvpMatrix = new float[16];
+
+    private final FloatBuffer rotationBuffer = ByteBuffer.allocateDirect(16 * 4).order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+
+    @Setup
+    public void setUp() {
+        // (x, y, z, w) of a rotation of 50 degrees around (1, 2, 3), published like the fusions do
+        float[] rotation = new float[] { 0.113f, 0.226f, 0.339f, 0.906f };
+        float[] matrix = new float[16];
+        SensorMath.getRotationMatrixFromVector(matrix, rotation);
+        float[] published = new float[] { rotation[0], rotation[1], rotation[2], -rotation[3] };
+        snapshot.publish(published, matrix);
+
+        Matrix.frustumM(projectionMatrix, 0, -0.6f, 0.6f, -1, 1, 1, 10);
+        Matrix.setIdentityM(viewMatrix, 0);
+        Matrix.translateM(viewMatrix, 0, 0, 0, -3);
+    }
+
+    /**
+     * The former path: quaternion, acos and the rotation of glRotatef, two matrix products
+     */
+    @Benchmark
+    public float[] quaternionToAxisAngle() {
+        snapshot.readQuaternion(quaternion);
+        Matrix.setRotateM(rotationMatrix, 0, (float) (2.0f * Math.acos(quaternion.getW()) * 180.0f / Math.PI),
+                quaternion.getX(), quaternion.getY(), quaternion.getZ());
+        Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, rotationMatrix, 0);
+        Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
+        return mvpMatrix;
+    }
+
+    /**
+     * The rotation matrix of the provider, copied once into the buffer that is uploaded
+     */
+    @Benchmark
+    public FloatBuffer rotationMatrixBuffer() {
+        snapshot.readRotationMatrix(rotationBuffer);
+        return rotationBuffer;
+    }
+}
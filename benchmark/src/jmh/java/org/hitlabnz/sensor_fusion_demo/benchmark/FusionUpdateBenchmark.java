@@ -0,0 +1,56 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.fusion.OrientationFusion;
+import org.hitlabnz.sensor_fusion_demo.fusion.SensorType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of one orientation update of the fusions, i.e. the processing of one gyroscope event. The absolute references
+ * (rotation vector, accelerometer and compass) are delivered once before the measurement.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=FusionUpdateBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FusionUpdateBenchmark {
+
+    /**
+     * The name of the fusion class, without the Fusion suffix
+     */
+    @Param({ "ImprovedOrientationSensor1", "ExtendedKalmanFilter", "Madgwick", "Mahony" })
+    public String fusionName;
+
+    private OrientationFusion fusion;
+    private final float[] gyroscopeValues = new float[] { 0.02f, -0.01f, 0.3f };
+    private long timestamp;
+
+    @Setup
+    public void setUp() throws Exception {
+        fusion = (OrientationFusion) Class.forName(
+                OrientationFusion.class.getPackage().getName() + "." + fusionName + "Fusion").newInstance();
+        timestamp = 1000000000L;
+        fusion.onSensorEvent(SensorType.ROTATION_VECTOR, timestamp, new float[] { 0.1f, 0.2f, 0.3f });
+        fusion.onSensorEvent(SensorType.ACCELEROMETER, timestamp, new float[] { 1.0f, 2.0f, 9.5f });
+        fusion.onSensorEvent(SensorType.MAGNETIC_FIELD, timestamp, new float[] { 5.0f, 20.0f, -40.0f });
+        fusion.onSensorEvent(SensorType.GYROSCOPE, timestamp, gyroscopeValues);
+    }
+
+    @Benchmark
+    public boolean gyroscopeEvent() {
+        // 400 Hz
+        timestamp += 2500000L;
+        return fusion.onSensorEvent(SensorType.GYROSCOPE, timestamp, gyroscopeValues);
+    }
+}
@@ -0,0 +1,136 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.representation.MathBackend;
+import org.hitlabnz.sensor_fusion_demo.representation.Matrix;
+import org.hitlabnz.sensor_fusion_demo.representation.QuaternionArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The scalar and the Vector API {@link MathBackend} side by side. The vector backend needs a JDK 16+ and is only built
+ * then; the benchmark module passes <code>--add-modules jdk.incubator.vector</code> to the forked JVMs.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=MathBackendBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MathBackendBenchmark {
+
+    @Param({ "scalar", "vector" })
+    public String backendName;
+
+    /**
+     * Number of quaternions of the batch operations
+     */
+    @Param({ "1024" })
+    public int size;
+
+    private MathBackend backend;
+
+    private QuaternionArray lhs;
+    private QuaternionArray rhs;
+    private QuaternionArray output;
+    private float[] dotProducts;
+
+    private final float[] lhsMatrix = new float[16];
+    private final float[] rhsMatrix = new float[16];
+    private final float[] resultMatrix = new float[16];
+    private final float[] vector = new float[] { 1, 2, 3, 1 };
+    private final float[] resultVector = new float[4];
+
+    @Setup
+    public void setUp() {
+        backend = MathBackend.forName(backendName);
+        lhs = new QuaternionArray(size);
+        rhs = new QuaternionArray(size);
+        output = new QuaternionArray(size);
+        dotProducts = new float[size];
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            lhs.set(i, random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat());
+            rhs.set(i, random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat());
+        }
+        lhs.normalise();
+        rhs.normalise();
+        Matrix.setRotateM(lhsMatrix, 0, 30, 0.2f, 0.5f, 0.8f);
+        Matrix.setRotateM(rhsMatrix, 0, 45, 1, 0, 0);
+        Matrix.translateM(rhsMatrix, 0, 1, 2, 3);
+
+        verifyAgainstScalar();
+    }
+
+    /**
+     * A faster backend is worthless if it calculates something else
+     */
+    private void verifyAgainstScalar() {
+        MathBackend scalar = MathBackend.scalar();
+        QuaternionArray expected = new QuaternionArray(size);
+        float[] expectedDotProducts = new float[size];
+        float[] expectedMatrix = new float[16];
+        float[] expectedVector = new float[4];
+
+        scalar.multiplyByQuat(lhs, rhs, expected);
+        backend.multiplyByQuat(lhs, rhs, output);
+        scalar.dotProduct(lhs, rhs, expectedDotProducts);
+        backend.dotProduct(lhs, rhs, dotProducts);
+        scalar.multiplyMM(expectedMatrix, 0, lhsMatrix, 0, rhsMatrix, 0);
+        backend.multiplyMM(resultMatrix, 0, lhsMatrix, 0, rhsMatrix, 0);
+        scalar.multiplyMV(expectedVector, 0, lhsMatrix, 0, vector, 0);
+        backend.multiplyMV(resultVector, 0, lhsMatrix, 0, vector, 0);
+        boolean equal = Arrays.equals(expected.x, output.x) && Arrays.equals(expected.y, output.y)
+                && Arrays.equals(expected.z, output.z) && Arrays.equals(expected.w, output.w)
+                && Arrays.equals(expectedDotProducts, dotProducts) && Arrays.equals(expectedMatrix, resultMatrix)
+                && Arrays.equals(expectedVector, resultVector);
+
+        scalar.normalise(expected);
+        backend.normalise(output);
+        equal = equal && Arrays.equals(expected.x, output.x) && Arrays.equals(expected.y, output.y)
+                && Arrays.equals(expected.z, output.z) && Arrays.equals(expected.w, output.w);
+        if (!equal) {
+            throw new IllegalStateException("Backend " + backend + " differs from the scalar backend");
+        }
+    }
+
+    @Benchmark
+    public QuaternionArray multiplyByQuat() {
+        backend.multiplyByQuat(lhs, rhs, output);
+        return output;
+    }
+
+    @Benchmark
+    public float[] dotProduct() {
+        backend.dotProduct(lhs, rhs, dotProducts);
+        return dotProducts;
+    }
+
+    @Benchmark
+    public QuaternionArray normalise() {
+        backend.normalise(lhs);
+        return lhs;
+    }
+
+    @Benchmark
+    public float[] multiplyMM() {
+        backend.multiplyMM(resultMatrix, 0, lhsMatrix, 0, rhsMatrix, 0);
+        return resultMatrix;
+    }
+
+    @Benchmark
+    public float[] multiplyMV() {
+        backend.multiplyMV(resultVector, 0, lhsMatrix, 0, vector, 0);
+        return resultVector;
+    }
+}
@@ -0,0 +1,90 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.representation.Matrix;
+import org.hitlabnz.sensor_fusion_demo.representation.MatrixF4x4;
+import org.hitlabnz.sensor_fusion_demo.representation.Vector4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the static {@link Matrix} helpers and of {@link MatrixF4x4}.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=MatrixBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MatrixBenchmark {
+
+    private final float[] lhs = new float[16];
+    private final float[] rhs = new float[16];
+    private final float[] result = new float[16];
+    private final float[] vector = new float[] { 1, 2, 3, 1 };
+    private final float[] resultVector = new float[4];
+
+    private final MatrixF4x4 rotation = new MatrixF4x4();
+    private final MatrixF4x4 other = new MatrixF4x4();
+    private final Vector4f vector4f = new Vector4f();
+
+    @Setup
+    public void setUp() {
+        Matrix.setRotateM(lhs, 0, 30, 0.2f, 0.5f, 0.8f);
+        Matrix.setRotateM(rhs, 0, 45, 1, 0, 0);
+        Matrix.translateM(rhs, 0, 1, 2, 3);
+        rotation.setMatrix(lhs.clone());
+        other.setMatrix(rhs.clone());
+    }
+
+    @Benchmark
+    public float[] multiplyMM() {
+        Matrix.multiplyMM(result, 0, lhs, 0, rhs, 0);
+        return result;
+    }
+
+    @Benchmark
+    public float[] multiplyMV() {
+        Matrix.multiplyMV(resultVector, 0, lhs, 0, vector, 0);
+        return resultVector;
+    }
+
+    @Benchmark
+    public float[] setRotateM() {
+        Matrix.setRotateM(result, 0, 30, 0.2f, 0.5f, 0.8f);
+        return result;
+    }
+
+    @Benchmark
+    public boolean invertM() {
+        return Matrix.invertM(result, 0, rhs, 0);
+    }
+
+    @Benchmark
+    public MatrixF4x4 multiplyMatrix4x4ByMatrix() {
+        // Start from the same matrix every time, otherwise the values drift over the iterations
+        System.arraycopy(lhs, 0, rotation.matrix, 0, 16);
+        rotation.multiplyMatrix4x4ByMatrix(other);
+        return rotation;
+    }
+
+    @Benchmark
+    public Vector4f multiplyVector4fByMatrix() {
+        vector4f.setXYZW(1, 2, 3, 1);
+        other.multiplyVector4fByMatrix(vector4f);
+        return vector4f;
+    }
+
+    @Benchmark
+    public MatrixF4x4 transpose() {
+        rotation.transpose();
+        return rotation;
+    }
+}
@@ -0,0 +1,74 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationHistory;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Adding orientations to the {@link OrientationHistory} and looking up the orientation at a past time, as for the
+ * alignment with a camera frame. Both should be allocation-free.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=OrientationHistoryBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrientationHistoryBenchmark {
+
+    @Param({ "512" })
+    public int capacity;
+
+    /**
+     * Time between two orientations in nano-seconds, 200 Hz
+     */
+    private static final long PERIOD = 5000000L;
+
+    private OrientationHistory history;
+    private final float[] quaternion = new float[4];
+    private final Quaternion output = new Quaternion();
+    private long timestamp;
+    private long lookup;
+
+    @Setup
+    public void setUp() {
+        history = new OrientationHistory(capacity);
+        for (int i = 0; i < capacity; i++) {
+            add();
+        }
+    }
+
+    private void add() {
+        double angle = timestamp * 1e-9;
+        quaternion[1] = (float) Math.sin(angle / 2);
+        quaternion[3] = (float) Math.cos(angle / 2);
+        history.add(timestamp, quaternion);
+        timestamp += PERIOD;
+    }
+
+    @Benchmark
+    public long addOrientation() {
+        add();
+        return timestamp;
+    }
+
+    /**
+     * Times spread over the whole history, between two orientations
+     */
+    @Benchmark
+    public Quaternion getQuaternionAt() {
+        lookup = (lookup + 7919 * PERIOD / 3) % (capacity * PERIOD);
+        history.getQuaternionAt(lookup, output);
+        return output;
+    }
+}
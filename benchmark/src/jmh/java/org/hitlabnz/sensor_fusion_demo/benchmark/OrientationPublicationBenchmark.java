@@ -0,0 +1,134 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.hitlabnz.sensor_fusion_demo.orientationProvider.OrientationSnapshot;
+import org.hitlabnz.sensor_fusion_demo.representation.MatrixF4x4;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Contention benchmark between the sensor thread publishing the fused orientation and several threads reading it.
+ *
+ * <p>
+ * Compares the monitor based hand-over, that all providers used before (one synchronizationToken guarding the
+ * quaternion and the matrix), with the lock-free {@link OrientationSnapshot}. One writer publishes at the given event
+ * rate, three readers (the GL thread and two additional consumers) read as fast as they can. The interesting numbers
+ * are the tail latencies of both sides: With the monitor, a reader can stall the sensor callback and vice versa.
+ * </p>
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=OrientationPublicationBenchmark
+ * </pre>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrientationPublicationBenchmark {
+
+    /**
+     * The old way of handing over the orientation, as it was done in OrientationProvider
+     */
+    private final Object synchronizationToken = new Object();
+    private final Quaternion monitorQuaternion = new Quaternion();
+    private final MatrixF4x4 monitorMatrix = new MatrixF4x4();
+
+    /**
+     * The new way of handing over the orientation
+     */
+    private final OrientationSnapshot snapshot = new OrientationSnapshot();
+
+    /**
+     * State of the sensor thread: The orientation that is published next
+     */
+    @State(Scope.Thread)
+    public static class SensorThread {
+
+        /**
+         * Time between two sensor events in microseconds: 5000 = 200 Hz (SENSOR_DELAY_GAME on most devices), 1000 =
+         * 1 kHz (fastest gyroscope rate of current devices), 0 = unthrottled
+         */
+        @Param({ "5000", "1000", "0" })
+        public long eventPeriodMicros;
+
+        final Quaternion quaternion = new Quaternion();
+        final MatrixF4x4 matrix = new MatrixF4x4();
+        float angle;
+
+        /**
+         * Waits for the next sensor event and advances the orientation to simulate a fusion step. Runs outside of the
+         * measurement, so the sample times of the writer only contain the publication itself.
+         */
+        @Setup(Level.Invocation)
+        public void nextEvent() {
+            if (eventPeriodMicros > 0) {
+                LockSupport.parkNanos(eventPeriodMicros * 1000);
+            }
+            angle += 0.01f;
+            quaternion.setXYZW(0, (float) Math.sin(angle / 2), 0, (float) Math.cos(angle / 2));
+            System.arraycopy(quaternion.getMatrix4x4().getMatrix(), 0, matrix.matrix, 0, 16);
+        }
+    }
+
+    /**
+     * State of a reading thread: The target of the copy
+     */
+    @State(Scope.Thread)
+    public static class ReaderThread {
+        final Quaternion quaternion = new Quaternion();
+        final MatrixF4x4 matrix = new MatrixF4x4();
+    }
+
+    @Setup
+    public void setUp() {
+        monitorQuaternion.loadIdentityQuat();
+    }
+
+    @Benchmark
+    @Group("monitor")
+    @GroupThreads(1)
+    public void monitorPublish(SensorThread sensor) {
+        synchronized (synchronizationToken) {
+            monitorQuaternion.copyVec4(sensor.quaternion);
+            monitorMatrix.set(sensor.matrix);
+        }
+    }
+
+    @Benchmark
+    @Group("monitor")
+    @GroupThreads(3)
+    public float monitorRead(ReaderThread reader) {
+        synchronized (synchronizationToken) {
+            reader.quaternion.set(monitorQuaternion);
+            reader.matrix.set(monitorMatrix);
+        }
+        return reader.quaternion.w() + reader.matrix.matrix[5];
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(1)
+    public void snapshotPublish(SensorThread sensor) {
+        snapshot.publish(sensor.quaternion, sensor.matrix);
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(3)
+    public float snapshotRead(ReaderThread reader) {
+        snapshot.readQuaternion(reader.quaternion);
+        snapshot.readRotationMatrix(reader.matrix);
+        return reader.quaternion.w() + reader.matrix.matrix[5];
+    }
+}
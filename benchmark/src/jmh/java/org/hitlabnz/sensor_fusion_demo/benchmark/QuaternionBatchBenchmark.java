@@ -0,0 +1,148 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.hitlabnz.sensor_fusion_demo.representation.QuaternionArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Processing of a long recording: the same operation on every sample, once with one {@link Quaternion} object per
+ * sample and once with a {@link QuaternionArray}.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=QuaternionBatchBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class QuaternionBatchBenchmark {
+
+    @Param({ "1000000" })
+    public int samples;
+
+    private Quaternion[] orientations;
+    private Quaternion[] deltas;
+    private Quaternion[] outputs;
+
+    private QuaternionArray orientationArray;
+    private QuaternionArray deltaArray;
+    private QuaternionArray outputArray;
+
+    private float[] matrices;
+
+    @Setup
+    public void setUp() {
+        orientations = new Quaternion[samples];
+        deltas = new Quaternion[samples];
+        outputs = new Quaternion[samples];
+        orientationArray = new QuaternionArray(samples);
+        deltaArray = new QuaternionArray(samples);
+        outputArray = new QuaternionArray(samples);
+        matrices = new float[16 * samples];
+
+        // Random orientations and small gyroscope steps
+        Random random = new Random(42);
+        for (int i = 0; i < samples; i++) {
+            orientations[i] = new Quaternion();
+            orientations[i].setXYZW(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f,
+                    random.nextFloat() - 0.5f);
+            orientations[i].normalise();
+            deltas[i] = new Quaternion();
+            deltas[i].setXYZW(0.001f * random.nextFloat(), 0.001f * random.nextFloat(), 0.001f * random.nextFloat(),
+                    1);
+            deltas[i].normalise();
+            outputs[i] = new Quaternion();
+            orientationArray.set(i, orientations[i]);
+            deltaArray.set(i, deltas[i]);
+        }
+    }
+
+    @Benchmark
+    public Quaternion[] objectMultiply() {
+        for (int i = 0; i < samples; i++) {
+            deltas[i].multiplyByQuat(orientations[i], outputs[i]);
+        }
+        return outputs;
+    }
+
+    @Benchmark
+    public QuaternionArray batchMultiply() {
+        deltaArray.multiplyByQuat(orientationArray, outputArray);
+        return outputArray;
+    }
+
+    @Benchmark
+    public Quaternion[] objectNormalise() {
+        for (int i = 0; i < samples; i++) {
+            orientations[i].normalise();
+        }
+        return orientations;
+    }
+
+    @Benchmark
+    public QuaternionArray batchNormalise() {
+        orientationArray.normalise();
+        return orientationArray;
+    }
+
+    @Benchmark
+    public Quaternion[] objectSlerp() {
+        for (int i = 0; i < samples; i++) {
+            orientations[i].slerp(deltas[i], outputs[i], 0.3f);
+        }
+        return outputs;
+    }
+
+    @Benchmark
+    public QuaternionArray batchSlerp() {
+        orientationArray.slerp(deltaArray, outputArray, 0.3f);
+        return outputArray;
+    }
+
+    /**
+     * Interleaved column major matrices of all samples, e.g. for the upload into a vertex buffer
+     */
+    @Benchmark
+    public float[] objectToMatrix() {
+        for (int i = 0; i < samples; i++) {
+            outputs[i].set(orientations[i]);
+            System.arraycopy(outputs[i].getMatrix4x4().matrix, 0, matrices, 16 * i, 16);
+        }
+        return matrices;
+    }
+
+    @Benchmark
+    public float[] batchToMatrix() {
+        orientationArray.toMatrix4x4(matrices, 0);
+        return matrices;
+    }
+
+    /**
+     * Applies the gyroscope steps one after another, as the gyroscope fusions do
+     */
+    @Benchmark
+    public Quaternion[] objectIntegrate() {
+        Quaternion previous = orientations[0];
+        for (int i = 0; i < samples; i++) {
+            deltas[i].multiplyByQuat(previous, outputs[i]);
+            previous = outputs[i];
+        }
+        return outputs;
+    }
+
+    @Benchmark
+    public QuaternionArray batchIntegrate() {
+        deltaArray.integrate(orientations[0], outputArray);
+        return outputArray;
+    }
+}
@@ -0,0 +1,103 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.representation.MatrixF4x4;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the {@link Quaternion} operations that the fusions execute for every sensor event.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=QuaternionBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QuaternionBenchmark {
+
+    private final Quaternion current = new Quaternion();
+    private final Quaternion delta = new Quaternion();
+    private final Quaternion target = new Quaternion();
+    private final Quaternion output = new Quaternion();
+
+    /**
+     * Angle of the rotation that is converted to a matrix, changed with every call so the cached matrix of the
+     * quaternion is always dirty
+     */
+    private float angle;
+    private boolean flip;
+
+    @Setup
+    public void setUp() {
+        // A small gyroscope step around a tilted axis, like the fusions calculate it
+        current.setXYZW(0.1f, 0.2f, 0.3f, 0.9f);
+        current.normalise();
+        delta.setXYZW(0.001f, 0.002f, 0.0015f, -1);
+        delta.normalise();
+        target.setXYZW(0.12f, 0.18f, 0.31f, 0.89f);
+        target.normalise();
+    }
+
+    @Benchmark
+    public Quaternion multiplyByQuat() {
+        delta.multiplyByQuat(current, output);
+        return output;
+    }
+
+    @Benchmark
+    public Quaternion slerp() {
+        current.slerp(target, output, 0.005f);
+        return output;
+    }
+
+    @Benchmark
+    public float dotProduct() {
+        return current.dotProduct(target);
+    }
+
+    @Benchmark
+    public Quaternion normalise() {
+        output.setXYZW(0.1f, 0.2f, 0.3f, 0.9f);
+        output.normalise();
+        return output;
+    }
+
+    /**
+     * Conversion of a changed quaternion to a rotation matrix (convertQuatToMatrix)
+     */
+    @Benchmark
+    public MatrixF4x4 convertQuatToMatrix() {
+        angle += 0.001f;
+        output.setXYZW(0, (float) Math.sin(angle), 0, (float) Math.cos(angle));
+        return output.getMatrix4x4();
+    }
+
+    /**
+     * Conversion of a changed quaternion to a rotation matrix, without the trigonometry of
+     * {@link #convertQuatToMatrix()}: alternates between two precalculated quaternions
+     */
+    @Benchmark
+    public MatrixF4x4 copyAndConvertQuatToMatrix() {
+        flip = !flip;
+        output.set(flip ? current : target);
+        return output.getMatrix4x4();
+    }
+
+    /**
+     * Conversion of a rotation matrix to a quaternion, as done by the compass based fusions
+     */
+    @Benchmark
+    public Quaternion setRowMajor() {
+        output.setRowMajor(target.getMatrix4x4().matrix);
+        return output;
+    }
+}
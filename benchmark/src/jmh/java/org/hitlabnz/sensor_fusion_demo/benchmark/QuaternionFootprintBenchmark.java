@@ -0,0 +1,68 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.representation.CompactQuaternion;
+import org.hitlabnz.sensor_fusion_demo.representation.Quaternion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Heap footprint and allocations of {@link Quaternion} and {@link CompactQuaternion}. Run with the GC profiler (the
+ * default of the benchmark module): gc.alloc.rate.norm of the create benchmarks is the number of bytes one instance
+ * occupies on the heap, the one of the other benchmarks is what a short lived quaternion costs in total.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=QuaternionFootprintBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QuaternionFootprintBenchmark {
+
+    private final Quaternion input = new Quaternion();
+    private final CompactQuaternion compactInput = new CompactQuaternion();
+
+    {
+        // Opposite hemisphere, so slerp has to negate the input
+        input.setXYZW(0.1f, 0.2f, 0.3f, -0.9f);
+        input.normalise();
+        compactInput.set(input);
+    }
+
+    @Benchmark
+    public Quaternion createQuaternion() {
+        return new Quaternion();
+    }
+
+    @Benchmark
+    public CompactQuaternion createCompactQuaternion() {
+        return new CompactQuaternion();
+    }
+
+    /**
+     * A temporary quaternion that is used for one multiplication, one slerp and one conversion into a matrix
+     */
+    @Benchmark
+    public float temporaryQuaternion() {
+        Quaternion quaternion = new Quaternion();
+        quaternion.multiplyByQuat(input);
+        quaternion.slerp(input, quaternion, 0.5f);
+        return quaternion.getMatrix4x4().matrix[5];
+    }
+
+    @Benchmark
+    public float temporaryCompactQuaternion() {
+        CompactQuaternion quaternion = new CompactQuaternion();
+        float[] matrix = new float[16];
+        quaternion.multiplyByQuat(compactInput);
+        quaternion.slerp(compactInput, quaternion, 0.5f);
+        quaternion.toMatrix4x4(matrix, 0);
+        return matrix[5];
+    }
+}
@@ -0,0 +1,67 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.scanning.ScanJournal;
+import org.hitlabnz.sensor_fusion_demo.scanning.ScanOutput;
+import org.hitlabnz.sensor_fusion_demo.scanning.TraceWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Adding a scanned sample on the sensor thread: committing it to the memory-mapped {@link ScanJournal} compared with
+ * handing it to the writer thread of the {@link TraceWriter}. Neither should allocate. The journal grows by one
+ * megabyte every 25856 samples, so a long run also measures the mapping of the file.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=ScanOutputBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScanOutputBenchmark {
+
+    @Param({ "JOURNAL", "TRACE_WRITER" })
+    public String output;
+
+    private File file;
+    private ScanOutput scanOutput;
+    private long timestamp = 1484097452185L;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("scan", ".bin");
+        if (output.equals("JOURNAL")) {
+            scanOutput = ScanJournal.create(file);
+        } else {
+            TraceWriter writer = new TraceWriter(file, TraceWriter.Format.BINARY, 4096);
+            writer.start();
+            scanOutput = writer;
+        }
+        scanOutput.network();
+        scanOutput.curve(1, 0);
+        scanOutput.segment();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scanOutput.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean sample() {
+        timestamp += 20;
+        return scanOutput.sample(timestamp, 0, 1, 0, 0, 0, 1);
+    }
+}
@@ -0,0 +1,69 @@
+package org.hitlabnz.sensor_fusion_demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hitlabnz.sensor_fusion_demo.representation.Vector3f;
+import org.hitlabnz.sensor_fusion_demo.representation.Vector4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of {@link Vector3f} and {@link Vector4f}.
+ *
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=VectorBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VectorBenchmark {
+
+    private final Vector3f a3 = new Vector3f(0.3f, -1.2f, 9.7f);
+    private final Vector3f b3 = new Vector3f(22.0f, 5.1f, -40.3f);
+    private final Vector3f result3 = new Vector3f();
+
+    private final Vector4f a4 = new Vector4f(0.1f, 0.2f, 0.3f, 0.9f);
+    private final Vector4f b4 = new Vector4f(0.12f, 0.18f, 0.31f, 0.89f);
+    private final Vector4f result4 = new Vector4f();
+
+    @Benchmark
+    public Vector3f crossProduct() {
+        a3.crossProduct(b3, result3);
+        return result3;
+    }
+
+    @Benchmark
+    public float dotProduct3() {
+        return a3.dotProduct(b3);
+    }
+
+    @Benchmark
+    public Vector3f normalize3() {
+        result3.set(b3);
+        result3.normalize();
+        return result3;
+    }
+
+    @Benchmark
+    public float dotProduct4() {
+        return a4.dotProduct(b4);
+    }
+
+    @Benchmark
+    public Vector4f lerp() {
+        a4.lerp(b4, result4, 0.005f);
+        return result4;
+    }
+
+    @Benchmark
+    public Vector4f normalize4() {
+        result4.copyVec4(b4);
+        result4.normalize();
+        return result4;
+    }
+}
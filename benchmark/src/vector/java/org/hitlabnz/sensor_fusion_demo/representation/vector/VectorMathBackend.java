@@ -0,0 +1,116 @@
+package org.hitlabnz.sensor_fusion_demo.representation.vector;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import org.hitlabnz.sensor_fusion_demo.representation.MathBackend;
+import org.hitlabnz.sensor_fusion_demo.representation.QuaternionArray;
+
+/**
+ * {@link MathBackend} with SIMD instructions, based on the incubating Vector API (jdk.incubator.vector). Only
+ * available on the host, the JVM has to run with <code>--add-modules jdk.incubator.vector</code>.
+ *
+ * The quaternion arrays are processed with the widest vectors of the CPU, one quaternion per lane. The 4x4 matrices
+ * are processed column by column with vectors of four lanes. Every result is calculated with the same operations in
+ * the same order as the scalar code (no fused multiply-add), so the results are bit-identical.
+ */
+public class VectorMathBackend extends MathBackend {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> SPECIES_4 = FloatVector.SPECIES_128;
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+
+    @Override
+    public void multiplyByQuat(QuaternionArray lhs, QuaternionArray rhs, QuaternionArray output) {
+        int size = lhs.size();
+        int i = 0;
+        for (int bound = SPECIES.loopBound(size); i < bound; i += SPECIES.length()) {
+            FloatVector ax = FloatVector.fromArray(SPECIES, lhs.x, i);
+            FloatVector ay = FloatVector.fromArray(SPECIES, lhs.y, i);
+            FloatVector az = FloatVector.fromArray(SPECIES, lhs.z, i);
+            FloatVector aw = FloatVector.fromArray(SPECIES, lhs.w, i);
+            FloatVector bx = FloatVector.fromArray(SPECIES, rhs.x, i);
+            FloatVector by = FloatVector.fromArray(SPECIES, rhs.y, i);
+            FloatVector bz = FloatVector.fromArray(SPECIES, rhs.z, i);
+            FloatVector bw = FloatVector.fromArray(SPECIES, rhs.w, i);
+            aw.mul(bw).sub(ax.mul(bx)).sub(ay.mul(by)).sub(az.mul(bz)).intoArray(output.w, i);
+            aw.mul(bx).add(ax.mul(bw)).add(ay.mul(bz)).sub(az.mul(by)).intoArray(output.x, i);
+            aw.mul(by).add(ay.mul(bw)).add(az.mul(bx)).sub(ax.mul(bz)).intoArray(output.y, i);
+            aw.mul(bz).add(az.mul(bw)).add(ax.mul(by)).sub(ay.mul(bx)).intoArray(output.z, i);
+        }
+        for (; i < size; i++) {
+            float ax = lhs.x[i], ay = lhs.y[i], az = lhs.z[i], aw = lhs.w[i];
+            float bx = rhs.x[i], by = rhs.y[i], bz = rhs.z[i], bw = rhs.w[i];
+            output.set(i, aw * bx + ax * bw + ay * bz - az * by, aw * by + ay * bw + az * bx - ax * bz,
+                    aw * bz + az * bw + ax * by - ay * bx, aw * bw - ax * bx - ay * by - az * bz);
+        }
+    }
+
+    @Override
+    public void dotProduct(QuaternionArray a, QuaternionArray b, float[] output) {
+        int size = a.size();
+        int i = 0;
+        for (int bound = SPECIES.loopBound(size); i < bound; i += SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, a.x, i).mul(FloatVector.fromArray(SPECIES, b.x, i))
+                    .add(FloatVector.fromArray(SPECIES, a.y, i).mul(FloatVector.fromArray(SPECIES, b.y, i)))
+                    .add(FloatVector.fromArray(SPECIES, a.z, i).mul(FloatVector.fromArray(SPECIES, b.z, i)))
+                    .add(FloatVector.fromArray(SPECIES, a.w, i).mul(FloatVector.fromArray(SPECIES, b.w, i)))
+                    .intoArray(output, i);
+        }
+        for (; i < size; i++) {
+            output[i] = a.x[i] * b.x[i] + a.y[i] * b.y[i] + a.z[i] * b.z[i] + a.w[i] * b.w[i];
+        }
+    }
+
+    @Override
+    public void normalise(QuaternionArray quaternions) {
+        float[] x = quaternions.x, y = quaternions.y, z = quaternions.z, w = quaternions.w;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(w.length); i < bound; i += SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector vy = FloatVector.fromArray(SPECIES, y, i);
+            FloatVector vz = FloatVector.fromArray(SPECIES, z, i);
+            FloatVector vw = FloatVector.fromArray(SPECIES, w, i);
+            FloatVector mag = vw.mul(vw).add(vx.mul(vx)).add(vy.mul(vy)).add(vz.mul(vz)).sqrt();
+            vw.div(mag).intoArray(w, i);
+            vx.div(mag).intoArray(x, i);
+            vy.div(mag).intoArray(y, i);
+            vz.div(mag).intoArray(z, i);
+        }
+        for (; i < w.length; i++) {
+            float mag = (float) Math.sqrt(w[i] * w[i] + x[i] * x[i] + y[i] * y[i] + z[i] * z[i]);
+            w[i] = w[i] / mag;
+            x[i] = x[i] / mag;
+            y[i] = y[i] / mag;
+            z[i] = z[i] / mag;
+        }
+    }
+
+    @Override
+    public void multiplyMM(float[] output, int outputOffset, float[] lhs, int lhsOffset, float[] rhs,
+            int rhsOffset) {
+        FloatVector column0 = FloatVector.fromArray(SPECIES_4, lhs, lhsOffset);
+        FloatVector column1 = FloatVector.fromArray(SPECIES_4, lhs, lhsOffset + 4);
+        FloatVector column2 = FloatVector.fromArray(SPECIES_4, lhs, lhsOffset + 8);
+        FloatVector column3 = FloatVector.fromArray(SPECIES_4, lhs, lhsOffset + 12);
+        for (int j = 0; j < 16; j += 4) {
+            int r = rhsOffset + j;
+            column0.mul(rhs[r]).add(column1.mul(rhs[r + 1])).add(column2.mul(rhs[r + 2]))
+                    .add(column3.mul(rhs[r + 3])).intoArray(output, outputOffset + j);
+        }
+    }
+
+    @Override
+    public void multiplyMV(float[] output, int outputOffset, float[] lhs, int lhsOffset, float[] rhs,
+            int rhsOffset) {
+        FloatVector.fromArray(SPECIES_4, lhs, lhsOffset).mul(rhs[rhsOffset])
+                .add(FloatVector.fromArray(SPECIES_4, lhs, lhsOffset + 4).mul(rhs[rhsOffset + 1]))
+                .add(FloatVector.fromArray(SPECIES_4, lhs, lhsOffset + 8).mul(rhs[rhsOffset + 2]))
+                .add(FloatVector.fromArray(SPECIES_4, lhs, lhsOffset + 12).mul(rhs[rhsOffset + 3]))
+                .intoArray(output, outputOffset);
+    }
+}